@@ -1,7 +1,9 @@
 package bench;
 
 import bst.MyBSTnext;
+import bst.MyBSTnextLong;
 import bst.MyBSTBaseline;
+import bst.ShapeReport;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.lang.management.GarbageCollectorMXBean;
@@ -16,6 +18,13 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * Academic-style benchmark following ConcurrentSizeMethods framework.
  * Compares MyBST vs MyBSTBaseline with comprehensive metrics.
  * Tests insert, delete, contains, size, rank, and select operations.
+ * Pass "long" as an argument to also run MyBSTnextLong (unboxed keys) on the same workloads.
+ * Pass "update-heavy" to run only ins30-del20-con50 (the 30ins-20rem scenario of the paper
+ * results) and print its throughput per trial, e.g. to measure update-path metadata cost.
+ * Pass "deferred" to also run MyBSTnext with deferred size deltas (MyBSTDeferred).
+ * Pass "grouped" to also run MyBSTnext with hierarchical handshakes, 16 slots per group
+ * (MyBSTGrouped), against the flat scan of MyBST.
+ * Pass "shape" to append the post-trial ShapeReport columns (tree depth and skew) to each row.
  */
 public class AcademicStyleBenchmark {
     
@@ -58,10 +67,25 @@ public class AcademicStyleBenchmark {
         int size();
         int rank(int key);
         Integer select(int k);
+        /** Post-trial shape of the tree, null if the implementation does not report one. */
+        default ShapeReport shape() { return null; }
     }
     
     static class MyBSTWrapper implements BSTAdapter {
-        private final MyBSTnext<Integer, Integer> tree = new MyBSTnext<>();
+        private final MyBSTnext<Integer, Integer> tree;
+        
+        MyBSTWrapper() {
+            this(false);
+        }
+        
+        MyBSTWrapper(boolean deferSizeDeltas) {
+            this.tree = new MyBSTnext<>(deferSizeDeltas);
+        }
+        
+        MyBSTWrapper(boolean deferSizeDeltas, int handshakeGroupSize) {
+            this(deferSizeDeltas);
+            tree.setHandshakeGroupSize(handshakeGroupSize);
+        }
         
         @Override
         public boolean insert(int key) {
@@ -92,6 +116,46 @@ public class AcademicStyleBenchmark {
         public Integer select(int k) {
             return tree.select(k);
         }
+        
+        @Override
+        public ShapeReport shape() {
+            return tree.shapeReport();
+        }
+    }
+    
+    static class MyBSTLongWrapper implements BSTAdapter {
+        private final MyBSTnextLong<Boolean> tree = new MyBSTnextLong<>();
+        
+        @Override
+        public boolean insert(int key) {
+            return tree.put(key, Boolean.TRUE) == null;
+        }
+        
+        @Override
+        public boolean delete(int key) {
+            return tree.remove(key) != null;
+        }
+        
+        @Override
+        public boolean contains(int key) {
+            return tree.get(key) != null;
+        }
+        
+        @Override
+        public int size() {
+            return tree.sizeSnapshot();
+        }
+        
+        @Override
+        public int rank(int key) {
+            return tree.rank(key);
+        }
+        
+        @Override
+        public Integer select(int k) {
+            long key = tree.select(k);
+            return (key == MyBSTnextLong.NO_KEY) ? null : (int) key;
+        }
     }
     
     static class MyBSTBaselineWrapper implements BSTAdapter {
@@ -126,6 +190,11 @@ public class AcademicStyleBenchmark {
         public Integer select(int k) {
             return tree.select(k);
         }
+        
+        @Override
+        public ShapeReport shape() {
+            return tree.shapeReport();
+        }
     }
     
     static class Worker extends Thread {
@@ -309,6 +378,9 @@ public class AcademicStyleBenchmark {
         return total;
     }
     
+    // "shape" argument: append the post-trial ShapeReport columns to every row
+    static boolean logShape = false;
+    
     static void runTrial(PrintStream out, String algName, BSTAdapter tree, 
                         WorkloadConfig config, double seconds,
                         int initSize, int maxKey, int trialNum) throws Exception {
@@ -382,6 +454,7 @@ public class AcademicStyleBenchmark {
                       w.getDoneRank() + w.getDoneSelect();
             totalOps += ops;
         }
+        System.out.printf("%.0f ops/s ", totalOps / seconds);
         
         long totalElapsedUser = 0, totalElapsedWall = 0, totalElapsedCPU = 0;
         for (Worker w : workers) {
@@ -421,6 +494,11 @@ public class AcademicStyleBenchmark {
         out.print("," + (totalRank / seconds));
         out.print("," + (totalSelect / seconds));
         
+        if (logShape) {
+            ShapeReport shape = tree.shape();
+            out.print("," + (shape == null ? ",,,,," : shape.toCsv()));
+        }
+        
         out.println();
     }
     
@@ -448,6 +526,13 @@ public class AcademicStyleBenchmark {
         double seconds = 5.0;
         int initSize = 10000;
         int maxKey = 200000;
+        boolean runLong = List.of(args).contains("long");
+        boolean runDeferred = List.of(args).contains("deferred");
+        boolean runGrouped = List.of(args).contains("grouped");
+        logShape = List.of(args).contains("shape");
+        if (List.of(args).contains("update-heavy")) {
+            workloads = new WorkloadConfig[] { new WorkloadConfig(30, 20, 50, 0, 0, 0) };
+        }
         
         String filename = "academic_benchmark_results.csv";
         PrintStream out = new PrintStream(new FileOutputStream(filename));
@@ -455,7 +540,8 @@ public class AcademicStyleBenchmark {
         // CSV header
         out.println("name,workload,totalThreads,totalThroughput," +
                    "totalUserTime,totalWallTime,totalCPUTime,gcTime,seconds," +
-                   "insThroughput,delThroughput,containsThroughput,sizeThroughput,rankThroughput,selectThroughput");
+                   "insThroughput,delThroughput,containsThroughput,sizeThroughput,rankThroughput,selectThroughput" +
+                   (logShape ? "," + ShapeReport.CSV_HEADER : ""));
         
         System.out.println("╔══════════════════════════════════════════════════════════════════════════╗");
         System.out.println("║          ACADEMIC-STYLE BENCHMARK (MyBST vs MyBSTBaseline)              ║");
@@ -464,7 +550,7 @@ public class AcademicStyleBenchmark {
         System.out.println("╚══════════════════════════════════════════════════════════════════════════╝");
         System.out.println();
         
-        int totalTests = workloads.length * nTrials * 2;
+        int totalTests = workloads.length * nTrials * (2 + (runLong ? 1 : 0) + (runDeferred ? 1 : 0) + (runGrouped ? 1 : 0));
         int completed = 0;
         
         for (WorkloadConfig config : workloads) {
@@ -490,6 +576,45 @@ public class AcademicStyleBenchmark {
                         seconds, initSize, maxKey, trial);
                 
                 System.out.println("✓");
+                
+                if (runLong) {
+                    // Test MyBSTLong (primitive keys, same workload)
+                    System.out.printf("[%d/%d] MyBSTLong %s trial=%d... ",
+                        ++completed, totalTests, config, trial+1);
+                    System.out.flush();
+                    
+                    MyBSTLongWrapper mybstLong = new MyBSTLongWrapper();
+                    runTrial(out, "MyBSTLong", mybstLong, config,
+                            seconds, initSize, maxKey, trial);
+                    
+                    System.out.println("✓");
+                }
+                
+                if (runDeferred) {
+                    // Test MyBST with fastSize deltas deferred to the next query
+                    System.out.printf("[%d/%d] MyBSTDeferred %s trial=%d... ",
+                        ++completed, totalTests, config, trial+1);
+                    System.out.flush();
+                    
+                    MyBSTWrapper mybstDeferred = new MyBSTWrapper(true);
+                    runTrial(out, "MyBSTDeferred", mybstDeferred, config,
+                            seconds, initSize, maxKey, trial);
+                    
+                    System.out.println("✓");
+                }
+                
+                if (runGrouped) {
+                    // Test MyBST with hierarchical handshakes (group summaries instead of a flat slot scan)
+                    System.out.printf("[%d/%d] MyBSTGrouped %s trial=%d... ",
+                        ++completed, totalTests, config, trial+1);
+                    System.out.flush();
+                    
+                    MyBSTWrapper mybstGrouped = new MyBSTWrapper(false, 16);
+                    runTrial(out, "MyBSTGrouped", mybstGrouped, config,
+                            seconds, initSize, maxKey, trial);
+                    
+                    System.out.println("✓");
+                }
             }
         }
         
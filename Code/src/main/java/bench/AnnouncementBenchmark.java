@@ -0,0 +1,101 @@
+package bench;
+
+import bst.AnnouncementProbe;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Microbenchmark for the per-operation cost of handshake announcements.
+ * Each updater makes the announcements MyBSTnext makes around every update, through the
+ * tree's own Handshake and ThreadSlotRegistry (see bst.AnnouncementProbe): slot lookup,
+ * announce FAST_PHASE with its chunk active bit, read queriesPhase, announce IDLE_PHASE.
+ * Compares the flat layout with grouped mode (group bytes next to each announcement), and
+ * measures a query's switch to slow and back, both handshakes, over idle leased slots.
+ */
+public class AnnouncementBenchmark {
+
+    static final int GROUP_SIZE = 8;
+
+    static volatile long blackhole;  // Keeps the queriesPhase reads alive
+
+    /** Returns nanoseconds per announce/read/idle round, averaged over all threads. */
+    static double runAnnounce(AnnouncementProbe probe, int threads, int millis) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch stop = new CountDownLatch(threads);
+        AtomicLong totalOps = new AtomicLong(0);
+        final long endAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    long ops = 0;
+                    long sink = 0;
+                    while ((ops & 1023) != 0 || System.nanoTime() < endAt) {
+                        sink += probe.announceUpdate();
+                        ops++;
+                    }
+                    blackhole = sink;
+                    totalOps.addAndGet(ops);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    stop.countDown();
+                }
+            });
+            worker.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        stop.await();
+        long elapsed = System.nanoTime() - begin;
+        return (double) elapsed * threads / totalOps.get();
+    }
+
+    /** Returns nanoseconds for one switch to slow and back over n idle slots. */
+    static double runSwitch(AnnouncementProbe probe, int rounds) {
+        long begin = System.nanoTime();
+        for (int r = 0; r < rounds; r++) probe.switchToSlowAndBack();
+        long elapsed = System.nanoTime() - begin;
+        return (double) elapsed / rounds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = {1, 2, 4, 8, 16, 32, 48, 64, 96};
+        int millis = (args.length >= 1) ? Integer.parseInt(args[0]) : 1000;
+
+        System.out.println("=".repeat(72));
+        System.out.println("HANDSHAKE ANNOUNCEMENT MICROBENCHMARK");
+        System.out.println("Per-operation cost of announce FAST / read queriesPhase / announce IDLE");
+        System.out.println("=".repeat(72));
+
+        // Warmup
+        for (int i = 0; i < 3; i++) {
+            runAnnounce(new AnnouncementProbe(0), 4, 200);
+            runAnnounce(new AnnouncementProbe(GROUP_SIZE), 4, 200);
+        }
+
+        // A fresh probe per row: worker threads keep their slots until they die
+        System.out.printf("%n%8s | %18s | %18s | %8s%n", "Threads", "Flat ns/op", "Grouped ns/op", "Ratio");
+        System.out.println("-".repeat(62));
+        for (int threads : threadCounts) {
+            double flat = runAnnounce(new AnnouncementProbe(0), threads, millis);
+            double grouped = runAnnounce(new AnnouncementProbe(GROUP_SIZE), threads, millis);
+            System.out.printf("%8d | %18.2f | %18.2f | %7.2fx%n", threads, flat, grouped, flat / grouped);
+        }
+
+        System.out.printf("%n%8s | %18s | %18s%n", "Slots", "Flat switch ns", "Grouped switch ns");
+        System.out.println("-".repeat(52));
+        for (int n : new int[] {16, 64, 256, 1024}) {
+            AnnouncementProbe flat = new AnnouncementProbe(0);
+            AnnouncementProbe grouped = new AnnouncementProbe(GROUP_SIZE);
+            flat.leaseIdleSlots(n);
+            grouped.leaseIdleSlots(n);
+            runSwitch(flat, 10_000);
+            runSwitch(grouped, 10_000);
+            System.out.printf("%8d | %18.1f | %18.1f%n", n,
+                runSwitch(flat, 100_000), runSwitch(grouped, 100_000));
+        }
+    }
+}
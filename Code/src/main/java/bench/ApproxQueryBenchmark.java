@@ -0,0 +1,121 @@
+package bench;
+
+import bst.MyBSTnext;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Update throughput of MyBSTnext next to one dashboard thread that refreshes size, the
+ * rank of a random key and the median, either approximately (sizeApprox, rankApprox,
+ * selectApprox) or exactly (sizeSnapshot, rank, select), every refresh period or back to
+ * back, against the same update threads (50ins-50rem) with no dashboard at all. The
+ * approximate dashboard never enters the handshake, so its rows should match the baseline;
+ * back to back it still takes its share of the cores when threads outnumber them.
+ *
+ * Usage: java bench.ApproxQueryBenchmark [seconds] [updateThreads] [refreshMillis]
+ */
+public class ApproxQueryBenchmark {
+
+    static final int KEY_RANGE = 100_000;
+
+    enum Dashboard { NONE, APPROX, EXACT }
+
+    /** refreshMillis 0: back to back. Returns updates per second. */
+    static double run(Dashboard dashboard, long refreshMillis, int updateThreads, int seconds, double baseline) throws Exception {
+        MyBSTnext<Integer, Integer> tree = new MyBSTnext<>();
+        Random prefill = new Random(1);
+        for (int i = 0; i < KEY_RANGE / 2; i++) tree.put(prefill.nextInt(KEY_RANGE), i);
+
+        int threads = updateThreads + (dashboard == Dashboard.NONE ? 0 : 1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch stop = new CountDownLatch(threads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder updateOps = new LongAdder(), refreshes = new LongAdder();
+        long handshakesBefore = tree.totalHandshakes.get();
+
+        for (int t = 0; t < updateThreads; t++) {
+            final int seed = t;
+            pool.submit(() -> {
+                try {
+                    Random rnd = new Random(seed);
+                    long ops = 0;
+                    start.await();
+                    while (running.get()) {
+                        int k = rnd.nextInt(KEY_RANGE);
+                        if (rnd.nextBoolean()) tree.put(k, k);
+                        else tree.remove(k);
+                        ops++;
+                    }
+                    updateOps.add(ops);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    stop.countDown();
+                }
+            });
+        }
+        if (dashboard != Dashboard.NONE) {
+            pool.submit(() -> {
+                try {
+                    Random rnd = new Random(-1);
+                    long ops = 0;
+                    start.await();
+                    while (running.get()) {
+                        int k = rnd.nextInt(KEY_RANGE);
+                        if (dashboard == Dashboard.APPROX) {
+                            tree.selectApprox(tree.sizeApprox() / 2);
+                            tree.rankApprox(k);
+                        } else {
+                            tree.select(tree.sizeSnapshot() / 2);
+                            tree.rank(k);
+                        }
+                        ops++;
+                        if (refreshMillis > 0) Thread.sleep(refreshMillis);
+                    }
+                    refreshes.add(ops);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    stop.countDown();
+                }
+            });
+        }
+
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        stop.await();
+        pool.shutdown();
+
+        double updates = updateOps.sum() / (double) seconds;
+        String name = dashboard == Dashboard.NONE ? "no dashboard"
+            : dashboard.name().toLowerCase() + (refreshMillis > 0 ? " every " + refreshMillis + " ms" : " back to back");
+        System.out.printf("%-26s %,12.0f updates/s (%5.1f%% of baseline) | %,11.0f refreshes/s | %,8d handshakes%n",
+            name, updates, baseline > 0 ? 100 * updates / baseline : 100.0,
+            refreshes.sum() / (double) seconds, tree.totalHandshakes.get() - handshakesBefore);
+        return updates;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length >= 1) ? Integer.parseInt(args[0]) : 3;
+        int updateThreads = (args.length >= 2) ? Integer.parseInt(args[1]) : 4;
+        long refreshMillis = (args.length >= 3) ? Long.parseLong(args[2]) : 100;
+
+        System.out.println("=".repeat(104));
+        System.out.println("APPROXIMATE QUERY BENCHMARK (" + updateThreads + " update threads, 1 dashboard thread)");
+        System.out.println("=".repeat(104));
+
+        // Warmup
+        run(Dashboard.NONE, 0, updateThreads, 1, 0);
+        run(Dashboard.APPROX, 0, updateThreads, 1, 0);
+        run(Dashboard.EXACT, 0, updateThreads, 1, 0);
+        System.out.println("-".repeat(104));
+
+        double baseline = run(Dashboard.NONE, 0, updateThreads, seconds, 0);
+        run(Dashboard.APPROX, refreshMillis, updateThreads, seconds, baseline);
+        run(Dashboard.APPROX, 0, updateThreads, seconds, baseline);
+        run(Dashboard.EXACT, refreshMillis, updateThreads, seconds, baseline);
+        run(Dashboard.EXACT, 0, updateThreads, seconds, baseline);
+    }
+}
@@ -0,0 +1,130 @@
+package bench;
+
+import bst.MyBSTnext;
+import bst.WaitStrategy;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * sizeSnapshot() latency of MyBSTnext under each handshake WaitStrategy, with more update
+ * threads (50ins-50rem) than cores. One query thread calls size back to back and records
+ * every call's latency; reports percentiles and the update throughput beside it. Each
+ * strategy also runs with stalled-update helping (MyBSTnext.setStalledUpdateHelping), where
+ * the handshake revokes a descheduled updater instead of waiting for it to run again.
+ *
+ * Usage: java bench.HandshakeWaitBenchmark [seconds] [updateThreadsPerCore]
+ */
+public class HandshakeWaitBenchmark {
+
+    static final int KEY_RANGE = 100_000;
+    static final int MAX_SAMPLES = 1 << 20;
+
+    static final long HELP_AFTER_NANOS = 20_000;
+
+    static void run(WaitStrategy strategy, int updateThreads, int seconds) throws Exception {
+        run(strategy, -1, updateThreads, seconds);
+    }
+
+    /** helpAfterNanos < 0: no helping. */
+    static void run(WaitStrategy strategy, long helpAfterNanos, int updateThreads, int seconds) throws Exception {
+        MyBSTnext<Integer, Integer> tree = new MyBSTnext<>();
+        tree.setWaitStrategy(strategy);
+        if (helpAfterNanos >= 0) tree.setStalledUpdateHelping(helpAfterNanos);
+        Random prefill = new Random(1);
+        for (int i = 0; i < KEY_RANGE / 2; i++) tree.put(prefill.nextInt(KEY_RANGE), i);
+
+        ExecutorService pool = Executors.newFixedThreadPool(updateThreads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch stop = new CountDownLatch(updateThreads + 1);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder updateOps = new LongAdder();
+        long[] latencies = new long[MAX_SAMPLES];
+        int[] samples = new int[1];
+
+        pool.submit(() -> {
+            try {
+                start.await();
+                int n = 0;
+                while (running.get() && n < MAX_SAMPLES) {
+                    long t0 = System.nanoTime();
+                    tree.sizeSnapshot();
+                    latencies[n++] = System.nanoTime() - t0;
+                }
+                samples[0] = n;
+            } catch (InterruptedException ignored) {
+            } finally {
+                stop.countDown();
+            }
+        });
+        for (int t = 0; t < updateThreads; t++) {
+            final int seed = t;
+            pool.submit(() -> {
+                try {
+                    Random rnd = new Random(seed);
+                    long ops = 0;
+                    start.await();
+                    while (running.get()) {
+                        int k = rnd.nextInt(KEY_RANGE);
+                        if (rnd.nextBoolean()) tree.put(k, k);
+                        else tree.remove(k);
+                        ops++;
+                    }
+                    updateOps.add(ops);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    stop.countDown();
+                }
+            });
+        }
+
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        stop.await();
+        pool.shutdown();
+
+        int n = samples[0];
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        String name = strategy + (helpAfterNanos >= 0 ? " +help " + helpAfterNanos / 1000 + "us" : "");
+        System.out.printf("%-44s %,9d sizes | p50 %,10.1f us | p99 %,10.1f us | p99.9 %,10.1f us | max %,10.1f us | %,11.0f updates/s%n",
+            name, n, percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+            n > 0 ? sorted[n - 1] / 1e3 : 0, updateOps.sum() / (double) seconds);
+        if (helpAfterNanos >= 0) System.out.println(" ".repeat(45) + tree.getProfilingStats());
+    }
+
+    static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e3;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length >= 1) ? Integer.parseInt(args[0]) : 3;
+        int perCore = (args.length >= 2) ? Integer.parseInt(args[1]) : 4;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int updateThreads = cores * perCore;
+
+        WaitStrategy[] strategies = {
+            WaitStrategy.SPIN,
+            WaitStrategy.YIELD,
+            WaitStrategy.spinYieldPark(100, 10, 50_000),
+            WaitStrategy.backoff(1_000, 100_000),
+        };
+
+        System.out.println("=".repeat(152));
+        System.out.println("HANDSHAKE WAIT BENCHMARK (" + cores + " cores, " + updateThreads + " update threads, 1 size thread)");
+        System.out.println("=".repeat(152));
+
+        // Warmup
+        run(WaitStrategy.SPIN, updateThreads, 1);
+        System.out.println("-".repeat(152));
+
+        for (WaitStrategy strategy : strategies) {
+            run(strategy, updateThreads, seconds);
+            run(strategy, HELP_AFTER_NANOS, updateThreads, seconds);
+        }
+    }
+}
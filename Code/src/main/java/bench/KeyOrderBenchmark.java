@@ -0,0 +1,163 @@
+package bench;
+
+import bst.MyBSTnext;
+import bst.MyBSTBaseline;
+import bst.ShapeReport;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Sequential vs random key order, with and without rebalancing (MyBSTnext(false, true)).
+ * Each tree is loaded with KEYS keys by all threads (ascending interleaved slices for the
+ * sequential order, a shuffled permutation for the random one), then runs a
+ * 10ins-10rem-80con mix over the same keys, once alone and once next to a rank() thread,
+ * which keeps MyBSTnext on the slow path where propagate walks the whole depth.
+ *
+ * Usage: java bench.KeyOrderBenchmark [seconds] [keys]
+ * Unbalanced sequential loads cost O(n^2), keep keys modest (default 20000).
+ */
+public class KeyOrderBenchmark {
+
+    interface Tree {
+        void insert(int k);
+        void delete(int k);
+        boolean contains(int k);
+        int rank(int k);
+        String stats();
+        ShapeReport shape();
+    }
+
+    static class BaselineTree implements Tree {
+        private final MyBSTBaseline<Integer, Integer> map = new MyBSTBaseline<>();
+        public void insert(int k) { map.put(k, k); }
+        public void delete(int k) { map.remove(k); }
+        public boolean contains(int k) { return map.get(k) != null; }
+        public int rank(int k) { return map.rank(k); }
+        public String stats() { return ""; }
+        public ShapeReport shape() { return map.shapeReport(); }
+    }
+
+    static class HandshakeTree implements Tree {
+        private final MyBSTnext<Integer, Integer> map;
+        HandshakeTree(boolean rebalance) { this.map = new MyBSTnext<>(false, rebalance); }
+        public void insert(int k) { map.put(k, k); }
+        public void delete(int k) { map.remove(k); }
+        public boolean contains(int k) { return map.get(k) != null; }
+        public int rank(int k) { return map.rank(k); }
+        public String stats() { return map.getRebalanceStats() + " | " + map.getHelpingStats(); }
+        public ShapeReport shape() { return map.shapeReport(); }
+    }
+
+    /** Loads keys [0, keys) and returns the load time in milliseconds. */
+    static double load(Tree tree, int threads, int keys, boolean sequential) throws Exception {
+        int[] order = new int[keys];
+        for (int i = 0; i < keys; i++) order[i] = i;
+        if (!sequential) {
+            Random rnd = new Random(42);
+            for (int i = keys - 1; i > 0; i--) {
+                int j = rnd.nextInt(i + 1);
+                int tmp = order[i]; order[i] = order[j]; order[j] = tmp;
+            }
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            pool.submit(() -> {
+                try {
+                    for (int i = first; i < keys; i += threads) tree.insert(order[i]);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        return elapsed / 1e6;
+    }
+
+    /** Returns update/contains operations per second; rankThread adds one rank() caller. */
+    static double run(Tree tree, int threads, int keys, boolean rankThread, int seconds) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch stop = new CountDownLatch(threads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder total = new LongAdder();
+
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            pool.submit(() -> {
+                try {
+                    Random rnd = new Random(seed);
+                    long ops = 0;
+                    start.await();
+                    while (running.get()) {
+                        int k = rnd.nextInt(keys);
+                        int r = rnd.nextInt(100);
+                        if (r < 10) tree.insert(k);
+                        else if (r < 20) tree.delete(k);
+                        else tree.contains(k);
+                        ops++;
+                    }
+                    total.add(ops);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    stop.countDown();
+                }
+            });
+        }
+        if (rankThread) {
+            pool.submit(() -> {
+                Random rnd = new Random(-1);
+                while (running.get()) tree.rank(rnd.nextInt(keys));
+            });
+        }
+
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        stop.await();
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        return total.sum() / (double) seconds;
+    }
+
+    static void report(String name, Supplier<Tree> factory, int[] threadCounts, int keys, int seconds) throws Exception {
+        System.out.println("\n" + name);
+        System.out.println("-".repeat(96));
+        for (boolean sequential : new boolean[] {true, false}) {
+            for (int threads : threadCounts) {
+                Tree tree = factory.get();
+                double loadMs = load(tree, threads, keys, sequential);
+                double alone = run(tree, threads, keys, false, seconds);
+                double withRank = run(tree, threads, keys, true, seconds);
+                ShapeReport shape = tree.shape();
+                System.out.printf("%-10s %3d threads: load %,9.1f ms | %,12.0f ops/s | %,12.0f ops/s + rank | depth %d max %.1f mean | %s%n",
+                    sequential ? "sequential" : "random", threads, loadMs, alone, withRank,
+                    shape.maxDepth(), shape.meanDepth(), tree.stats());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length >= 1) ? Integer.parseInt(args[0]) : 3;
+        int keys = (args.length >= 2) ? Integer.parseInt(args[1]) : 20_000;
+        int[] threadCounts = {1, 4, 16, 32};
+
+        System.out.println("=".repeat(96));
+        System.out.println("KEY ORDER BENCHMARK (" + keys + " keys, then 10% insert, 10% delete, 80% contains)");
+        System.out.println("=".repeat(96));
+
+        // Warmup
+        run(new HandshakeTree(true), 4, keys, true, 1);
+
+        report("MyBSTBaseline", BaselineTree::new, threadCounts, keys, seconds);
+        report("MyBSTnext", () -> new HandshakeTree(false), threadCounts, keys, seconds);
+        report("MyBSTnext, rebalancing", () -> new HandshakeTree(true), threadCounts, keys, seconds);
+    }
+}
@@ -0,0 +1,108 @@
+package bench;
+
+import bst.LingeringModePolicy;
+import bst.ModePolicy;
+import bst.MyBSTnext;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Fast/slow mode policies of MyBSTnext under one size thread with a pause between calls
+ * (0 = back-to-back, the case where the eager policy switches modes on nearly every query),
+ * next to update (50ins-50rem) and get threads. Reports the throughput of each group, the
+ * handshakes per size call and the policy's decisions.
+ *
+ * Usage: java bench.ModePolicyBenchmark [seconds] [updateThreads] [getThreads]
+ */
+public class ModePolicyBenchmark {
+
+    static final int KEY_RANGE = 100_000;
+
+    static void run(String name, Supplier<ModePolicy> policy, long pauseNanos,
+                    int updateThreads, int getThreads, int seconds) throws Exception {
+        MyBSTnext<Integer, Integer> tree = new MyBSTnext<>();
+        tree.setModePolicy(policy.get());
+        Random prefill = new Random(1);
+        for (int i = 0; i < KEY_RANGE / 2; i++) tree.put(prefill.nextInt(KEY_RANGE), i);
+
+        int threads = 1 + updateThreads + getThreads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch stop = new CountDownLatch(threads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder sizeOps = new LongAdder(), updateOps = new LongAdder(), getOps = new LongAdder();
+        long handshakesBefore = tree.totalHandshakes.get();
+
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            pool.submit(() -> {
+                try {
+                    Random rnd = new Random(id);
+                    long ops = 0;
+                    start.await();
+                    if (id == 0) {
+                        while (running.get()) {
+                            tree.sizeSnapshot();
+                            ops++;
+                            long until = System.nanoTime() + pauseNanos;
+                            while (System.nanoTime() < until) Thread.onSpinWait();
+                        }
+                        sizeOps.add(ops);
+                    } else if (id <= updateThreads) {
+                        while (running.get()) {
+                            int k = rnd.nextInt(KEY_RANGE);
+                            if (rnd.nextBoolean()) tree.put(k, k);
+                            else tree.remove(k);
+                            ops++;
+                        }
+                        updateOps.add(ops);
+                    } else {
+                        while (running.get()) {
+                            tree.get(rnd.nextInt(KEY_RANGE));
+                            ops++;
+                        }
+                        getOps.add(ops);
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    stop.countDown();
+                }
+            });
+        }
+
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        stop.await();
+        pool.shutdown();
+
+        long sizes = Math.max(1, sizeOps.sum());
+        System.out.printf("%-9s pause %,7d ns: %,10.0f size/s | %,11.0f updates/s | %,11.0f gets/s | %5.2f handshakes per size%n",
+            name, pauseNanos, sizeOps.sum() / (double) seconds, updateOps.sum() / (double) seconds,
+            getOps.sum() / (double) seconds, (tree.totalHandshakes.get() - handshakesBefore) / (double) sizes);
+        System.out.println("          " + tree.getModeStats());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length >= 1) ? Integer.parseInt(args[0]) : 3;
+        int updateThreads = (args.length >= 2) ? Integer.parseInt(args[1]) : 4;
+        int getThreads = (args.length >= 3) ? Integer.parseInt(args[2]) : 4;
+        long[] pauses = {0, 10_000, 100_000, 1_000_000};
+
+        System.out.println("=".repeat(104));
+        System.out.println("MODE POLICY BENCHMARK (1 size thread, " + updateThreads + " update threads, " + getThreads + " get threads)");
+        System.out.println("=".repeat(104));
+
+        // Warmup
+        run("warmup", () -> ModePolicy.EAGER, 0, updateThreads, getThreads, 1);
+        System.out.println("-".repeat(104));
+
+        for (long pause : pauses) {
+            run("eager", () -> ModePolicy.EAGER, pause, updateThreads, getThreads, seconds);
+            run("linger", () -> new LingeringModePolicy(200_000, 256), pause, updateThreads, getThreads, seconds);
+        }
+    }
+}
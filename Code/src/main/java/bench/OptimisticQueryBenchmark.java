@@ -0,0 +1,96 @@
+package bench;
+
+import bst.MyBSTnext;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optimistic aggregate queries of MyBSTnext (setOptimisticQueries) against the handshake
+ * path, over the share of updates in a rank/update mix. Every thread draws each operation:
+ * an update (50ins-50rem) with the given probability, else a rank() of a random key, over
+ * a prefilled tree. Reports ranks and updates per second, the handshakes per rank, and for
+ * the optimistic tree how its queries ended; the crossover is the update share where the
+ * optimistic rows fall behind, queries then mostly finding an update in flight.
+ *
+ * Usage: java bench.OptimisticQueryBenchmark [seconds] [threads]
+ */
+public class OptimisticQueryBenchmark {
+
+    static final int KEY_RANGE = 100_000;
+
+    static void run(boolean optimistic, double updateShare, int threads, int seconds) throws Exception {
+        MyBSTnext<Integer, Integer> tree = new MyBSTnext<>();
+        tree.setOptimisticQueries(optimistic);
+        Random prefill = new Random(1);
+        for (int i = 0; i < KEY_RANGE / 2; i++) tree.put(prefill.nextInt(KEY_RANGE), i);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch stop = new CountDownLatch(threads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder rankOps = new LongAdder(), updateOps = new LongAdder();
+        long handshakesBefore = tree.totalHandshakes.get();
+
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            pool.submit(() -> {
+                try {
+                    Random rnd = new Random(id);
+                    long ranks = 0, updates = 0;
+                    start.await();
+                    while (running.get()) {
+                        int k = rnd.nextInt(KEY_RANGE);
+                        if (rnd.nextDouble() < updateShare) {
+                            if (rnd.nextBoolean()) tree.put(k, k);
+                            else tree.remove(k);
+                            updates++;
+                        } else {
+                            tree.rank(k);
+                            ranks++;
+                        }
+                    }
+                    rankOps.add(ranks);
+                    updateOps.add(updates);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    stop.countDown();
+                }
+            });
+        }
+
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        stop.await();
+        pool.shutdown();
+
+        long ranks = Math.max(1, rankOps.sum());
+        System.out.printf("%-10s %6.2f%% updates: %,12.0f ranks/s | %,11.0f updates/s | %6.3f handshakes per rank%s%n",
+            optimistic ? "optimistic" : "handshake", updateShare * 100,
+            rankOps.sum() / (double) seconds, updateOps.sum() / (double) seconds,
+            (tree.totalHandshakes.get() - handshakesBefore) / (double) ranks,
+            optimistic ? " | " + tree.getOptimisticStats() : "");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length >= 1) ? Integer.parseInt(args[0]) : 3;
+        int threads = (args.length >= 2) ? Integer.parseInt(args[1]) : 4;
+        double[] updateShares = {0, 0.001, 0.01, 0.05, 0.2, 0.5};
+
+        System.out.println("=".repeat(104));
+        System.out.println("OPTIMISTIC QUERY BENCHMARK (" + threads + " threads, rank or update per operation)");
+        System.out.println("=".repeat(104));
+
+        // Warmup
+        run(false, 0.05, threads, 1);
+        run(true, 0.05, threads, 1);
+        System.out.println("-".repeat(104));
+
+        for (double share : updateShares) {
+            run(false, share, threads, seconds);
+            run(true, share, threads, seconds);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package bench;
+
+import bst.MyBSTnext;
+import bst.MyBSTBaseline;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Measures propagate() sharing: throughput and refresh() outcomes (installed, CAS failed,
+ * elided) for the 30ins-20rem-50con mix on MyBSTBaseline, which propagates on every update,
+ * and on MyBSTnext with one thread calling size() back to back, which keeps it on the slow path.
+ * An elided refresh saves a Version allocation and a CAS, not the level's reads; only a climb
+ * stopped below the root, under a version whose propagate had already reached it, skips the
+ * levels above.
+ *
+ * Usage: java -Dbst.propagationStats=true bench.PropagationBenchmark [seconds]
+ * (the property is set here if missing, before any tree class is loaded)
+ */
+public class PropagationBenchmark {
+
+    interface Tree {
+        void insert(int k);
+        void delete(int k);
+        boolean contains(int k);
+        int size();
+        String stats();
+    }
+
+    static class BaselineTree implements Tree {
+        private final MyBSTBaseline<Integer, Integer> map = new MyBSTBaseline<>();
+        public void insert(int k) { map.put(k, k); }
+        public void delete(int k) { map.remove(k); }
+        public boolean contains(int k) { return map.get(k) != null; }
+        public int size() { return map.sizeSnapshot(); }
+        public String stats() { return map.getPropagationStats(); }
+    }
+
+    static class HandshakeTree implements Tree {
+        private final MyBSTnext<Integer, Integer> map = new MyBSTnext<>();
+        public void insert(int k) { map.put(k, k); }
+        public void delete(int k) { map.remove(k); }
+        public boolean contains(int k) { return map.get(k) != null; }
+        public int size() { return map.sizeSnapshot(); }
+        public String stats() { return map.getPropagationStats(); }
+    }
+
+    static final int KEY_RANGE = 200_000;
+
+    /** Returns update/contains operations per second; sizeThread adds one size() caller. */
+    static double run(Tree tree, int threads, boolean sizeThread, int seconds) throws Exception {
+        Random prefill = new Random(42);
+        for (int i = 0; i < KEY_RANGE / 2; i++) tree.insert(prefill.nextInt(KEY_RANGE));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch stop = new CountDownLatch(threads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder total = new LongAdder();
+
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            pool.submit(() -> {
+                try {
+                    Random rnd = new Random(seed);
+                    long ops = 0;
+                    start.await();
+                    while (running.get()) {
+                        int k = rnd.nextInt(KEY_RANGE);
+                        int r = rnd.nextInt(100);
+                        if (r < 30) tree.insert(k);
+                        else if (r < 50) tree.delete(k);
+                        else tree.contains(k);
+                        ops++;
+                    }
+                    total.add(ops);
+                } catch (InterruptedException ignored) {
+                } finally {
+                    stop.countDown();
+                }
+            });
+        }
+        if (sizeThread) {
+            pool.submit(() -> {
+                while (running.get()) tree.size();
+            });
+        }
+
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        stop.await();
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+        return total.sum() / (double) seconds;
+    }
+
+    static void report(String name, Supplier<Tree> factory, int[] threadCounts, boolean sizeThread, int seconds) throws Exception {
+        System.out.println("\n" + name);
+        System.out.println("-".repeat(72));
+        for (int threads : threadCounts) {
+            Tree tree = factory.get();
+            double throughput = run(tree, threads, sizeThread, seconds);
+            System.out.printf("%3d threads: %,12.0f ops/s | %s%n", threads, throughput, tree.stats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (System.getProperty("bst.propagationStats") == null) {
+            System.setProperty("bst.propagationStats", "true");
+        }
+        int seconds = (args.length >= 1) ? Integer.parseInt(args[0]) : 5;
+        int[] threadCounts = {1, 4, 16, 32, 64, 96};
+
+        System.out.println("=".repeat(72));
+        System.out.println("PROPAGATION BENCHMARK (30% insert, 20% delete, 50% contains)");
+        System.out.println("=".repeat(72));
+
+        // Warmup
+        run(new BaselineTree(), 4, false, 2);
+        run(new HandshakeTree(), 4, true, 2);
+
+        report("MyBSTBaseline (propagates on every update)", BaselineTree::new, threadCounts, false, seconds);
+        report("MyBSTnext + 1 size thread (slow path)", HandshakeTree::new, threadCounts, true, seconds);
+    }
+}
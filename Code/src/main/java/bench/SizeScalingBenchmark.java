@@ -0,0 +1,115 @@
+package bench;
+
+import bst.MyBSTnext;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-thread scaling of MyBSTnext: sizeSnapshot() against sizeCombined(), where concurrent
+ * size callers share one slow-path computation. 1 to 64 size threads run next to fixed
+ * update (50ins-50rem) and get threads over a prefilled tree; reports the throughput of
+ * each group and the handshakes per size call.
+ *
+ * Usage: java bench.SizeScalingBenchmark [seconds] [updateThreads] [getThreads] [handshakeGroupSize]
+ * A group size (8, 16, 32, 64) runs every configuration a second time with hierarchical
+ * handshakes (rows suffixed /g<size>) next to the flat scan.
+ */
+public class SizeScalingBenchmark {
+
+    static final int KEY_RANGE = 100_000;
+
+    static void run(boolean combined, int sizeThreads, int updateThreads, int getThreads, int seconds) throws Exception {
+        run(combined, 0, sizeThreads, updateThreads, getThreads, seconds);
+    }
+
+    static void run(boolean combined, int groupSize, int sizeThreads, int updateThreads, int getThreads, int seconds) throws Exception {
+        MyBSTnext<Integer, Integer> tree = new MyBSTnext<>();
+        if (groupSize > 0) tree.setHandshakeGroupSize(groupSize);
+        Random prefill = new Random(1);
+        for (int i = 0; i < KEY_RANGE / 2; i++) tree.put(prefill.nextInt(KEY_RANGE), i);
+
+        int threads = sizeThreads + updateThreads + getThreads;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch stop = new CountDownLatch(threads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder sizeOps = new LongAdder(), updateOps = new LongAdder(), getOps = new LongAdder();
+
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            pool.submit(() -> {
+                try {
+                    Random rnd = new Random(id);
+                    long ops = 0;
+                    start.await();
+                    if (id < sizeThreads) {
+                        while (running.get()) {
+                            if (combined) tree.sizeCombined();
+                            else tree.sizeSnapshot();
+                            ops++;
+                        }
+                        sizeOps.add(ops);
+                    } else if (id < sizeThreads + updateThreads) {
+                        while (running.get()) {
+                            int k = rnd.nextInt(KEY_RANGE);
+                            if (rnd.nextBoolean()) tree.put(k, k);
+                            else tree.remove(k);
+                            ops++;
+                        }
+                        updateOps.add(ops);
+                    } else {
+                        while (running.get()) {
+                            tree.get(rnd.nextInt(KEY_RANGE));
+                            ops++;
+                        }
+                        getOps.add(ops);
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    stop.countDown();
+                }
+            });
+        }
+
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        stop.await();
+        pool.shutdown();
+
+        double handshakesPerSize = tree.totalHandshakes.get() / (double) Math.max(1, tree.totalSizeCalls.get());
+        String name = (combined ? "combined" : "snapshot") + (groupSize > 0 ? "/g" + groupSize : "");
+        System.out.printf("%-12s %2d size threads: %,12.0f size/s | %,12.0f updates/s | %,12.0f gets/s | %5.2f handshakes per size%s%n",
+            name, sizeThreads,
+            sizeOps.sum() / (double) seconds, updateOps.sum() / (double) seconds, getOps.sum() / (double) seconds,
+            handshakesPerSize, combined ? " | " + tree.getSizeCombiningStats() : "");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int seconds = (args.length >= 1) ? Integer.parseInt(args[0]) : 3;
+        int updateThreads = (args.length >= 2) ? Integer.parseInt(args[1]) : 4;
+        int getThreads = (args.length >= 3) ? Integer.parseInt(args[2]) : 4;
+        int groupSize = (args.length >= 4) ? Integer.parseInt(args[3]) : 0;
+        int[] sizeThreadCounts = {1, 2, 4, 8, 16, 32, 64};
+
+        System.out.println("=".repeat(96));
+        System.out.println("SIZE SCALING BENCHMARK (" + updateThreads + " update threads, " + getThreads + " get threads)");
+        System.out.println("=".repeat(96));
+
+        // Warmup
+        run(true, 4, updateThreads, getThreads, 1);
+        run(false, 4, updateThreads, getThreads, 1);
+        System.out.println("-".repeat(96));
+
+        for (int sizeThreads : sizeThreadCounts) {
+            run(false, sizeThreads, updateThreads, getThreads, seconds);
+            run(true, sizeThreads, updateThreads, getThreads, seconds);
+            if (groupSize > 0) {
+                run(false, groupSize, sizeThreads, updateThreads, getThreads, seconds);
+                run(true, groupSize, sizeThreads, updateThreads, getThreads, seconds);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package bst;
+
+import java.util.ArrayList;
+
+/**
+ * Benchmark hook for bench.AnnouncementBenchmark: runs a Handshake's announcements and
+ * handshakes without a tree around them, through the same calls MyBSTnext makes, so the
+ * numbers include the chunk active bit or group byte each announcement also writes.
+ * Not part of the tree API.
+ */
+public final class AnnouncementProbe {
+
+    private final Handshake handshake = new Handshake();
+    private final ArrayList<ThreadSlotRegistry.Slot> idleSlots = new ArrayList<>();
+
+    /** @param groupSize 0 for the flat layout, else the slots per group (8, 16, 32 or 64) */
+    public AnnouncementProbe(int groupSize) {
+        if (groupSize != 0) handshake.setGroupSize(groupSize);
+    }
+
+    /**
+     * The announcements of one update, as MyBSTnext.put makes them around its work: slot
+     * lookup, FAST, queriesPhase read (and the slow phase if a query is active), IDLE.
+     * Returns the phase read.
+     */
+    public long announceUpdate() {
+        ThreadSlotRegistry.Slot slot = handshake.currentSlot();
+        handshake.beginUpdate(slot);
+        long phase = handshake.getQueriesPhase();
+        if ((phase & 3) != 0) handshake.setOpPhaseVolatile(slot, phase);
+        handshake.setOpPhaseIdle(slot);
+        return phase;
+    }
+
+    /** Leases slots that stay IDLE, for the handshakes to scan past. */
+    public void leaseIdleSlots(int count) {
+        for (int i = 0; i < count; i++) idleSlots.add(handshake.leaseSlot(new Object()));
+    }
+
+    /** One aggregate query's switch to slow and back, both handshakes included. */
+    public void switchToSlowAndBack() {
+        handshake.exitSlowPath(handshake.enterSlowPath());
+    }
+
+    public int scanLimit() {
+        return handshake.registry().scanLimit();
+    }
+}
@@ -0,0 +1,92 @@
+package bst;
+
+import java.util.Arrays;
+
+/**
+ * Per-slot log of deferred fastSize deltas (see MyBSTnext(boolean)).
+ *
+ * A fast-path update that would walk its ancestors adding to fastSize instead adds its delta
+ * here, keyed by the node the walk would start from, so repeated updates under the same parent
+ * collapse into one entry. The log is written only by the slot's owner during fast-path updates
+ * and drained by the handshake after the first handshake, when no fast-path update is in flight;
+ * the phase announcements order the two.
+ *
+ * Open addressing on identity hash codes, no allocation per update once the table has grown.
+ */
+final class DeltaLog {
+
+    static final int MAX_ENTRIES = 1024;  // Owner flushes itself beyond this (bounds memory per slot)
+
+    interface Sink {
+        /** Applies every entry of the log to the tree's metadata and clears it. */
+        void apply(DeltaLog log);
+    }
+
+    private Object[] nodes;  // null until the first deferred update
+    private int[] deltas;
+    private int size;
+
+    /** Adds delta to the entry for start; returns true once the log is full and should be flushed. */
+    boolean add(Object start, int delta) {
+        if (nodes == null) {
+            nodes = new Object[16];
+            deltas = new int[16];
+        }
+        int mask = nodes.length - 1;
+        int i = System.identityHashCode(start) & mask;
+        Object n;
+        while ((n = nodes[i]) != null) {
+            if (n == start) {
+                deltas[i] += delta;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        nodes[i] = start;
+        deltas[i] = delta;
+        if (++size * 2 > nodes.length) grow();
+        return size >= MAX_ENTRIES;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Start node of entry i, or null if the entry is unused; i ranges over [0, capacity()). */
+    Object nodeAt(int i) {
+        return nodes[i];
+    }
+
+    int deltaAt(int i) {
+        return deltas[i];
+    }
+
+    int capacity() {
+        return (nodes == null) ? 0 : nodes.length;
+    }
+
+    void clear() {
+        if (size == 0) return;
+        Arrays.fill(nodes, null);
+        size = 0;
+    }
+
+    private void grow() {
+        Object[] oldNodes = nodes;
+        int[] oldDeltas = deltas;
+        nodes = new Object[oldNodes.length * 2];
+        deltas = new int[oldNodes.length * 2];
+        int mask = nodes.length - 1;
+        for (int j = 0; j < oldNodes.length; j++) {
+            if (oldNodes[j] == null) continue;
+            int i = System.identityHashCode(oldNodes[j]) & mask;
+            while (nodes[i] != null) i = (i + 1) & mask;
+            nodes[i] = oldNodes[j];
+            deltas[i] = oldDeltas[j];
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package bst;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Handshake synchronization shared by the handshake trees (MyBSTnext, MyBSTnextLong).
+ * Owns the per-thread opPhase announcements and the global queriesPhase:
+ *   queriesPhase mod 4 == 0 : fast path (no aggregate query active)
+ *   queriesPhase mod 4 == 1 : switching (first handshake in progress)
+ *   queriesPhase mod 4 == 2 : slow path (aggregate queries active)
+ *   queriesPhase mod 4 == 3 : closing (the last query is checking it is still the last)
+ *
+ * Queries arrive on a ReaderIndicator before reading the phase, and join a slow epoch as
+ * they find it, without writing queriesPhase. A query whose departure empties the indicator
+ * moves the phase from slow to closing, then reads the indicator again: still empty, the
+ * phase goes to fast; else it goes to the next slow epoch (+4 from slow), which the query
+ * that arrived in between already reads as slow. Updates treat closing as slow, queries
+ * wait for it to settle; only the closing query moves the phase out of it.
+ *
+ * Helping mode (setUpdateHelping) bounds how long a handshake waits on a descheduled
+ * updater. An update goes fast only after claiming its fast-path tail (the work after its
+ * flag CAS that differs between the paths: forwarding pointers, fastSize walk or log) and
+ * releases the claim when that tail is done. A handshake that has waited helpAfterNanos on an
+ * unclaimed slot revokes its update instead: the owner can no longer claim, finishes that
+ * update on the slow path once it runs again, so the handshake counts it as acknowledged.
+ * If the revoked update has flagged its descriptor (IInfo/DInfo, published in the slot just
+ * before its flag CAS), the handshake also completes it, as any helping update would, so
+ * the query sees it applied rather than pending. Only an owner stalled inside a claimed tail
+ * is still waited for, a few CASes and one path walk.
+ *
+ * Optimistic mode (setOptimisticQueries) lets queries skip the handshakes while no update
+ * runs. Every update adds to a shared modification word on entry (updates begun, and one
+ * more in flight) and takes its in-flight count back on exit. A query reads the word, goes
+ * on only if no update is in flight, computes from the live metadata and keeps the result if
+ * the word is unchanged: no update ran during the computation, so fastSize was exact
+ * throughout, as after a handshake. Otherwise it takes the slow path.
+ */
+final class Handshake {
+
+    static final int IDLE_PHASE = -1;
+    static final int FAST_PHASE = -2;
+
+    private final ThreadSlotRegistry registry; // opPhase slot for each live thread
+    private final AtomicLong queriesPhase; // Global synchronization for query operations (size, rank, select)
+    private final ReaderIndicator readers;  // Aggregate queries between enterSlowPath and exitSlowPath
+    private final DeltaLog.Sink deferredSizeSink;  // Applies deferred fastSize deltas, null unless deferring
+
+    private volatile ModePolicy modePolicy = ModePolicy.EAGER;
+    private volatile WaitStrategy waitStrategy = WaitStrategy.SPIN;
+    private volatile Thread parkedWaiter;  // Handshaking thread while its strategy may park
+    private volatile boolean lingering;  // Slow mode kept after the last query exited
+    private volatile UpdateHelper updateHelper;  // Helping mode: completes revoked updates' descriptors, else null
+    private volatile long helpAfterNanos;  // Helping mode: wait on an unclaimed slot before revoking its update
+    private volatile boolean optimistic;  // Optimistic mode: updates move modifications, queries validate against it
+
+    // Optimistic mode: updates begun above IN_FLIGHT_BITS, updates in flight below. The begun
+    // count overflows into the sign bit after 2^39 updates; stamps drop that bit, so they
+    // count begun updates modulo 2^39 and stay non-negative, apart from the -1 of no stamp
+    static final int IN_FLIGHT_BITS = 24;
+    private static final long IN_FLIGHT_MASK = (1L << IN_FLIGHT_BITS) - 1;
+    private static final long UPDATE_BEGUN = (1L << IN_FLIGHT_BITS) + 1;
+    private static final long STAMP_MASK = Long.MAX_VALUE;
+    final AtomicLong modifications = new AtomicLong();  // Package-private for tests seeding it near the wrap
+
+    final AtomicLong totalHandshakes = new AtomicLong(0);
+    final AtomicLong totalHandshakeTimeNanos = new AtomicLong(0);
+
+    // Mode decisions: switches to slow, exits that lingered, returns to fast by the last
+    // query or by an update ending a linger, queries that found the tree lingering
+    private final LongAdder slowSwitches = new LongAdder();
+    private final LongAdder lingers = new LongAdder();
+    private final LongAdder fastReturnsByQuery = new LongAdder();
+    private final LongAdder fastReturnsByUpdate = new LongAdder();
+    private final LongAdder lingerHits = new LongAdder();
+    private final LongAdder reopenedEpochs = new LongAdder();  // Closings undone by a query arriving meanwhile
+    final LongAdder emptyHandshakes = new LongAdder();  // Handshakes that found no slot active
+    final LongAdder revokedUpdates = new LongAdder();   // Stalled updates a handshake stopped waiting for
+    final LongAdder completedUpdates = new LongAdder(); // ... whose flagged descriptor it completed
+    final LongAdder optimisticHits = new LongAdder();             // Queries validated without handshake
+    private final LongAdder optimisticBusy = new LongAdder();     // ... that found an update in flight
+    private final LongAdder optimisticInvalid = new LongAdder();  // ... that an update overlapped
+
+    /** Completes an update descriptor on the slow path as the tree's help() does; false if no longer flagged. */
+    interface UpdateHelper {
+        boolean help(Object descriptor);
+    }
+
+    Handshake() {
+        this(null);
+    }
+
+    /**
+     * @param deferredSizeSink if non-null, fast-path updates log their fastSize deltas in their
+     *                         slot instead of applying them, and the first handshake of each
+     *                         switch to the slow path drains every slot's log into this sink
+     */
+    Handshake(DeltaLog.Sink deferredSizeSink) {
+        this.deferredSizeSink = deferredSizeSink;
+        this.queriesPhase = new AtomicLong(0);  // Start at 0 (mod 4 = 0 means fast path)
+        this.registry = new ThreadSlotRegistry();
+        this.readers = new ReaderIndicator();  // No active aggregate queries initially
+    }
+
+    /**
+     * Slot of the calling thread. The first call from a thread leases its slot (and raises
+     * the scan limit) before the thread can announce anything. Update operations look the
+     * slot up once and pass it along instead of going through the ThreadLocal per announcement.
+     */
+    ThreadSlotRegistry.Slot currentSlot() {
+        return registry.current();
+    }
+
+    /** Leases a slot owned by a session handle rather than by the calling thread. */
+    ThreadSlotRegistry.Slot leaseSlot(Object owner) {
+        return registry.lease(owner);
+    }
+
+    void releaseSlot(ThreadSlotRegistry.Slot slot) {
+        registry.release(slot);
+    }
+
+    /** First announcement of an update (FAST until it reads the phase); optimistic, counts it begun. */
+    void beginUpdate(ThreadSlotRegistry.Slot slot) {
+        if (optimistic) modifications.getAndAdd(UPDATE_BEGUN);
+        setOpPhaseVolatile(slot, FAST_PHASE);
+    }
+
+    /** Last announcement of an update, after all its writes (see beginUpdate). */
+    void setOpPhaseIdle(ThreadSlotRegistry.Slot slot) {
+        if (optimistic) modifications.getAndDecrement();
+        if (slot.group != null) slot.setPhaseGrouped(IDLE_PHASE, ThreadSlotRegistry.GROUP_IDLE);
+        else slot.setPhase(IDLE_PHASE);
+        // Volatile write then read, paired with performHandshake's: a waiter that read our
+        // old phase after publishing itself is unparked (or its next park returns at once)
+        Thread waiter = parkedWaiter;
+        if (waiter != null) LockSupport.unpark(waiter);
+        if (updateHelper != null) slot.endUpdate();
+    }
+
+    void setOpPhaseVolatile(ThreadSlotRegistry.Slot slot, long phase) {
+        if (slot.group != null) {
+            slot.setPhaseGrouped(phase, phase == FAST_PHASE ? ThreadSlotRegistry.GROUP_FAST : ThreadSlotRegistry.GROUP_SLOW);
+        } else {
+            slot.setPhase(phase);
+            slot.markActive();
+        }
+    }
+
+    /**
+     * Hierarchical handshakes (see ThreadSlotRegistry.setGroupSize): before the tree's
+     * first operation only.
+     */
+    void setGroupSize(int groupSize) {
+        registry.setGroupSize(groupSize);
+    }
+
+    /**
+     * Helping mode (see class doc): handshakes revoke an update that has not acknowledged
+     * them within afterNanos, and complete its flagged descriptor with helper. Before the
+     * tree's first operation only: owners decide whether to claim from this setting.
+     */
+    void setUpdateHelping(long afterNanos, UpdateHelper helper) {
+        if (afterNanos < 0) throw new IllegalArgumentException("negative wait before helping: " + afterNanos);
+        registry.requireUnleased("update helping");
+        helpAfterNanos = afterNanos;
+        updateHelper = java.util.Objects.requireNonNull(helper, "helper");
+    }
+
+    /**
+     * Optimistic mode (see class doc). Before the tree's first operation only: an update
+     * begun before it would leave the mode with a count it never took back. Not with deferred
+     * size deltas, which stay out of fastSize until a handshake drains them.
+     */
+    void setOptimisticQueries(boolean enabled) {
+        if (enabled && deferredSizeSink != null) throw new IllegalStateException("optimistic queries need fastSize applied in place, not deferred");
+        registry.requireUnleased("optimistic queries");
+        optimistic = enabled;
+    }
+
+    /**
+     * Optimistic mode: a stamp to validate a query computed without handshake, or -1 if the
+     * mode is off or an update is in flight (the query then takes the slow path).
+     */
+    long optimisticStamp() {
+        if (!optimistic) return -1;
+        long stamp = modifications.get() & STAMP_MASK;
+        if ((stamp & IN_FLIGHT_MASK) == 0) return stamp;
+        optimisticBusy.increment();
+        return -1;
+    }
+
+    /** True if no update began since stamp was taken: the reads in between saw no update. */
+    boolean validate(long stamp) {
+        VarHandle.acquireFence();  // The query's reads before the re-read, as StampedLock.validate
+        if ((modifications.get() & STAMP_MASK) == stamp) {
+            optimisticHits.increment();
+            return true;
+        }
+        optimisticInvalid.increment();
+        return false;
+    }
+
+    String optimisticStats() {
+        return String.format("Optimistic: %d queries validated without handshake, %d found an update in flight, %d overlapped one",
+            optimisticHits.sum(), optimisticBusy.sum(), optimisticInvalid.sum());
+    }
+
+    /** Helping mode: records the descriptor the owner is about to flag, no-op otherwise. */
+    void publishDescriptor(ThreadSlotRegistry.Slot slot, Object descriptor) {
+        if (updateHelper != null) slot.pending = descriptor;
+    }
+
+    /**
+     * Called by a fast-path update before its fast-path tail. True if it may take it: always
+     * unless helping, else unless a handshake revoked the update, which then finishes on the
+     * slow path. The claim holds until releaseFastPath or the IDLE announcement.
+     */
+    boolean claimFastPath(ThreadSlotRegistry.Slot slot) {
+        return updateHelper == null || slot.claim();
+    }
+
+    /** Ends a claim, so a handshake can revoke the rest of the update again. */
+    void releaseFastPath(ThreadSlotRegistry.Slot slot) {
+        if (updateHelper != null) slot.unclaim();
+    }
+
+    /** Returns the calling thread's slot to the registry (thread must be idle on this tree). */
+    void releaseCurrentThread() {
+        registry.releaseCurrent();
+    }
+
+    boolean defersSizeDeltas() {
+        return deferredSizeSink != null;
+    }
+
+    ThreadSlotRegistry registry() {
+        return registry;
+    }
+
+    long getQueriesPhase() {
+        return queriesPhase.get();
+    }
+
+    void setModePolicy(ModePolicy policy) {
+        modePolicy = java.util.Objects.requireNonNull(policy, "policy");
+    }
+
+    ModePolicy modePolicy() {
+        return modePolicy;
+    }
+
+    void setWaitStrategy(WaitStrategy strategy) {
+        waitStrategy = java.util.Objects.requireNonNull(strategy, "strategy");
+    }
+
+    /**
+     * Called by an update that announced slowPhase. While lingering with no query active,
+     * asks the policy whether to go back and, if so, moves the phase to fast as the last
+     * query's exit would (the update itself finishes on the slow path, as updates in flight
+     * at that exit do).
+     */
+    void onSlowPathUpdate(long slowPhase) {
+        if (!lingering || !readers.isEmpty() || (slowPhase & 3) != 2) return;
+        if (modePolicy.returnToFast() && closeSlowEpoch(slowPhase)) {
+            lingering = false;
+            fastReturnsByUpdate.increment();
+        }
+    }
+
+    /**
+     * Moves slowPhase to fast if no query has arrived: through closing, re-checking the
+     * indicator once no query can join slowPhase any more. False if the phase was no longer
+     * slowPhase, or a query arrived, in which case the next slow epoch is open for it.
+     */
+    private boolean closeSlowEpoch(long slowPhase) {
+        if (!queriesPhase.compareAndSet(slowPhase, slowPhase + 1)) return false;
+        if (readers.isEmpty()) {
+            queriesPhase.set(slowPhase + 2);
+            return true;
+        }
+        queriesPhase.set(slowPhase + 4);
+        reopenedEpochs.increment();
+        return false;
+    }
+
+    String modeStats() {
+        return String.format("Mode (%s): %d switches to slow, %d lingers (%d queries found slow mode kept), %d returns to fast by the last query, %d by updates, %d closings reopened",
+            modePolicy, slowSwitches.sum(), lingers.sum(), lingerHits.sum(), fastReturnsByQuery.sum(), fastReturnsByUpdate.sum(), reopenedEpochs.sum());
+    }
+
+    private void performHandshake(long targetPhase) {
+        long startTime = System.nanoTime();
+
+        // Only check slots leased to live threads (read limit before table, see ThreadSlotRegistry)
+        int activeThreads = registry.scanLimit();
+        long[][] chunks = registry.chunks();
+        int perChunk = ThreadSlotRegistry.chunkSlots();
+
+        WaitStrategy wait = waitStrategy;
+        ThreadSlotRegistry.Slot[] table = (updateHelper != null) ? registry.slots() : null;  // Read after chunks
+        boolean parks = wait.parks();
+        if (parks) parkedWaiter = Thread.currentThread();  // Before the first phase read
+        boolean anyActive = false;
+        byte[][] groups = registry.groups();
+        try {
+            if (groups != null) {
+                anyActive = awaitGroups(chunks, table, groups, activeThreads, targetPhase, wait);
+            } else {
+                // Visit only slots whose active bit is set; the others announced nothing since
+                // the handshake that cleared them, or announce after this read and then see
+                // queriesPhase already advanced
+                for (int chunk = 0; chunk * perChunk < activeThreads; chunk++) {
+                    long bits = ThreadSlotRegistry.activeBits(chunks, chunk);
+                    while (bits != 0) {
+                        int tid = chunk * perChunk + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        if (tid >= activeThreads) break;
+                        anyActive = true;
+                        awaitSlot(chunks, table, tid, targetPhase, wait);
+                    }
+                }
+            }
+        } finally {
+            if (parks) parkedWaiter = null;
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        totalHandshakes.incrementAndGet();
+        totalHandshakeTimeNanos.addAndGet(elapsed);
+        if (!anyActive) emptyHandshakes.increment();
+        registry.reclaimIfDue(startTime + elapsed);  // Dead threads' slots, even if nothing leases again
+    }
+
+    /**
+     * Grouped handshake: reads each group's summary words and visits only slots whose group
+     * byte is not IDLE, waiting on their exact phase as the flat scan does. An owner whose byte
+     * reads IDLE announces after this read and sees queriesPhase already advanced.
+     */
+    private boolean awaitGroups(long[][] chunks, ThreadSlotRegistry.Slot[] table, byte[][] groups,
+                                int activeThreads, long targetPhase, WaitStrategy wait) {
+        int perChunk = ThreadSlotRegistry.chunkSlots();
+        int groupSize = registry.groupSize();
+        int wordsPerGroup = groupSize / 8;
+        boolean anyActive = false;
+        for (int first = 0; first < activeThreads; first += groupSize) {
+            byte[] summaries = groups[first / perChunk];
+            int groupInChunk = (first % perChunk) / groupSize;
+            for (int word = 0; word < wordsPerGroup; word++) {
+                long bytes = ThreadSlotRegistry.groupWord(summaries, groupInChunk, word);
+                while (bytes != 0) {
+                    int b = Long.numberOfTrailingZeros(bytes) >>> 3;
+                    bytes &= ~(0xFFL << (b * 8));
+                    int tid = first + word * 8 + b;
+                    if (tid >= activeThreads) break;
+                    anyActive = true;
+                    long phase;
+                    int attempt = 0;
+                    long since = 0;
+                    while ((phase = ThreadSlotRegistry.phaseAt(chunks, tid)) != IDLE_PHASE && phase < targetPhase) {
+                        if (table != null) {
+                            if (attempt == 0) since = System.nanoTime();
+                            if (revokeIfStalled(table[tid], since)) break;
+                        }
+                        wait.pause(attempt++);
+                    }
+                }
+            }
+        }
+        return anyActive;
+    }
+
+    // Waits until slot tid is IDLE or has reached targetPhase (or, helping, is revoked), and
+    // clears its active bit if IDLE
+    private void awaitSlot(long[][] chunks, ThreadSlotRegistry.Slot[] table, int tid, long targetPhase, WaitStrategy wait) {
+        int attempt = 0;
+        long since = 0;
+        while (true) {
+            long phase = ThreadSlotRegistry.phaseAt(chunks, tid);
+            if (phase != IDLE_PHASE && phase < targetPhase) {
+                if (table != null) {
+                    if (attempt == 0) since = System.nanoTime();
+                    if (revokeIfStalled(table[tid], since)) return;
+                }
+                // Wait for thread to acknowledge handshake
+                wait.pause(attempt++);
+                continue;
+            }
+            if (phase == IDLE_PHASE) {
+                ThreadSlotRegistry.clearActive(chunks, tid);
+                // The owner may have announced between the read and the clear, still seeing
+                // the bit set: re-check it like a slot that was never idle
+                if (ThreadSlotRegistry.phaseAt(chunks, tid) != IDLE_PHASE) continue;
+            }
+            return;
+        }
+    }
+
+    /**
+     * Helping mode: once slot has kept the handshake waiting since since for helpAfterNanos,
+     * revokes its update, unless the owner holds a claim. True if the update is revoked (by this
+     * or an earlier handshake): it will not take a fast-path tail, the slot counts as
+     * acknowledged. Completes the descriptor the owner published, if it is still flagged.
+     */
+    private boolean revokeIfStalled(ThreadSlotRegistry.Slot slot, long since) {
+        if (slot.update == ThreadSlotRegistry.UPDATE_REVOKED) return true;  // Revoked by the first handshake
+        if (System.nanoTime() - since < helpAfterNanos || !slot.revoke()) return false;
+        revokedUpdates.increment();
+        Object descriptor = slot.pending;  // Racy read: an older descriptor is no longer flagged
+        if (descriptor != null && updateHelper.help(descriptor)) completedUpdates.increment();
+        return true;
+    }
+
+    String helpStats() {
+        return String.format("%d stalled updates revoked (%d completed by the handshake)",
+            revokedUpdates.sum(), completedUpdates.sum());
+    }
+
+    /**
+     * Merges every slot's deferred deltas into the tree. Called after the first handshake:
+     * no fast-path update is in flight and new ones take the slow path until the phase is
+     * back to fast, which needs this reader to exit, so no owner writes its log meanwhile.
+     * Free slots are drained too, deltas of a dead thread are not lost.
+     */
+    private void drainDeferredSizeDeltas() {
+        for (ThreadSlotRegistry.Slot slot : registry.slots()) {
+            if (!slot.deltas.isEmpty()) deferredSizeSink.apply(slot.deltas);
+        }
+    }
+
+    long enterSlowPath() {
+        // Arrive first: a closing query that reads the indicator after our phase read sees us
+        readers.arrive();
+
+        modePolicy.onQuery();
+        long currQueriesPhase = queriesPhase.get();
+
+        // Already in slow path: join the epoch as it is
+        if ((currQueriesPhase & 3) == 2) {
+            if (lingering) lingerHits.increment();
+            return currQueriesPhase;
+        }
+
+        // Wait for a switch to slow path to complete, or a closing to settle either way
+        // (a parking strategy is not unparked here, it wakes on its timeout)
+        int attempt = 0;
+        while ((currQueriesPhase & 3) != 0) {
+            waitStrategy.pause(attempt++);
+            currQueriesPhase = queriesPhase.get();
+            // If transition completed to slow path, return current phase
+            if ((currQueriesPhase & 3) == 2) {
+                return currQueriesPhase;
+            }
+        }
+
+        // Try to be the thread that performs the transition
+        // Use CAS to avoid multiple threads doing handshakes simultaneously
+        if (queriesPhase.compareAndSet(currQueriesPhase, currQueriesPhase + 1)) {
+            slowSwitches.increment();
+            // We won the race, perform the handshakes
+            // First handshake: switching phase (currQueriesPhase + 1)
+            performHandshake(currQueriesPhase + 1);
+            if (deferredSizeSink != null) drainDeferredSizeDeltas();
+
+            // Second handshake: move to slow path (currQueriesPhase + 2)
+            queriesPhase.set(currQueriesPhase + 2);
+            performHandshake(currQueriesPhase + 2);
+
+            return currQueriesPhase + 2;
+        } else {
+            // Another thread is doing the transition, wait for slow path
+            attempt = 0;
+            while (((currQueriesPhase = queriesPhase.get()) & 3) != 2) {
+                waitStrategy.pause(attempt++);
+            }
+            return currQueriesPhase;
+        }
+    }
+
+    /**
+     * Exit slow path protocol.
+     * Departs from the indicator and if that emptied it, closes the current slow epoch
+     * (see closeSlowEpoch), unless the mode policy lingers in slow mode.
+     *
+     * @param currPhase The phase that was captured when entering slow path
+     */
+    void exitSlowPath(long currPhase) {
+        // If we may be the last reader to finish, try to transition back to fast path
+        if (readers.depart() && (currPhase & 3) == 2) {
+            // The policy may keep slow mode for the next query, a later update ends it
+            if (modePolicy.lingerOnLastExit()) {
+                lingering = true;
+                lingers.increment();
+                return;
+            }
+            // The current epoch, not currPhase: queries no longer move it while they overlap
+            long phase = queriesPhase.get();
+            if ((phase & 3) == 2 && closeSlowEpoch(phase)) {
+                lingering = false;
+                fastReturnsByQuery.increment();
+            }
+        }
+    }
+}
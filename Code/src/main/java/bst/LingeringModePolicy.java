@@ -0,0 +1,64 @@
+package bst;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ModePolicy with hysteresis: lingers in slow mode while aggregate queries are frequent,
+ * returns to fast mode once updates dominate.
+ *
+ * Query frequency is an exponentially weighted mean of the gap between consecutive queries
+ * (weight 1/8 per query); the last exit lingers when that mean is below lingerNanos. While
+ * lingering, an update sends the tree back once no query came for lingerNanos, or once more
+ * than maxUpdatesPerQuery updates ran since the last query. Entering slow mode costs two
+ * handshake scans, lingering costs slow-path updates (propagate up to the root), so
+ * maxUpdatesPerQuery is roughly how many slow updates one avoided switch is worth.
+ */
+public final class LingeringModePolicy implements ModePolicy {
+
+    private final long lingerNanos;
+    private final long maxUpdatesPerQuery;
+
+    private volatile long lastQueryNanos = System.nanoTime();
+    private volatile long meanGapNanos;  // Starts at lingerNanos: one quick gap tips it to lingering
+    private final AtomicLong updatesSinceQuery = new AtomicLong();
+
+    /**
+     * @param lingerNanos        longest query gap worth lingering for
+     * @param maxUpdatesPerQuery slow-path updates tolerated between two queries while lingering
+     */
+    public LingeringModePolicy(long lingerNanos, long maxUpdatesPerQuery) {
+        if (lingerNanos <= 0 || maxUpdatesPerQuery <= 0) {
+            throw new IllegalArgumentException("lingerNanos and maxUpdatesPerQuery must be positive");
+        }
+        this.lingerNanos = lingerNanos;
+        this.maxUpdatesPerQuery = maxUpdatesPerQuery;
+        this.meanGapNanos = lingerNanos;
+    }
+
+    @Override
+    public void onQuery() {
+        long now = System.nanoTime();
+        long gap = now - lastQueryNanos;
+        lastQueryNanos = now;
+        // Racy read-modify-write, a lost sample only delays the estimate
+        long mean = meanGapNanos;
+        meanGapNanos = mean + (Math.min(gap, Long.MAX_VALUE / 2) - mean) / 8;
+        if (updatesSinceQuery.get() != 0) updatesSinceQuery.set(0);
+    }
+
+    @Override
+    public boolean lingerOnLastExit() {
+        return meanGapNanos < lingerNanos;
+    }
+
+    @Override
+    public boolean returnToFast() {
+        if (updatesSinceQuery.incrementAndGet() > maxUpdatesPerQuery) return true;
+        return System.nanoTime() - lastQueryNanos > lingerNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("lingering(%d us, %d updates per query)", lingerNanos / 1000, maxUpdatesPerQuery);
+    }
+}
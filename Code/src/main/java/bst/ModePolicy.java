@@ -0,0 +1,32 @@
+package bst;
+
+/**
+ * Decides when a handshake tree (MyBSTnext, MyBSTnextLong) leaves the slow path.
+ *
+ * By default (EAGER) the last aggregate query to exit sends the tree back to the fast path,
+ * so a steady stream of queries separated by short gaps pays the two handshake scans of the
+ * switch again for nearly every query. A policy can instead keep the tree in slow mode after
+ * the last exit (linger); slow-path updates then ask it whether to go back, and the update
+ * that gets a yes moves the phase to fast itself (see Handshake.onSlowPathUpdate).
+ *
+ * Methods are called concurrently from query and update threads and must not block.
+ */
+public interface ModePolicy {
+
+    /** An aggregate query is entering the slow path. */
+    void onQuery();
+
+    /** The last active query is exiting; true keeps the tree in slow mode (linger). */
+    boolean lingerOnLastExit();
+
+    /** An update is running on a lingering slow path; true sends the tree back to fast mode. */
+    boolean returnToFast();
+
+    /** Back to the fast path as soon as no query is active (the original protocol). */
+    ModePolicy EAGER = new ModePolicy() {
+        @Override public void onQuery() { }
+        @Override public boolean lingerOnLastExit() { return false; }
+        @Override public boolean returnToFast() { return true; }
+        @Override public String toString() { return "eager"; }
+    };
+}
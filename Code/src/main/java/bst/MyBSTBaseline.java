@@ -1,7 +1,17 @@
 package bst;
 
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.Objects;
 
 public class MyBSTBaseline<K extends Comparable<? super K>, V> {
@@ -21,6 +31,7 @@ public class MyBSTBaseline<K extends Comparable<? super K>, V> {
         final Version<E> left;
         final Version<E> right;
         final int nbChild;    // sum of keys if K is Integer; else 0
+        Propagation propagation;  // propagate() that installed it, null if built otherwise (set before the CAS)
 
         Version(E key, Version<E> left, Version<E> right, int nbChild) {
             this.key = key;
@@ -45,7 +56,6 @@ public class MyBSTBaseline<K extends Comparable<? super K>, V> {
     protected final static class InternalNode<E extends Comparable<? super E>, V> extends Node<E,V> {
         volatile Node<E,V> left;
         volatile Node<E,V> right;
-        volatile Node<E,V> parent;
         volatile Info<E,V> info;
         volatile Version<E> version;
 
@@ -62,6 +72,19 @@ public class MyBSTBaseline<K extends Comparable<? super K>, V> {
             final int nb = (vL != null ? vL.nbChild : 0) + (vR != null ? vR.nbChild : 0);
             this.version = new Version<>(key, vL, vR, nb);
         }
+
+        // Bulk load: children are whole prebuilt subtrees, not yet reachable from the tree
+        InternalNode(final E key, final Node<E,V> left, final Node<E,V> right) {
+            super(key);
+            this.left = left;
+            this.right = right;
+            this.info = null;
+            left.parent = this;
+            right.parent = this;
+            Version<E> vL = childVersion(left);
+            Version<E> vR = childVersion(right);
+            this.version = new Version<>(key, vL, vR, vL.nbChild + vR.nbChild);
+        }
     }
 
     protected static abstract class Info<E extends Comparable<? super E>, V> {
@@ -113,6 +136,7 @@ public class MyBSTBaseline<K extends Comparable<? super K>, V> {
 
 
     final InternalNode<K,V> root;
+    private final PropagationStats propagationStats = new PropagationStats();  // refresh() outcomes, see propagate()
 
     public MyBSTBaseline() {
         // to avoid handling special case when <= 2 nodes,
@@ -121,6 +145,75 @@ public class MyBSTBaseline<K extends Comparable<? super K>, V> {
         root = new InternalNode<K,V>(null, new LeafNode<K,V>(null, null), new LeafNode<K,V>(null, null));
     }
 
+    // Bulk load: root.left is the prebuilt content (see bulkLoad)
+    private MyBSTBaseline(Node<K,V> contents) {
+        root = new InternalNode<K,V>(null, contents, new LeafNode<K,V>(null, null));
+    }
+
+//--------------------------------------------------------------------------------
+// BULK LOAD
+//--------------------------------------------------------------------------------
+
+    /**
+     * Builds a perfectly balanced tree holding sortedKeys[i] -> values[i], in parallel on the
+     * common fork-join pool, instead of one put() per key. Versions (and their nbChild) are
+     * built bottom-up with the nodes, so root.version is complete when the tree is returned.
+     * Same shape and checks as MyBSTnext.bulkLoad.
+     *
+     * @throws IllegalArgumentException if the lengths differ or the keys are not strictly ascending
+     */
+    public static <K extends Comparable<? super K>, V> MyBSTBaseline<K,V> bulkLoad(K[] sortedKeys, V[] values) {
+        if (sortedKeys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length: " + sortedKeys.length + " != " + values.length);
+        }
+        if (sortedKeys.length == 0) return new MyBSTBaseline<>();
+
+        Node<K,V> keys = ForkJoinPool.commonPool().invoke(new BulkBuild<>(sortedKeys, values, 0, sortedKeys.length));
+        return new MyBSTBaseline<>(new InternalNode<K,V>(null, keys, new LeafNode<K,V>(null, null)));
+    }
+
+    // Balanced subtree of keys[lo, hi), forked down to SEQUENTIAL_RANGE keys (see MyBSTnext.BulkBuild)
+    private static final class BulkBuild<K extends Comparable<? super K>, V> extends RecursiveTask<Node<K,V>> {
+        private static final long serialVersionUID = 1L;
+        private static final int SEQUENTIAL_RANGE = 1 << 12;
+
+        private final K[] keys;
+        private final V[] values;
+        private final int lo, hi;
+
+        BulkBuild(K[] keys, V[] values, int lo, int hi) {
+            this.keys = keys;
+            this.values = values;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Node<K,V> compute() {
+            if (hi - lo <= SEQUENTIAL_RANGE) return build(lo, hi);
+            int mid = (lo + hi) >>> 1;
+            BulkBuild<K,V> left = new BulkBuild<>(keys, values, lo, mid);
+            left.fork();
+            Node<K,V> right = new BulkBuild<>(keys, values, mid, hi).compute();
+            return new InternalNode<K,V>(keys[mid], left.join(), right);
+        }
+
+        private Node<K,V> build(int from, int to) {
+            if (to - from == 1) {
+                K key = keys[from];
+                V value = values[from];
+                if (key == null || value == null) throw new NullPointerException();
+                if (from > 0 && keys[from - 1].compareTo(key) >= 0) {
+                    throw new IllegalArgumentException("keys not strictly ascending at index " + from);
+                }
+                return new LeafNode<K,V>(key, value);
+            }
+            int mid = (from + to) >>> 1;
+            Node<K,V> left = build(from, mid);
+            return new InternalNode<K,V>(keys[mid], left, build(mid, to));
+        }
+    }
+
 //--------------------------------------------------------------------------------
 // PUBLIC METHODS:
 // - find   : boolean
@@ -337,6 +430,119 @@ public class MyBSTBaseline<K extends Comparable<? super K>, V> {
         }
     }
 
+//--------------------------------------------------------------------------------
+// SNAPSHOT ITERATION
+// The version tree under one root.version read is immutable and every refresh has
+// already folded its children in, so iterators walk it lazily, never the live tree.
+//--------------------------------------------------------------------------------
+
+    /** Ascending iterator over the keys of one root.version (a linearizable snapshot). */
+    public Iterator<K> keyIterator() {
+        return Spliterators.iterator(keySpliterator());
+    }
+
+    /** Descending iterator over the keys of one root.version (a linearizable snapshot). */
+    public Iterator<K> descendingKeyIterator() {
+        final ArrayDeque<Version<K>> pending = new ArrayDeque<>();  // Left subtrees still to visit
+        pending.push(root.version);
+        return new Iterator<K>() {
+            private K next = advance();
+
+            private K advance() {
+                Version<K> v;
+                while ((v = pending.poll()) != null) {
+                    while (v.left != null) {
+                        pending.push(v.left);
+                        v = v.right;
+                    }
+                    if (v.key != null) return v.key;  // Skip sentinels
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public K next() {
+                if (next == null) throw new NoSuchElementException();
+                K key = next;
+                next = advance();
+                return key;
+            }
+        };
+    }
+
+    /**
+     * Sized, sorted Spliterator over the keys of one root.version. Splits hand off the left
+     * subtree of the version not yet entered, with exact sizes from nbChild, so
+     * StreamSupport.stream(tree.keySpliterator(), true) scans on the fork-join pool.
+     */
+    public Spliterator<K> keySpliterator() {
+        return new VersionSpliterator<>(root.version);
+    }
+
+    /** Stream over the keys of one root.version, ascending. */
+    public Stream<K> keyStream(boolean parallel) {
+        return StreamSupport.stream(keySpliterator(), parallel);
+    }
+
+    private static final class VersionSpliterator<E extends Comparable<? super E>> implements Spliterator<E> {
+        private Version<E> unsplit;  // Subtree not entered yet, null once traversal started
+        private final ArrayDeque<Version<E>> pending = new ArrayDeque<>();  // Right subtrees still to visit
+        private long remaining;
+
+        VersionSpliterator(Version<E> subtree) {
+            this.unsplit = subtree;
+            this.remaining = subtree.nbChild;
+        }
+
+        @Override
+        public Spliterator<E> trySplit() {
+            if (unsplit == null || unsplit.left == null) return null;  // Started, or a single leaf
+            Version<E> left = unsplit.left;
+            unsplit = unsplit.right;
+            remaining = unsplit.nbChild;
+            return new VersionSpliterator<>(left);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super E> action) {
+            Objects.requireNonNull(action);
+            Version<E> v = unsplit;
+            unsplit = null;
+            if (v == null) v = pending.poll();
+            while (v != null) {
+                while (v.left != null) {
+                    pending.push(v.right);
+                    v = v.left;
+                }
+                if (v.key != null) {  // Skip sentinels
+                    remaining--;
+                    action.accept(v.key);
+                    return true;
+                }
+                v = pending.poll();
+            }
+            return false;
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | DISTINCT | NONNULL | IMMUTABLE | SIZED | SUBSIZED;
+        }
+
+        @Override
+        public Comparator<? super E> getComparator() {
+            return null;  // Natural ordering
+        }
+    }
+
 //--------------------------------------------------------------------------------
 // PRIVATE METHODS
 // - helpInsert
@@ -401,7 +607,14 @@ public class MyBSTBaseline<K extends Comparable<? super K>, V> {
         return ((LeafNode<E,T>) n).version;
     }
 
-    private static <E extends Comparable<? super E>, T> boolean refresh(InternalNode<E,T> x) {
+    /**
+     * Installs a new version of x built from its children's current versions, on behalf of
+     * the propagate() call by. Returns x's version that now covers them: the one installed,
+     * or the current one if it was already built from exactly these child versions (a
+     * concurrent refresh did our work, so nothing is allocated and no CAS is issued). Returns
+     * null if our CAS lost; propagate() then retries once, which then usually elides.
+     */
+    private <E extends Comparable<? super E>, T> Version<E> refresh(InternalNode<E,T> x, Propagation by) {
         // snapshot old
         final Version<E> old = x.version;
 
@@ -418,22 +631,41 @@ public class MyBSTBaseline<K extends Comparable<? super K>, V> {
             xR = x.right;
             vR = (xR instanceof InternalNode) ? ((InternalNode<E,T>) xR).version : ((LeafNode<E,T>) xR).version;
         } while (x.right != xR);
+        if (old.left == vL && old.right == vR) {
+            if (PropagationStats.ENABLED) propagationStats.elided.increment();
+            return old;
+        }
         int nb = vL.nbChild + vR.nbChild;
         Version<E> newer = new Version<>(x.key, vL, vR, nb);
-        return versionUpdater.compareAndSet(x, old, newer);
+        newer.propagation = by;
+        boolean installed = versionUpdater.compareAndSet(x, old, newer);
+        if (PropagationStats.ENABLED) (installed ? propagationStats.installed : propagationStats.failed).increment();
+        return installed ? newer : null;
     }
 
-    private static <E extends Comparable<? super E>, T> void propagate(Node<E,T> start) {
+    /**
+     * Refreshes every ancestor of start up to the root. Levels whose version a concurrent
+     * propagate already rebuilt from the current children are elided (see refresh). The
+     * climb stops early at such a level only if that propagate has reached the root: the
+     * root then includes this level's version, and with it our update. One that is still
+     * climbing may not have reached the root yet, and the update must not return before
+     * root.version includes it, so we climb on.
+     */
+    private <E extends Comparable<? super E>, T> void propagate(Node<E,T> start) {
+        final Propagation ours = new Propagation();
         Node<E,T> x = start;
-        int tries = 0;
         while (x != null) {
             if (x instanceof InternalNode) {
-                if (!refresh((InternalNode<E,T>) x)) {
-                    refresh((InternalNode<E,T>) x);
+                Version<E> covering = refresh((InternalNode<E,T>) x, ours);
+                if (covering == null) covering = refresh((InternalNode<E,T>) x, ours);
+                if (covering != null && covering.propagation != null && covering.propagation.reachedRoot) {
+                    if (PropagationStats.ENABLED) propagationStats.stopped.increment();
+                    break;
                 }
             }
             x = x.parent;
         }
+        ours.reachedRoot = true;
     }
 
     /**
@@ -464,6 +696,34 @@ public class MyBSTBaseline<K extends Comparable<? super K>, V> {
         return sizeStructural(i.left) + sizeStructural(i.right);
     }
 
+    /**
+     * Shape of one root.version (a linearizable snapshot), see ShapeReport.
+     * Iterative, unlike sizeStructural(), so degenerate trees do not overflow the call stack.
+     */
+    public ShapeReport shapeReport() {
+        ShapeReport.Builder shape = new ShapeReport.Builder();
+        ArrayDeque<Version<K>> pending = new ArrayDeque<>();  // Children still to visit, links kept by shape
+        pending.push(root.version);
+        shape.push(-1, false);
+
+        Version<K> v;
+        while ((v = pending.poll()) != null) {
+            int index = shape.add(v.left != null, v.key);
+            if (v.left != null) {
+                pending.push(v.right);
+                shape.push(index, true);
+                pending.push(v.left);
+                shape.push(index, false);
+            }
+        }
+        return shape.build();
+    }
+
+    // Get propagate()/refresh() counters (needs -Dbst.propagationStats=true)
+    public String getPropagationStats() {
+        return propagationStats.toString();
+    }
+
     public int sizeSnapshot() {
         Version<K> v = root.version;
         return (v != null) ? v.nbChild : 0;
@@ -520,6 +780,38 @@ public class MyBSTBaseline<K extends Comparable<? super K>, V> {
         return -1; // Key not found
     }
 
+    /**
+     * Range count query - number of keys k with lo <= k <= hi, on one root.version read.
+     * The bounds do not need to be keys of the tree; returns 0 if lo > hi.
+     */
+    public int rangeCount(K lo, K hi) {
+        Objects.requireNonNull(lo, "lo");
+        Objects.requireNonNull(hi, "hi");
+        if (lo.compareTo(hi) > 0) return 0;
+
+        Version<K> v = root.version;
+        if (v == null) return 0;
+        return countBelow(v, hi, true) - countBelow(v, lo, false);
+    }
+
+    // Number of keys below key (or equal to it if inclusive) in the version subtree v
+    private int countBelow(Version<K> v, K key, boolean inclusive) {
+        int count = 0;
+        while (v.left != null) {
+            if (v.key == null || key.compareTo(v.key) < 0) {
+                v = v.left;
+            } else {
+                count += v.left.nbChild;
+                v = v.right;
+            }
+        }
+        if (v.key != null) {
+            int cmp = key.compareTo(v.key);
+            if (cmp > 0 || (inclusive && cmp == 0)) count++;
+        }
+        return count;
+    }
+
     /**
      * Select query - returns kth smallest key (1-based).
      * Returns null if k out of range.
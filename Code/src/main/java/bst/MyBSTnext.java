@@ -1,37 +1,37 @@
 package bst;
 
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
-import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.Objects;
+import java.util.SortedMap;
 
 public class MyBSTnext<K extends Comparable<? super K>, V> {
     
-    private static final int IDLE_PHASE = -1;
-    private static final int FAST_PHASE = -2;
-    private static final int MAX_THREADS = 256;  
+    private final Handshake handshake;  // opPhase announcements and queriesPhase (see Handshake)
+    private final boolean deferSizeDeltas;  // Fast path logs fastSize deltas per slot instead of applying them
+    private final boolean rebalance;  // Inserts rebuild a scapegoat subtree once their path gets too deep
     
-    private final AtomicReferenceArray<AtomicLong> opPhase; // opPhase for each thread
-    private final AtomicLong queriesPhase; // Global synchronization for query operations (size, rank, select)
-    private final AtomicLong maxThreadID;  // Track highest thread ID seen (opt)
-    private final AtomicLong activeReaders;  // Count of active aggregate queries in slow path
-    
-    public final AtomicLong totalHandshakes = new AtomicLong(0);
-    public final AtomicLong totalHandshakeTimeNanos = new AtomicLong(0);
+    public final AtomicLong totalHandshakes;
+    public final AtomicLong totalHandshakeTimeNanos;
     public final AtomicLong totalSizeCalls = new AtomicLong(0);
-    
-    // ThreadLocal for stable thread IDs
-    private static final ThreadLocal<Integer> threadID = ThreadLocal.withInitial(() -> {
-        return ThreadIDAllocator.allocate();
-    });
-    
-    // Simple thread ID allocator
-    private static class ThreadIDAllocator {
-        private static final AtomicLong counter = new AtomicLong(0);
-        static int allocate() {
-            return (int) counter.getAndIncrement();
-        }
-    }
+    private final PropagationStats propagationStats = new PropagationStats();  // refresh() outcomes, see propagate()
     
     //--------------------------------------------------------------------------------
     // Class: Node, LeafNode, InternalNode
@@ -50,6 +50,7 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
         final Version<E> right;
         final int nbChild;    
         final Node<E,?> node; 
+        Propagation propagation;  // propagate() that installed it, null if built otherwise (set before the CAS)
 
         Version(E key, Version<E> left, Version<E> right, int nbChild, Node<E,?> node) {
             this.key = key;
@@ -83,10 +84,9 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
     protected final static class InternalNode<E extends Comparable<? super E>, V> extends Node<E,V> {
         volatile Node<E,V> left;
         volatile Node<E,V> right;
-        volatile Node<E,V> parent;
         volatile Info<E,V> info;
         volatile Version<E> version;
-        final AtomicLong fastSize;  // Fast path metadata for size
+        final LongAdder fastSize;  // Fast path metadata for size, striped once contended (root and upper levels)
         volatile Version<E> forwardingPtr;  // Points to replacement Version (for query navigation)
         volatile Node<E,V> reversePtr;  // Points to predecessor (for chain compression), can be leaf or internal
 
@@ -104,13 +104,37 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
             long initialFastSize = 0;
             if (left != null) initialFastSize += left.fastSize.get();
             if (right != null) initialFastSize += right.fastSize.get();
-            this.fastSize = new AtomicLong(initialFastSize);
+            this.fastSize = new LongAdder();
+            this.fastSize.add(initialFastSize);
             // Version tree starts at 0, only updated via propagate() (slow path)
             this.version = new Version<>(key, vL, vR, 0, this);
             // Initialize forwarding and reverse pointers to null
             this.forwardingPtr = null;
             this.reversePtr = null;
         }
+
+        // Bulk load: children are whole prebuilt subtrees, not yet reachable from the tree
+        InternalNode(final E key, final Node<E,V> left, final Node<E,V> right) {
+            super(key);
+            this.left = left;
+            this.right = right;
+            this.info = null;
+            left.parent = this;
+            right.parent = this;
+            this.fastSize = new LongAdder();
+            this.fastSize.add(fastSizeOf(left) + fastSizeOf(right));
+            this.version = new Version<>(key, versionOf(left), versionOf(right), 0, this);
+            this.forwardingPtr = null;
+            this.reversePtr = null;
+        }
+
+        private static <E extends Comparable<? super E>, V> long fastSizeOf(Node<E,V> n) {
+            return (n instanceof InternalNode) ? ((InternalNode<E,V>) n).fastSize.sum() : ((LeafNode<E,V>) n).fastSize.get();
+        }
+
+        private static <E extends Comparable<? super E>, V> Version<E> versionOf(Node<E,V> n) {
+            return (n instanceof InternalNode) ? ((InternalNode<E,V>) n).version : ((LeafNode<E,V>) n).version;
+        }
     }
 
     protected static abstract class Info<E extends Comparable<? super E>, V> {
@@ -152,6 +176,35 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
 
     protected final static class Clean<E extends Comparable<? super E>, V> extends Info<E,V> {}
 
+    /**
+     * Rebuild of the subtree under anchor (see REBALANCING). Freezes anchor and every internal
+     * node of the subtree, SCX-style: each node's info goes from the value seen when the
+     * subtree was collected to this descriptor. If one of them changed in between the rebuild
+     * aborts, and frozen nodes count as clean again. Once all are frozen it cannot fail:
+     * anchor's child is swung to the prebuilt replacement, the removed nodes keep the
+     * committed descriptor for good (like Mark) and anchor is cleaned.
+     */
+    protected final static class RInfo<E extends Comparable<? super E>, V> extends Info<E,V> {
+        static final int IN_PROGRESS = 0, COMMITTED = 1, ABORTED = 2;
+
+        final InternalNode<E,V> anchor;
+        final InternalNode<E,V> subtree;      // Child of anchor being replaced
+        final Node<E,V> replacement;          // Balanced copy, same keys and values
+        final InternalNode<E,V>[] nodes;      // anchor first, then subtree top-down
+        final Info<E,V>[] seen;               // info of nodes[i] when collected
+        volatile int state = IN_PROGRESS;
+        volatile boolean allFrozen;
+
+        RInfo(InternalNode<E,V> anchor, InternalNode<E,V> subtree, Node<E,V> replacement,
+              InternalNode<E,V>[] nodes, Info<E,V>[] seen) {
+            this.anchor = anchor;
+            this.subtree = subtree;
+            this.replacement = replacement;
+            this.nodes = nodes;
+            this.seen = seen;
+        }
+    }
+
 //--------------------------------------------------------------------------------
 // DICTIONARY
 //--------------------------------------------------------------------------------
@@ -164,14 +217,31 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
     final InternalNode<K,V> root;
 
     public MyBSTnext() {
+        this(false);
+    }
+
+    /**
+     * @param deferSizeDeltas if true, fast-path updates do not walk their ancestors' fastSize:
+     *        each thread logs its net deltas in its slot and the next size/rank/select merges
+     *        them during its handshake. Update cost no longer depends on tree depth, queries
+     *        pay for the merge; worth it when aggregate queries are rare.
+     */
+    public MyBSTnext(boolean deferSizeDeltas) {
+        this(deferSizeDeltas, false);
+    }
+
+    /**
+     * @param rebalance if true, an insert whose path is deeper than about log n (base 1/ALPHA)
+     *        rebuilds the lowest weight-unbalanced subtree on it (see REBALANCING), which keeps
+     *        depth O(log n) for sequential keys at an amortized O(log n) rebuilding cost.
+     */
+    public MyBSTnext(boolean deferSizeDeltas, boolean rebalance) {
         // Initialize handshake infrastructure
-        this.queriesPhase = new AtomicLong(0);  // Start at 0 (mod 4 = 0 means fast path)
-        this.opPhase = new AtomicReferenceArray<>(MAX_THREADS);
-        this.maxThreadID = new AtomicLong(-1);  // Track highest thread ID for optimization
-        this.activeReaders = new AtomicLong(0);  // No active aggregate queries initially
-        for (int i = 0; i < MAX_THREADS; i++) {
-            this.opPhase.set(i, new AtomicLong(IDLE_PHASE));
-        }
+        this.deferSizeDeltas = deferSizeDeltas;
+        this.rebalance = rebalance;
+        this.handshake = deferSizeDeltas ? new Handshake(this::applyDeferredSizeDeltas) : new Handshake();
+        this.totalHandshakes = handshake.totalHandshakes;
+        this.totalHandshakeTimeNanos = handshake.totalHandshakeTimeNanos;
         
         // to avoid handling special case when <= 2 nodes,
         // create 2 dummy nodes, both contain key null
@@ -179,6 +249,95 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
         root = new InternalNode<K,V>(null, new LeafNode<K,V>(null, null), new LeafNode<K,V>(null, null));
     }
 
+    // Bulk load: root.left is the prebuilt content (see bulkLoad)
+    private MyBSTnext(boolean deferSizeDeltas, Node<K,V> contents) {
+        this.deferSizeDeltas = deferSizeDeltas;
+        this.rebalance = false;
+        this.handshake = deferSizeDeltas ? new Handshake(this::applyDeferredSizeDeltas) : new Handshake();
+        this.totalHandshakes = handshake.totalHandshakes;
+        this.totalHandshakeTimeNanos = handshake.totalHandshakeTimeNanos;
+        root = new InternalNode<K,V>(null, contents, new LeafNode<K,V>(null, null));
+    }
+
+//--------------------------------------------------------------------------------
+// BULK LOAD
+//--------------------------------------------------------------------------------
+
+    /**
+     * Builds a perfectly balanced tree holding sortedKeys[i] -> values[i], in parallel on the
+     * common fork-join pool, instead of one put() per key.
+     * The result has the shape a sequence of inserts into an empty tree would give, except
+     * for the balance: the keys hang under an internal node with a null key whose right
+     * child is a sentinel. fastSize and the Version tree are built bottom-up with the nodes,
+     * so sizeSnapshot/rank/select are exact right away and no propagate is needed.
+     * The tree is published by the return; nothing can observe it half-built.
+     *
+     * @param sortedKeys keys in strictly ascending order, no nulls
+     * @param values     values for the keys, same length, no nulls
+     * @throws IllegalArgumentException if the lengths differ or the keys are not strictly ascending
+     */
+    public static <K extends Comparable<? super K>, V> MyBSTnext<K,V> bulkLoad(K[] sortedKeys, V[] values) {
+        return bulkLoad(sortedKeys, values, false);
+    }
+
+    /** bulkLoad(sortedKeys, values) for a tree built with MyBSTnext(deferSizeDeltas). */
+    public static <K extends Comparable<? super K>, V> MyBSTnext<K,V> bulkLoad(K[] sortedKeys, V[] values, boolean deferSizeDeltas) {
+        if (sortedKeys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length: " + sortedKeys.length + " != " + values.length);
+        }
+        if (sortedKeys.length == 0) return new MyBSTnext<>(deferSizeDeltas);
+
+        Node<K,V> keys = ForkJoinPool.commonPool().invoke(new BulkBuild<>(sortedKeys, values, 0, sortedKeys.length));
+        // Null-keyed internal node above the keys, as the first insert into an empty tree makes
+        return new MyBSTnext<>(deferSizeDeltas, new InternalNode<K,V>(null, keys, new LeafNode<K,V>(null, null)));
+    }
+
+    /**
+     * Builds the balanced subtree of keys[lo, hi). An internal node's key is the least key of
+     * its right subtree, as put() would have chosen it. Halves are forked down to
+     * SEQUENTIAL_RANGE keys, below which the recursion (log n deep) runs in place.
+     */
+    private static final class BulkBuild<K extends Comparable<? super K>, V> extends RecursiveTask<Node<K,V>> {
+        private static final long serialVersionUID = 1L;
+        private static final int SEQUENTIAL_RANGE = 1 << 12;
+
+        private final K[] keys;
+        private final V[] values;
+        private final int lo, hi;
+
+        BulkBuild(K[] keys, V[] values, int lo, int hi) {
+            this.keys = keys;
+            this.values = values;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Node<K,V> compute() {
+            if (hi - lo <= SEQUENTIAL_RANGE) return build(lo, hi);
+            int mid = (lo + hi) >>> 1;
+            BulkBuild<K,V> left = new BulkBuild<>(keys, values, lo, mid);
+            left.fork();
+            Node<K,V> right = new BulkBuild<>(keys, values, mid, hi).compute();
+            return new InternalNode<K,V>(keys[mid], left.join(), right);
+        }
+
+        private Node<K,V> build(int from, int to) {
+            if (to - from == 1) {
+                K key = keys[from];
+                V value = values[from];
+                if (key == null || value == null) throw new NullPointerException();
+                if (from > 0 && keys[from - 1].compareTo(key) >= 0) {
+                    throw new IllegalArgumentException("keys not strictly ascending at index " + from);
+                }
+                return new LeafNode<K,V>(key, value);
+            }
+            int mid = (from + to) >>> 1;
+            Node<K,V> left = build(from, mid);
+            return new InternalNode<K,V>(keys[mid], left, build(mid, to));
+        }
+    }
+
 //--------------------------------------------------------------------------------
 // PUBLIC METHODS:
 // - find   : boolean
@@ -199,7 +358,7 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
     public final V get(final K key) {
         if (key == null) throw new NullPointerException();
         
-        long currentPhase = queriesPhase.get();
+        long currentPhase = handshake.getQueriesPhase();
         
         // Phase 2: Use Version tree navigation (slow contains)
         if ((currentPhase & 3) == 2) {
@@ -207,7 +366,7 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
             V result = getViaVersionTree(key);
             
             // After getting the result, check if we are still in a slow phase.
-            long exitPhase = queriesPhase.get();
+            long exitPhase = handshake.getQueriesPhase();
             if ((exitPhase & 3) == 2) {
                 // Still in a slow phase - result is valid
                 return result;
@@ -225,7 +384,7 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
         
         // If we started in Phase 1, check if we transitioned to slow path during the operation
         if ((currentPhase & 3) == 1 ){
-            if ((queriesPhase.get() & 3) == 2) {
+            if ((handshake.getQueriesPhase() & 3) == 2) {
                 return get(key); // Retry
             }else{
                 if (l.key != null && key.compareTo(l.key) == 0) {
@@ -248,33 +407,238 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
         Version<K> v = root.version;
         if (v == null) return null;
         
+        // Versions of nodes replaced on the fast path are orphaned, follow their forwarding pointers
+        v = resolveForwarding(v);
         while (v.left != null) {
             if (v.key == null || key.compareTo(v.key) < 0) {
-                v = v.left;
+                v = resolveForwarding(v.left);
             } else {
-                v = v.right;
+                v = resolveForwarding(v.right);
             }
         }
         
         if (v.key != null && key.compareTo(v.key) == 0) {
-            return ((LeafNode<K,V>) v.node).value;
+            return ((LeafNode<K,V>) nodeOf(v)).value;
         }
         return null;
     }
 
+//--------------------------------------------------------------------------------
+// NEIGHBOUR QUERIES:
+// - floorKey, ceilingKey, lowerKey, higherKey : K
+// - firstKey, lastKey                         : K
+// Same phase checks as get(): the live tree in phases 0 and 1, the Version tree in phase 2.
+// None of them enters the slow path, unless updates keep failing a neighbour's validation.
+//--------------------------------------------------------------------------------
+
+    /** Greatest key <= key, or null if there is none. PRECONDITION: key CANNOT BE NULL **/
+    public final K floorKey(final K key) {
+        return neighbour(key, true, true);
+    }
+
+    /** Greatest key < key, or null if there is none. PRECONDITION: key CANNOT BE NULL **/
+    public final K lowerKey(final K key) {
+        return neighbour(key, true, false);
+    }
+
+    /** Least key >= key, or null if there is none. PRECONDITION: key CANNOT BE NULL **/
+    public final K ceilingKey(final K key) {
+        return neighbour(key, false, true);
+    }
+
+    /** Least key > key, or null if there is none. PRECONDITION: key CANNOT BE NULL **/
+    public final K higherKey(final K key) {
+        return neighbour(key, false, false);
+    }
+
+    /** Least key, or null if the tree is empty. */
+    public final K firstKey() {
+        return extreme(false);
+    }
+
+    /** Greatest key, or null if the tree is empty. */
+    public final K lastKey() {
+        return extreme(true);
+    }
+
+    /**
+     * Searches for key as get() does and keeps the last subtree the search turned away from on
+     * the side it looks for (left subtree where it went right for below, right subtree where it
+     * went left otherwise). If the leaf reached does not qualify, the answer is the nearest leaf
+     * of that subtree: its largest key for below, its smallest otherwise. Sentinels (null keys)
+     * sort after every key and are never returned.
+     */
+    private K neighbour(final K key, final boolean below, final boolean inclusive) {
+        if (key == null) throw new NullPointerException();
+
+        long currentPhase = handshake.getQueriesPhase();
+
+        // Phase 2: Use Version tree navigation
+        if ((currentPhase & 3) == 2) {
+            K result = neighbourViaVersionTree(key, below, inclusive);
+            if ((handshake.getQueriesPhase() & 3) == 2) {
+                return result;  // Still in a slow phase - result is valid
+            }
+            return neighbour(key, below, inclusive);  // Phase changed - retry with current phase
+        }
+
+        // Phase 0 or 1: Use BST navigation, the walk into turn validated (see neighbourLive)
+        for (int attempt = 0; attempt < NEIGHBOUR_ATTEMPTS; attempt++) {
+            Object result = neighbourLive(key, below, inclusive);
+            if (result == RETRY) continue;
+
+            // If we started in Phase 1, check if we transitioned to slow path during the operation
+            if ((currentPhase & 3) == 1 && (handshake.getQueriesPhase() & 3) == 2) {
+                return neighbour(key, below, inclusive);  // Retry
+            }
+            @SuppressWarnings("unchecked") K k = (K) result;
+            return k;
+        }
+
+        // Updates keep moving the nodes checked: answer from a snapshot instead
+        long currPhase = handshake.enterSlowPath();
+        try {
+            return neighbourViaVersionTree(key, below, inclusive);
+        } finally {
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    private static final int NEIGHBOUR_ATTEMPTS = 8;  // Live attempts before the slow path
+    private static final Object RETRY = new Object();
+
+    /**
+     * neighbour() on the live tree, or RETRY. A leaf that qualifies is read in one pass, as
+     * get() reads it. Otherwise the answer comes from a second walk into turn, which is only
+     * valid if no key arrived between turn and the leaf meanwhile: such a key would be inserted
+     * in place of the leaf, under its parent. So the leaf's parent must still link it with the
+     * same info after the walk, and turn's parent still link turn (turn is still attached).
+     */
+    private Object neighbourLive(final K key, final boolean below, final boolean inclusive) {
+        InternalNode<K,V> p = root;
+        Node<K,V> l = root.left;
+        InternalNode<K,V> turnParent = null;
+        Node<K,V> turn = null;  // Subtree holding the answer if the leaf does not qualify
+        while (l.getClass() == InternalNode.class) {
+            p = (InternalNode<K,V>) l;
+            if (p.key == null || key.compareTo(p.key) < 0) {
+                if (!below) { turnParent = p; turn = p.right; }
+                l = p.left;
+            } else {
+                if (below) { turnParent = p; turn = p.left; }
+                l = p.right;
+            }
+        }
+        if (qualifies(key, l.key, below, inclusive)) return l.key;
+        if (turn == null) return null;
+
+        final Info<K,V> pinfo = p.info;
+        final Info<K,V> turnInfo = turnParent.info;
+        if (!linked(p, pinfo, l) || !linked(turnParent, turnInfo, turn)) return RETRY;
+        Node<K,V> n = turn;
+        while (n.getClass() == InternalNode.class) {
+            n = below ? ((InternalNode<K,V>) n).right : ((InternalNode<K,V>) n).left;
+        }
+        if (p.info != pinfo || !linked(p, pinfo, l) || turnParent.info != turnInfo || !linked(turnParent, turnInfo, turn)) {
+            return RETRY;
+        }
+        return n.key;  // null if it is a sentinel: nothing above key
+    }
+
+    // x links child, info read before: neither marked nor frozen, so x is in the tree and a
+    // new child means a new info, or the child swing of the flag info already holds
+    private static <E extends Comparable<? super E>, T> boolean linked(InternalNode<E,T> x, Info<E,T> info, Node<E,T> child) {
+        if (info != null && (info.getClass() == Mark.class || (info.getClass() == RInfo.class && !isClean(info)))) return false;
+        return x.left == child || x.right == child;
+    }
+
+    /** neighbour() on the Version tree (used in Phase 2). */
+    private K neighbourViaVersionTree(final K key, final boolean below, final boolean inclusive) {
+        Version<K> v = root.version;
+        if (v == null) return null;
+
+        v = resolveForwarding(v);
+        Version<K> turn = null;
+        while (v.left != null) {
+            if (v.key == null || key.compareTo(v.key) < 0) {
+                if (!below) turn = v.right;
+                v = resolveForwarding(v.left);
+            } else {
+                if (below) turn = v.left;
+                v = resolveForwarding(v.right);
+            }
+        }
+        if (qualifies(key, v.key, below, inclusive)) return v.key;
+        if (turn == null) return null;
+        turn = resolveForwarding(turn);
+        while (turn.left != null) {
+            turn = resolveForwarding(below ? turn.right : turn.left);
+        }
+        return turn.key;
+    }
+
+    // Whether leafKey answers the query on its own (null leafKey is a sentinel)
+    private static <K extends Comparable<? super K>> boolean qualifies(K key, K leafKey, boolean below, boolean inclusive) {
+        if (leafKey == null) return false;
+        int cmp = leafKey.compareTo(key);
+        return below ? (cmp < 0 || (inclusive && cmp == 0)) : (cmp > 0 || (inclusive && cmp == 0));
+    }
+
+    /**
+     * Leftmost or rightmost key. Sentinels sit right of every key and the right child of an
+     * internal node with a null key is always a sentinel, so lastKey goes left at those.
+     */
+    private K extreme(final boolean last) {
+        long currentPhase = handshake.getQueriesPhase();
+
+        // Phase 2: Use Version tree navigation
+        if ((currentPhase & 3) == 2) {
+            Version<K> v = root.version;
+            K result = null;
+            if (v != null) {
+                v = resolveForwarding(v);
+                while (v.left != null) {
+                    v = resolveForwarding((last && v.key != null) ? v.right : v.left);
+                }
+                result = v.key;
+            }
+            if ((handshake.getQueriesPhase() & 3) == 2) {
+                return result;  // Still in a slow phase - result is valid
+            }
+            return extreme(last);  // Phase changed - retry with current phase
+        }
+
+        // Phase 0 or 1: Use BST navigation
+        Node<K,V> l = root.left;
+        while (l.getClass() == InternalNode.class) {
+            l = (last && l.key != null) ? ((InternalNode<K,V>) l).right : ((InternalNode<K,V>) l).left;
+        }
+
+        // If we started in Phase 1, check if we transitioned to slow path during the operation
+        if ((currentPhase & 3) == 1 && (handshake.getQueriesPhase() & 3) == 2) {
+            return extreme(last);  // Retry
+        }
+        return l.key;  // null if only the sentinel is left: empty tree
+    }
+
     // Insert key to dictionary, returns the previous value associated with the specified key,
     // or null if there was no mapping for the key
     /** PRECONDITION: key, value CANNOT BE NULL **/
     public final V putIfAbsent(final K key, final V value){
+        return putIfAbsent(handshake.currentSlot(), key, value);
+    }
+
+    private V putIfAbsent(final ThreadSlotRegistry.Slot slot, final K key, final V value) {
         if (key == null || value == null) throw new NullPointerException();
         
         // Announce FAST_PHASE immediately (optimistic), then check if we need to correct it
-        setOpPhaseVolatile(FAST_PHASE);
-        long currentQueriesPhase = getQueriesPhase();
+        handshake.beginUpdate(slot);
+        long currentQueriesPhase = handshake.getQueriesPhase();
         boolean useFastPath = ((currentQueriesPhase & 3) == 0);
         if (!useFastPath) {
             // A query operation is in progress, switch to slow path
-            setOpPhaseVolatile(currentQueriesPhase);
+            handshake.setOpPhaseVolatile(slot, currentQueriesPhase);
+            handshake.onSlowPathUpdate(currentQueriesPhase);
         }
         
         try {
@@ -290,11 +654,11 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
 
             while (true) {
                 // Re-check phase on every retry to respond quickly to handshakes
-                long newPhase = getQueriesPhase();
+                long newPhase = handshake.getQueriesPhase();
                 boolean newFastPath = ((newPhase & 3) == 0);
                 if (newFastPath != useFastPath) {
                     useFastPath = newFastPath;
-                    setOpPhaseVolatile(useFastPath ? FAST_PHASE : newPhase);
+                    handshake.setOpPhaseVolatile(slot, useFastPath ? Handshake.FAST_PHASE : newPhase);
                 }
 
                 /** SEARCH **/
@@ -316,8 +680,8 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
                         propagate(p);  // Slow path: update version tree with counter tracking
                     }
                     return foundLeaf.value; // key already in the tree, no duplicate allowed
-                } else if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
-                    help(pinfo);
+                } else if (!isClean(pinfo)) {
+                    help(slot, pinfo, useFastPath);
                 } else {
                     newSibling = new LeafNode<K,V>(foundLeaf.key, foundLeaf.value);
                     if (foundLeaf.key == null || key.compareTo(foundLeaf.key) < 0)  // newinternal = max(ret.foundLeaf.key, key);
@@ -330,29 +694,34 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
 
                     final IInfo<K,V> newPInfo = new IInfo<K,V>(foundLeaf, p, newInternal);
 
+                    handshake.publishDescriptor(slot, newPInfo);
                     // try to IFlag parent
                     if (infoUpdater.compareAndSet(p, pinfo, newPInfo)) {
+                        // Revoked by a handshake while stalled: finish as a slow-path update
+                        if (useFastPath && !handshake.claimFastPath(slot)) useFastPath = false;
                         helpInsert(newPInfo, useFastPath);
                         
                         // Update metadata - successful insert
                         if (useFastPath) {
-                            fastUpdateMetadataOnly(1, p);  // Fast path: update fastSize only
+                            fastUpdateMetadata(slot, 1, p);  // Fast path: update fastSize only (or log it)
                             // Version structure already updated in helpInsert
                         } else {
+                            fastUpdateMetadataOnly(1, p);  // Slow path: fastSize counts every key (nbChild stays 0)
                             propagate(p);  // Slow path: full propagation with counter tracking
                         }
+                        if (rebalance) rebalanceAfterInsert(slot, newInternal);
                         
                         return null;
                     } else {
                         // if fails, help the current operation
                         // need to get the latest p.info since CAS doesnt return current value
-                        help(p.info);
+                        help(slot, p.info, useFastPath);
                     }
                 }
             }
         } finally {
             // Return to idle phase
-            setOpPhaseIdle();
+            handshake.setOpPhaseIdle(slot);
         }
     }
 
@@ -360,15 +729,20 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
     // or null if there was no mapping for the key
     /** PRECONDITION: key, value CANNOT BE NULL **/
     public final V put(final K key, final V value) {
+        return put(handshake.currentSlot(), key, value);
+    }
+
+    private V put(final ThreadSlotRegistry.Slot slot, final K key, final V value) {
         if (key == null || value == null) throw new NullPointerException();
         
         // Announce FAST_PHASE immediately (optimistic), then check if we need to correct it
-        setOpPhaseVolatile(FAST_PHASE);
-        long currentQueriesPhase = getQueriesPhase();
+        handshake.beginUpdate(slot);
+        long currentQueriesPhase = handshake.getQueriesPhase();
         boolean useFastPath = ((currentQueriesPhase & 3) == 0);
         if (!useFastPath) {
             // A query operation is in progress, switch to slow path
-            setOpPhaseVolatile(currentQueriesPhase);
+            handshake.setOpPhaseVolatile(slot, currentQueriesPhase);
+            handshake.onSlowPathUpdate(currentQueriesPhase);
         }
         
         try {
@@ -386,11 +760,11 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
 
             while (true) {
                 // Re-check phase on every retry to respond quickly to handshakes
-                long newPhase = getQueriesPhase();
+                long newPhase = handshake.getQueriesPhase();
                 boolean newFastPath = ((newPhase & 3) == 0);
                 if (newFastPath != useFastPath) {
                     useFastPath = newFastPath;
-                    setOpPhaseVolatile(useFastPath ? FAST_PHASE : newPhase);
+                    handshake.setOpPhaseVolatile(slot, useFastPath ? Handshake.FAST_PHASE : newPhase);
                 }
 
                 /** SEARCH **/
@@ -405,8 +779,8 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
                 // (just as if we'd read p's info field before the reference to l)
                 /** END SEARCH **/
 
-                if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
-                    help(pinfo);
+                if (!isClean(pinfo)) {
+                    help(slot, pinfo, useFastPath);
                 } else {
                     LeafNode<K,V> foundLeaf = (LeafNode<K,V>)l;
 
@@ -430,47 +804,249 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
                         result = null;
                     }
 
+                    handshake.publishDescriptor(slot, newPInfo);
                     // try to IFlag parent
                     if (infoUpdater.compareAndSet(p, pinfo, newPInfo)) {
+                        // Revoked by a handshake while stalled: finish as a slow-path update
+                        if (useFastPath && !handshake.claimFastPath(slot)) useFastPath = false;
                         helpInsert(newPInfo, useFastPath);
                         
                         // Update metadata based on path
                         if (result == null) {  // Successful insert (newInternal was created)
                             if (useFastPath) {
                                 // Start from parent since we just added newInternal below it
-                                fastUpdateMetadataOnly(1, p);  // Fast path: update fastSize only
+                                fastUpdateMetadata(slot, 1, p);  // Fast path: update fastSize only (or log it)
                                 // Version structure already updated in helpInsert
                             } else {
+                                fastUpdateMetadataOnly(1, p);  // Slow path: fastSize counts every key (nbChild stays 0)
                                 propagate(p);  // Slow path: full propagation with counter tracking
                             }
+                            if (rebalance) rebalanceAfterInsert(slot, (InternalNode<K,V>) newPInfo.lReplacingNode);
                         }
                         
                         return result;
                     } else {
                         // if fails, help the current operation
                         // need to get the latest p.info since CAS doesnt return current value
-                        help(p.info);
+                        help(slot, p.info, useFastPath);
+                    }
+                }
+            }
+        } finally {
+            // Return to idle phase
+            handshake.setOpPhaseIdle(slot);
+        }
+    }
+
+    /**
+     * Puts every mapping of a sorted batch. Keys are grouped by the leaf they land on, and
+     * each group is installed as one balanced subtree built off to the side: a single IInfo
+     * CAS on the leaf's parent and a single fastSize delta (the number of new keys) per
+     * group, instead of a search, a CAS and a metadata walk per key.
+     *
+     * Each group is linearizable like a put() of its keys, with the same phase announcement
+     * and re-check before every attempt; the batch as a whole is not atomic (concurrent
+     * readers can see some groups installed and not others), as with Map.putAll.
+     *
+     * @param sortedKeys keys in strictly ascending order, no nulls
+     * @param values     values for the keys, same length, no nulls
+     * @throws IllegalArgumentException if the lengths differ or the keys are not strictly ascending
+     */
+    public final void putAll(final K[] sortedKeys, final V[] values) {
+        putAll(handshake.currentSlot(), sortedKeys, values);
+    }
+
+    /** putAll(K[], V[]) on the entries of a map sorted by the keys' natural order. */
+    public final void putAll(final SortedMap<K, ? extends V> map) {
+        putAll(handshake.currentSlot(), map);
+    }
+
+    private void putAll(final ThreadSlotRegistry.Slot slot, final SortedMap<K, ? extends V> map) {
+        if (map.comparator() != null) throw new IllegalArgumentException("map must use the keys' natural ordering");
+        final K[] keys = newArray(new Comparable<?>[map.size()]);
+        final V[] values = newArray(new Object[map.size()]);
+        int i = 0;
+        for (Map.Entry<K, ? extends V> entry : map.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i++] = entry.getValue();
+        }
+        putAll(slot, keys, values);
+    }
+
+    // Generic arrays for putAll(SortedMap), never handed out: their runtime type stays hidden
+    @SuppressWarnings("unchecked")
+    private static <T> T[] newArray(final Object[] array) {
+        return (T[]) array;
+    }
+
+    private void putAll(final ThreadSlotRegistry.Slot slot, final K[] keys, final V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length: " + keys.length + " != " + values.length);
+        }
+        // Check everything before the first install, a bad batch is not applied half-way
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null || values[i] == null) throw new NullPointerException();
+            if (i > 0 && keys[i - 1].compareTo(keys[i]) >= 0) {
+                throw new IllegalArgumentException("keys not strictly ascending at index " + i);
+            }
+        }
+        if (keys.length == 0) return;
+
+        // Announce FAST_PHASE immediately (optimistic), then check if we need to correct it
+        handshake.beginUpdate(slot);
+        long currentQueriesPhase = handshake.getQueriesPhase();
+        boolean useFastPath = ((currentQueriesPhase & 3) == 0);
+        if (!useFastPath) {
+            // A query operation is in progress, switch to slow path
+            handshake.setOpPhaseVolatile(slot, currentQueriesPhase);
+            handshake.onSlowPathUpdate(currentQueriesPhase);
+        }
+
+        try {
+            //Search varaiables 
+            InternalNode<K,V> p;
+            Info<K,V> pinfo;
+            Node<K,V> l;
+            K bound;  // Least key routed away from l, null if none (l is the rightmost leaf)
+
+            int next = 0;  // First key of the batch not installed yet
+            while (next < keys.length) {
+                // Re-check phase before every group and retry to respond quickly to handshakes
+                long newPhase = handshake.getQueriesPhase();
+                boolean newFastPath = ((newPhase & 3) == 0);
+                if (newFastPath != useFastPath) {
+                    useFastPath = newFastPath;
+                    handshake.setOpPhaseVolatile(slot, useFastPath ? Handshake.FAST_PHASE : newPhase);
+                }
+
+                final K key = keys[next];
+
+                /** SEARCH **/
+                p = root;
+                l = p.left;
+                bound = null;
+                while (l.getClass() == InternalNode.class) {
+                    p = (InternalNode<K,V>)l;
+                    if (p.key == null || key.compareTo(p.key) < 0) {
+                        if (p.key != null) bound = p.key;
+                        l = p.left;
+                    } else {
+                        l = p.right;
+                    }
+                }
+                pinfo = p.info;                             // read pinfo once instead of every iteration
+                if (l != p.left && l != p.right) continue;  // then confirm the child link to l is valid
+                // (just as if we'd read p's info field before the reference to l)
+                /** END SEARCH **/
+
+                if (!isClean(pinfo)) {
+                    help(slot, pinfo, useFastPath);
+                    continue;
+                }
+
+                // Every key in [key, bound) lands on l. l's range only grows while it stays
+                // under p (deletes above it merge ranges), so the group still fits at the CAS.
+                int end = next + 1;
+                while (end < keys.length && (bound == null || keys[end].compareTo(bound) < 0)) end++;
+
+                LeafNode<K,V> foundLeaf = (LeafNode<K,V>)l;
+                Node<K,V> replacement = buildGroup(keys, values, next, end, foundLeaf);
+                int added = countNew(keys, next, end, foundLeaf.key);
+
+                final IInfo<K,V> newPInfo = new IInfo<K,V>(foundLeaf, p, replacement);
+
+                handshake.publishDescriptor(slot, newPInfo);
+                // try to IFlag parent
+                if (infoUpdater.compareAndSet(p, pinfo, newPInfo)) {
+                    // Revoked by a handshake while stalled: finish as a slow-path update
+                    if (useFastPath && !handshake.claimFastPath(slot)) useFastPath = false;
+                    helpInsert(newPInfo, useFastPath);
+
+                    // One metadata update for the whole group
+                    if (added != 0) {
+                        if (useFastPath) {
+                            fastUpdateMetadata(slot, added, p);  // Fast path: update fastSize only (or log it)
+                            // Version structure already updated in helpInsert
+                        } else {
+                            fastUpdateMetadataOnly(added, p);  // Slow path: fastSize counts every key (nbChild stays 0)
+                            propagate(p);  // Slow path: full propagation with counter tracking
+                        }
                     }
+                    handshake.releaseFastPath(slot);  // The next group can be revoked again
+                    if (rebalance && replacement instanceof InternalNode) {
+                        rebalanceAfterInsert(slot, (InternalNode<K,V>) replacement);
+                    }
+                    next = end;
+                } else {
+                    // if fails, help the current operation
+                    // need to get the latest p.info since CAS doesnt return current value
+                    help(slot, p.info, useFastPath);
                 }
             }
         } finally {
             // Return to idle phase
-            setOpPhaseIdle();
+            handshake.setOpPhaseIdle(slot);
+        }
+    }
+
+    /**
+     * Balanced subtree replacing leaf for keys[from, to): a new leaf per key, plus a copy of
+     * leaf unless one of the keys replaces it (a sentinel copy always stays rightmost).
+     */
+    private Node<K,V> buildGroup(K[] keys, V[] values, int from, int to, LeafNode<K,V> leaf) {
+        ArrayList<Node<K,V>> leaves = new ArrayList<>(to - from + 1);
+        boolean keep = true;
+        for (int i = from; i < to; i++) {
+            if (keep && leaf.key != null) {
+                int cmp = keys[i].compareTo(leaf.key);
+                if (cmp == 0) keep = false;  // put() semantics: the new value replaces the leaf
+                else if (cmp > 0) {
+                    leaves.add(new LeafNode<K,V>(leaf.key, leaf.value));
+                    keep = false;
+                }
+            }
+            leaves.add(new LeafNode<K,V>(keys[i], values[i]));
+        }
+        if (keep) leaves.add(new LeafNode<K,V>(leaf.key, leaf.value));
+        return balanced(leaves, 0, leaves.size());
+    }
+
+    // An internal node's key is the least key of its right subtree, as put() chooses it
+    private Node<K,V> balanced(ArrayList<Node<K,V>> leaves, int from, int to) {
+        if (to - from == 1) return leaves.get(from);
+        int mid = (from + to) >>> 1;
+        Node<K,V> left = balanced(leaves, from, mid);
+        return new InternalNode<K,V>(leaves.get(mid).key, left, balanced(leaves, mid, to));
+    }
+
+    // Keys of keys[from, to) other than leafKey: the fastSize delta of installing them
+    private static <K extends Comparable<? super K>> int countNew(K[] keys, int from, int to, K leafKey) {
+        int added = to - from;
+        if (leafKey != null) {
+            for (int i = from; i < to; i++) {
+                if (keys[i].compareTo(leafKey) == 0) return added - 1;
+            }
         }
+        return added;
     }
 
     // Delete key from dictionary, return the associated value when successful, null otherwise
     /** PRECONDITION: key CANNOT BE NULL **/
     public final V remove(final K key){
+        return remove(handshake.currentSlot(), key);
+    }
+
+    private V remove(final ThreadSlotRegistry.Slot slot, final K key) {
         if (key == null) throw new NullPointerException();
         
         // Announce FAST_PHASE immediately (optimistic), then check if we need to correct it
-        setOpPhaseVolatile(FAST_PHASE);
-        long currentQueriesPhase = getQueriesPhase();
+        handshake.beginUpdate(slot);
+        long currentQueriesPhase = handshake.getQueriesPhase();
         boolean useFastPath = ((currentQueriesPhase & 3) == 0);
         if (!useFastPath) {
             // A query operation is in progress, switch to slow path
-            setOpPhaseVolatile(currentQueriesPhase);
+            handshake.setOpPhaseVolatile(slot, currentQueriesPhase);
+            handshake.onSlowPathUpdate(currentQueriesPhase);
         }
         
         try {
@@ -485,11 +1061,11 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
 
             while (true) {
                 // Re-check phase on every retry to respond quickly to handshakes
-                long newPhase = getQueriesPhase();
+                long newPhase = handshake.getQueriesPhase();
                 boolean newFastPath = ((newPhase & 3) == 0);
                 if (newFastPath != useFastPath) {
                     useFastPath = newFastPath;
-                    setOpPhaseVolatile(useFastPath ? FAST_PHASE : newPhase);
+                    handshake.setOpPhaseVolatile(slot, useFastPath ? Handshake.FAST_PHASE : newPhase);
                 }
 
                 /** SEARCH **/
@@ -517,70 +1093,273 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
                 if (!key.equals(l.key)) {
                     if (!useFastPath) propagate(p);
                     return null;
-                }else if (!(gpinfo == null || gpinfo.getClass() == Clean.class)) {
-                    help(gpinfo);
-                } else if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
-                    help(pinfo);
+                }else if (!isClean(gpinfo)) {
+                    help(slot, gpinfo, useFastPath);
+                } else if (!isClean(pinfo)) {
+                    help(slot, pinfo, useFastPath);
                 } else {
                     LeafNode<K,V> foundLeaf = (LeafNode<K,V>)l;
                     // try to DFlag grandparent
                     final DInfo<K,V> newGPInfo = new DInfo<K,V>(foundLeaf, p, gp, pinfo);
 
+                    handshake.publishDescriptor(slot, newGPInfo);
                     if (infoUpdater.compareAndSet(gp, gpinfo, newGPInfo)) {
+                        // Revoked by a handshake while stalled: finish as a slow-path update
+                        if (useFastPath && !handshake.claimFastPath(slot)) useFastPath = false;
                         if (helpDelete(newGPInfo, useFastPath)) {
                             // Update metadata based on path
                             if (useFastPath) {
-                                fastUpdateMetadataOnly(-1, gp);  // Fast path: update fastSize only
+                                fastUpdateMetadata(slot, -1, gp);  // Fast path: update fastSize only (or log it)
                                 // Version structure already updated in helpMarked
                             } else {
+                                fastUpdateMetadataOnly(-1, gp);  // Slow path: fastSize counts every key (nbChild stays 0)
                                 propagate(gp);  // Slow path: full propagation with counter tracking
                             }
                             return foundLeaf.value;
                         }
+                        handshake.releaseFastPath(slot);  // Backtracked: the retry can be revoked again
                     } else {
                         // if fails, help grandparent with its latest info value
-                        help(gp.info);
+                        help(slot, gp.info, useFastPath);
                     }
                 }
             }
         } finally {
             // Return to idle phase
-            setOpPhaseIdle();
+            handshake.setOpPhaseIdle(slot);
         }
     }
 
 //--------------------------------------------------------------------------------
-// PRIVATE METHODS
-// - helpInsert
-// - helpDelete
+// SESSIONS
 //--------------------------------------------------------------------------------
 
-    private void helpInsert(final IInfo<K,V> info, boolean useFastPath){
-        boolean onLeft = (info.p.left == info.l);
-        boolean spliced = onLeft
-                ? leftUpdater.compareAndSet(info.p, info.l, info.lReplacingNode)
-                : rightUpdater.compareAndSet(info.p, info.l, info.lReplacingNode);
+    /**
+     * Opens a session that owns its own announcement slot.
+     * Workers that keep one session each skip the per-operation ThreadLocal slot lookup.
+     */
+    public Session openSession() {
+        return new Session();
+    }
 
-        if (spliced) {
-            // Fix parent of the new child
-            info.lReplacingNode.parent = info.p;
-            
-            if (useFastPath) {
-                // Fast path with chain compression
-                // Determine final target version (follow existing forward chain if present)
-                Version<K> replacementVersion = (info.lReplacingNode instanceof InternalNode) 
-                    ? ((InternalNode<K,V>) info.lReplacingNode).version
-                    : ((LeafNode<K,V>) info.lReplacingNode).version;
-                
-                Version<K> finalTarget = replacementVersion;
-                
-                // Check if replacement already points forward (upward compression)
-                if (info.lReplacingNode instanceof InternalNode) {
-                    InternalNode<K,V> replacement = (InternalNode<K,V>) info.lReplacingNode;
-                    if (replacement.forwardingPtr != null) {
-                        finalTarget = replacement.forwardingPtr;
-                    }
-                    
+    /**
+     * Handle exposing the map operations through a slot leased for the handle instead of
+     * the calling thread. A session may be carried from one thread to another (e.g. a
+     * virtual thread remounted on a different carrier, or a task handed between pool
+     * threads), but must not be used by two threads at the same time.
+     * Close it when done; an unclosed session's slot is reclaimed once it is unreachable.
+     */
+    public final class Session implements AutoCloseable {
+        private final ThreadSlotRegistry.Slot slot;
+        private boolean closed;
+
+        private Session() {
+            this.slot = handshake.leaseSlot(this);
+        }
+
+        public V get(final K key) {
+            return MyBSTnext.this.get(key);
+        }
+
+        public boolean containsKey(final K key) {
+            return MyBSTnext.this.get(key) != null;
+        }
+
+        public V putIfAbsent(final K key, final V value) {
+            return MyBSTnext.this.putIfAbsent(slot, key, value);
+        }
+
+        public V put(final K key, final V value) {
+            return MyBSTnext.this.put(slot, key, value);
+        }
+
+        public V remove(final K key) {
+            return MyBSTnext.this.remove(slot, key);
+        }
+
+        public void putAll(final K[] sortedKeys, final V[] values) {
+            MyBSTnext.this.putAll(slot, sortedKeys, values);
+        }
+
+        public void putAll(final SortedMap<K, ? extends V> map) {
+            MyBSTnext.this.putAll(slot, map);
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            handshake.releaseSlot(slot);
+        }
+    }
+
+//--------------------------------------------------------------------------------
+// SNAPSHOT ITERATION
+//--------------------------------------------------------------------------------
+
+    /**
+     * Ascending iterator over a linearizable snapshot of the keys.
+     * Each call takes its own snapshot (see snapshotKeys); later updates are not seen.
+     */
+    public Iterator<K> keyIterator() {
+        return Spliterators.iterator(keySpliterator());
+    }
+
+    /** Descending iterator over a linearizable snapshot of the keys. */
+    public Iterator<K> descendingKeyIterator() {
+        final Object[] keys = snapshotKeys();
+        return new Iterator<K>() {
+            private int next = keys.length - 1;
+
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @SuppressWarnings("unchecked")
+            public K next() {
+                if (next < 0) throw new NoSuchElementException();
+                return (K) keys[next--];
+            }
+        };
+    }
+
+    /**
+     * Sized, sorted Spliterator over a linearizable snapshot of the keys. It splits evenly,
+     * so StreamSupport.stream(tree.keySpliterator(), true) scans on the fork-join pool.
+     */
+    public Spliterator<K> keySpliterator() {
+        return Spliterators.spliterator(snapshotKeys(),
+            Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /** Stream over a linearizable snapshot of the keys, ascending. */
+    public Stream<K> keyStream(boolean parallel) {
+        return StreamSupport.stream(keySpliterator(), parallel);
+    }
+
+    /**
+     * Keys of root.version in ascending order, forwarding pointers resolved.
+     * Forwarding pointers are only written on the fast path, so they cannot change while we
+     * are in the slow path; the walk is done before exitSlowPath() and iterators never touch
+     * the live tree. Linearization point: Reading root.version after enterSlowPath().
+     */
+    private Object[] snapshotKeys() {
+        // Enter slow path to ensure consistency
+        // Capture the phase we entered with for proper exit
+        long currPhase = handshake.enterSlowPath();
+
+        try {
+            // LINEARIZATION POINT: Read root.version to get immutable snapshot
+            Version<K> snapshot = root.version;
+            ArrayList<Object> keys = new ArrayList<>(computeSubtreeSize(snapshot));
+            ArrayDeque<Version<K>> pending = new ArrayDeque<>();  // Right subtrees still to visit
+
+            Version<K> current = snapshot;
+            while (current != null) {
+                current = resolveForwarding(current);
+                if (current.left != null) {
+                    pending.push(current.right);
+                    current = current.left;
+                    continue;
+                }
+                if (current.key != null) keys.add(current.key);  // Skip sentinels
+                current = pending.poll();
+            }
+            return keys.toArray();
+        } finally {
+            // Exit slow path using the captured phase
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    /**
+     * Shape of a linearizable snapshot: keyed-leaf depth histogram, max and mean depth, node
+     * counts and the heaviest subtree imbalance (see ShapeReport). Walks root.version under
+     * one enterSlowPath(), forwarding pointers resolved, with an explicit stack like
+     * snapshotKeys(), so degenerate trees do not overflow the call stack as sizeStructural() can.
+     */
+    public ShapeReport shapeReport() {
+        // Enter slow path to ensure consistency
+        // Capture the phase we entered with for proper exit
+        long currPhase = handshake.enterSlowPath();
+
+        try {
+            // LINEARIZATION POINT: Read root.version to get immutable snapshot
+            ShapeReport.Builder shape = new ShapeReport.Builder();
+            ArrayDeque<Version<K>> pending = new ArrayDeque<>();  // Children still to visit, links kept by shape
+            pending.push(root.version);
+            shape.push(-1, false);
+
+            Version<K> current;
+            while ((current = pending.poll()) != null) {
+                current = resolveForwarding(current);
+                int index = shape.add(current.left != null, current.key);
+                if (current.left != null) {
+                    pending.push(current.right);
+                    shape.push(index, true);
+                    pending.push(current.left);
+                    shape.push(index, false);
+                }
+            }
+            return shape.build();
+        } finally {
+            // Exit slow path using the captured phase
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    // Node of a version; versions carry no value type, but every node of this tree holds V values
+    @SuppressWarnings("unchecked")
+    private Node<K,V> nodeOf(final Version<K> version) {
+        return (Node<K,V>) version.node;
+    }
+
+    // Follows forwarding pointers from an orphaned node's version to its replacement
+    private Version<K> resolveForwarding(Version<K> version) {
+        while (true) {
+            Version<K> forwardPtr = null;
+            if (version.node instanceof InternalNode) {
+                forwardPtr = ((InternalNode<K,V>) nodeOf(version)).forwardingPtr;
+            } else if (version.node instanceof LeafNode) {
+                forwardPtr = ((LeafNode<K,V>) nodeOf(version)).forwardingPtr;
+            }
+            if (forwardPtr == null) return version;
+            version = forwardPtr;
+        }
+    }
+
+//--------------------------------------------------------------------------------
+// PRIVATE METHODS
+// - helpInsert
+// - helpDelete
+//--------------------------------------------------------------------------------
+
+    private void helpInsert(final IInfo<K,V> info, boolean useFastPath){
+        boolean onLeft = (info.p.left == info.l);
+        boolean spliced = onLeft
+                ? leftUpdater.compareAndSet(info.p, info.l, info.lReplacingNode)
+                : rightUpdater.compareAndSet(info.p, info.l, info.lReplacingNode);
+
+        if (spliced) {
+            // Fix parent of the new child
+            info.lReplacingNode.parent = info.p;
+            
+            if (useFastPath) {
+                // Fast path with chain compression
+                // Determine final target version (follow existing forward chain if present)
+                Version<K> replacementVersion = (info.lReplacingNode instanceof InternalNode) 
+                    ? ((InternalNode<K,V>) info.lReplacingNode).version
+                    : ((LeafNode<K,V>) info.lReplacingNode).version;
+                
+                Version<K> finalTarget = replacementVersion;
+                
+                // Check if replacement already points forward (upward compression)
+                if (info.lReplacingNode instanceof InternalNode) {
+                    InternalNode<K,V> replacement = (InternalNode<K,V>) info.lReplacingNode;
+                    if (replacement.forwardingPtr != null) {
+                        finalTarget = replacement.forwardingPtr;
+                    }
+                    
                     // Check if we're extending an existing chain (downward compression)
                     if (replacement.reversePtr != null) {
                         // Update predecessor to skip intermediate nodes
@@ -598,9 +1377,9 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
                         info.l.forwardingPtr = finalTarget;
                         // Set reverse pointer on replacement (points back to info.l)
                         if (finalTarget.node instanceof InternalNode) {
-                            ((InternalNode<K,V>) finalTarget.node).reversePtr = info.l;
+                            ((InternalNode<K,V>) nodeOf(finalTarget)).reversePtr = info.l;
                         } else if (finalTarget.node instanceof LeafNode) {
-                            ((LeafNode<K,V>) finalTarget.node).reversePtr = info.l;
+                            ((LeafNode<K,V>) nodeOf(finalTarget)).reversePtr = info.l;
                         }
                     }
                 } else {
@@ -608,7 +1387,7 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
                     info.l.forwardingPtr = finalTarget;
                     // Set reverse pointer on replacement leaf
                     if (finalTarget.node instanceof LeafNode) {
-                        ((LeafNode<K,V>) finalTarget.node).reversePtr = info.l;
+                        ((LeafNode<K,V>) nodeOf(finalTarget)).reversePtr = info.l;
                     }
                 }
                 // Metadata updates happen in caller via fastUpdateMetadataOnly
@@ -630,17 +1409,60 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
             helpMarked(info, useFastPath);
             return true;
         } else {
-            help(currentPInfo);
+            // A frozen p is left to the retry, which helps the rebuild outside any claim (and
+            // outside a handshake's helpFlagged)
+            if (currentPInfo.getClass() != RInfo.class) help(currentPInfo, useFastPath);
             infoUpdater.compareAndSet(info.gp, info, new Clean());
             return false;
         }
     }
 
-    private void help(final Info<K,V> info) {
-        // When helping, use slow path to be conservative
-        if (info.getClass() == IInfo.class)     helpInsert((IInfo<K,V>) info, false);
-        else if(info.getClass() == DInfo.class) helpDelete((DInfo<K,V>) info, false);
-        else if(info.getClass() == Mark.class)  helpMarked(((Mark<K,V>)info).dinfo, false);
+    private final LongAdder fastHelps = new LongAdder();  // help() calls taking the fast path
+    private final LongAdder slowHelps = new LongAdder();  // ... the slow path (propagate)
+
+    /**
+     * Helps info for an update that found it on its path. In fast phase the update's slot is
+     * announced FAST, so no handshake completes before this help does, and the help takes
+     * the fast path: forwarding pointers instead of a propagate to the root (fastSize is
+     * never the helper's, each owner applies its own delta). In helping mode (see Handshake)
+     * it needs a fast-path claim for that, or helps on the slow path. A rebuild claims only
+     * the forwarding pointers after its swing, see helpRebuild.
+     */
+    private void help(final ThreadSlotRegistry.Slot slot, final Info<K,V> info, final boolean useFastPath) {
+        if (info.getClass() == RInfo.class) {
+            (useFastPath ? fastHelps : slowHelps).increment();
+            helpRebuild((RInfo<K,V>) info, slot, useFastPath);
+        } else if (useFastPath && handshake.claimFastPath(slot)) {
+            help(info, true);
+            handshake.releaseFastPath(slot);
+        } else {
+            help(info, false);
+        }
+    }
+
+    private void help(final Info<K,V> info, final boolean useFastPath) {
+        (useFastPath ? fastHelps : slowHelps).increment();
+        if (info.getClass() == IInfo.class)     helpInsert((IInfo<K,V>) info, useFastPath);
+        else if(info.getClass() == DInfo.class) helpDelete((DInfo<K,V>) info, useFastPath);
+        else if(info.getClass() == Mark.class)  helpMarked(((Mark<K,V>)info).dinfo, useFastPath);
+        else if(info.getClass() == RInfo.class) helpRebuild((RInfo<K,V>) info, null, useFastPath);
+    }
+
+    // Handshake helping mode: completes a revoked update's descriptor if it is still flagged
+    private boolean helpFlagged(final Info<K,V> info) {
+        if (info.getClass() == IInfo.class) {
+            if (((IInfo<K,V>) info).p.info != info) return false;
+        } else if (info.getClass() != DInfo.class || ((DInfo<K,V>) info).gp.info != info) {
+            return false;
+        }
+        help(info, false);
+        return true;
+    }
+
+    // Clean, never flagged, or frozen by a rebuild that aborted (see RInfo)
+    private static boolean isClean(final Info<?,?> info) {
+        return info == null || info.getClass() == Clean.class
+            || (info.getClass() == RInfo.class && ((RInfo<?,?>) info).state == RInfo.ABORTED);
     }
 
     private void helpMarked(final DInfo<K,V> info, boolean useFastPath) {
@@ -688,19 +1510,21 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
                     }
                     // Set reverse pointer on final target (points back to predecessor)
                     if (finalTarget.node instanceof InternalNode) {
-                        ((InternalNode<K,V>) finalTarget.node).reversePtr = predecessor;
+                        ((InternalNode<K,V>) nodeOf(finalTarget)).reversePtr = predecessor;
                     } else if (finalTarget.node instanceof LeafNode) {
-                        ((LeafNode<K,V>) finalTarget.node).reversePtr = predecessor;
+                        ((LeafNode<K,V>) nodeOf(finalTarget)).reversePtr = predecessor;
                     }
-                    // Don't set info.p.forwardingPtr - it's skipped in chain
+                    // info.p forwards too: a slow-path propagate since it was linked may have
+                    // put info.p's own version into root.version, bypassing the predecessor
+                    info.p.forwardingPtr = finalTarget;
                 } else {
                     // First link - create new chain
                     info.p.forwardingPtr = finalTarget;
                     // Set reverse pointer on final target (points back to info.p)
                     if (finalTarget.node instanceof InternalNode) {
-                        ((InternalNode<K,V>) finalTarget.node).reversePtr = info.p;
+                        ((InternalNode<K,V>) nodeOf(finalTarget)).reversePtr = info.p;
                     } else if (finalTarget.node instanceof LeafNode) {
-                        ((LeafNode<K,V>) finalTarget.node).reversePtr = info.p;
+                        ((LeafNode<K,V>) nodeOf(finalTarget)).reversePtr = info.p;
                     }
                 }
                 // Metadata updates happen in caller via fastUpdateMetadataOnly
@@ -713,7 +1537,237 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
     }
 
 
-    private static <E extends Comparable<? super E>, T> boolean refresh(InternalNode<E,T> x) {
+//--------------------------------------------------------------------------------
+// REBALANCING (MyBSTnext(deferSizeDeltas, true))
+// Scapegoat-style partial rebuilding. Balance is relaxed: a path may grow until an insert
+// finds it deeper than depthBound, then the lowest ancestor x whose distance to the new leaf
+// exceeds log(size(x)) base 1/ALPHA is rebuilt perfectly balanced off to the side and swung
+// in under an RInfo freeze. Subtree sizes come from fastSize, or are counted on the way up
+// when size deltas are deferred (fastSize then lags until the next handshake).
+//--------------------------------------------------------------------------------
+
+    static final double ALPHA = 0.7;  // Scapegoat weight bound
+    private static final int DEPTH_SLACK = 3;  // root, the null-keyed node above the keys, and one level of slack
+    private volatile int depthBound = DEPTH_SLACK;  // Cached bound, recomputed when a path exceeds it
+    private final LongAdder rebuildsCommitted = new LongAdder();
+    private final LongAdder rebuildsAborted = new LongAdder();
+    private final LongAdder keysRebuilt = new LongAdder();
+
+    /**
+     * Called by an insert after its metadata update, still announced; from is the internal
+     * node just installed above the new leaf. A rebuild is tried once: if it aborts or its
+     * anchor is busy the path stays deep until a later insert below it tries again.
+     */
+    private void rebalanceAfterInsert(final ThreadSlotRegistry.Slot slot, final InternalNode<K,V> from) {
+        handshake.releaseFastPath(slot);  // The insert's fast-path tail is over
+        int depth = 0;
+        for (Node<K,V> x = from; x != null; x = x.parent) depth++;
+        if (depth <= depthBound) return;
+        InternalNode<K,V> scapegoat;
+        if (deferSizeDeltas) {
+            scapegoat = scapegoatByCount(from);
+        } else {
+            int bound = (int) (Math.log(root.fastSize.sum() + 1) / Math.log(1 / ALPHA)) + DEPTH_SLACK;
+            depthBound = bound;
+            if (depth <= bound) return;
+
+            // Lowest keyed ancestor too deep for its weight; the keyed region's root if fastSize lags
+            scapegoat = null;
+            int height = 1;  // Edges from the new leaf to x
+            for (InternalNode<K,V> x = from; x != null && x.key != null; x = x.parent, height++) {
+                scapegoat = x;
+                if (height > Math.log(x.fastSize.sum()) / Math.log(1 / ALPHA)) break;
+            }
+        }
+        if (scapegoat == null) return;
+
+        // Re-check phase, as before every update attempt
+        long phase = handshake.getQueriesPhase();
+        boolean useFastPath = ((phase & 3) == 0);
+        handshake.setOpPhaseVolatile(slot, useFastPath ? Handshake.FAST_PHASE : phase);
+        rebuild(slot, scapegoat, useFastPath);
+    }
+
+    /**
+     * Scapegoat search for deferred size deltas, where fastSize lags until the next handshake:
+     * weights are the keys counted on the way up, each ancestor adding its other child's
+     * subtree, as in a sequential scapegoat tree. Costs O(size) of the subtree reached, which
+     * its rebuild costs anyway. Reaching the keyed region's root without a scapegoat means the
+     * path is within log n of the counted n: the depth bound is reset from that count instead.
+     */
+    private InternalNode<K,V> scapegoatByCount(final InternalNode<K,V> from) {
+        long weight = countKeys(from);
+        int height = 1;  // Edges from the new leaf to x
+        InternalNode<K,V> x = from;
+        while (true) {
+            if (height > Math.log(weight) / Math.log(1 / ALPHA)) return x;
+            InternalNode<K,V> parent = x.parent;
+            if (parent == null || parent.key == null) break;
+            Node<K,V> left = parent.left;
+            weight += countKeys(left == x ? parent.right : left);
+            x = parent;
+            height++;
+        }
+        depthBound = (int) (Math.log(weight + 1) / Math.log(1 / ALPHA)) + DEPTH_SLACK;
+        return null;
+    }
+
+    // Keys below n in the live tree, iteratively: unbalanced paths can be long
+    private long countKeys(Node<K,V> n) {
+        long keys = 0;
+        ArrayDeque<Node<K,V>> pending = new ArrayDeque<>();
+        pending.push(n);
+        while (!pending.isEmpty()) {
+            Node<K,V> x = pending.pop();
+            if (x instanceof InternalNode) {
+                InternalNode<K,V> i = (InternalNode<K,V>) x;
+                pending.push(i.left);
+                pending.push(i.right);
+            } else if (x.key != null) {
+                keys++;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Collects subtree (info of each internal node read before its children, so an unchanged
+     * info at freeze time means unchanged children), builds a balanced copy of its leaves and
+     * installs it through an RInfo. Gives up without freezing anything if a node is busy.
+     */
+    private void rebuild(final ThreadSlotRegistry.Slot slot, final InternalNode<K,V> subtree, boolean useFastPath) {
+        final InternalNode<K,V> anchor = subtree.parent;
+        if (anchor == null) return;
+        final Info<K,V> anchorInfo = anchor.info;
+        if (!isClean(anchorInfo)) return;  // Busy, or removed (Mark and committed RInfo stay)
+        if (anchor.left != subtree && anchor.right != subtree) return;
+
+        ArrayList<InternalNode<K,V>> nodes = new ArrayList<>();
+        ArrayList<Info<K,V>> seen = new ArrayList<>();
+        ArrayList<Node<K,V>> leaves = new ArrayList<>();
+        nodes.add(anchor);
+        seen.add(anchorInfo);
+
+        // Pre-order, left first: internal nodes top-down, leaves in key order
+        ArrayDeque<Node<K,V>> pending = new ArrayDeque<>();
+        pending.push(subtree);
+        Node<K,V> x;
+        while ((x = pending.poll()) != null) {
+            if (x.getClass() == LeafNode.class) {
+                leaves.add(new LeafNode<K,V>(x.key, ((LeafNode<K,V>) x).value));
+                continue;
+            }
+            InternalNode<K,V> internal = (InternalNode<K,V>) x;
+            Info<K,V> info = internal.info;
+            if (!isClean(info)) return;  // An update is in flight here
+            nodes.add(internal);
+            seen.add(info);
+            pending.push(internal.right);
+            pending.push(internal.left);
+        }
+
+        Node<K,V> replacement = balanced(leaves, 0, leaves.size());
+        replacement.parent = anchor;
+        final RInfo<K,V> rinfo = new RInfo<K,V>(anchor, subtree, replacement, internalArray(nodes), infoArray(seen));
+        if (helpRebuild(rinfo, slot, useFastPath)) {
+            rebuildsCommitted.increment();
+            keysRebuilt.add(leaves.size());
+        } else {
+            rebuildsAborted.increment();
+        }
+    }
+
+    // Typed copies for RInfo: generic arrays can only be created raw
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K extends Comparable<? super K>, V> InternalNode<K,V>[] internalArray(final ArrayList<InternalNode<K,V>> list) {
+        return list.toArray(new InternalNode[list.size()]);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K extends Comparable<? super K>, V> Info<K,V>[] infoArray(final ArrayList<Info<K,V>> list) {
+        return list.toArray(new Info[list.size()]);
+    }
+
+    /**
+     * Freezes, swings and cleans for info; returns whether the rebuild committed. Freezing and
+     * the swing are the same on both paths and keep the key set, so they run unclaimed and a
+     * handshake can revoke a stalled rebuilder at any point of them. With a slot, the fast
+     * path is claimed for the forwarding pointers after the swing only, a revoked rebuilder
+     * propagates instead; without one the caller's claim, if any, covers the whole help.
+     */
+    private boolean helpRebuild(final RInfo<K,V> info, final ThreadSlotRegistry.Slot slot, boolean useFastPath) {
+        int state = info.state;
+        if (state != RInfo.IN_PROGRESS) return state == RInfo.COMMITTED;
+
+        for (int i = 0; i < info.nodes.length; i++) {
+            InternalNode<K,V> x = info.nodes[i];
+            if (!infoUpdater.compareAndSet(x, info.seen[i], info) && x.info != info) {
+                // x changed since it was collected: abort, unless x was frozen and already
+                // released by a commit (only a committed rebuild releases its anchor)
+                if (info.allFrozen) return true;
+                info.state = RInfo.ABORTED;
+                return false;
+            }
+        }
+        info.allFrozen = true;
+
+        boolean onLeft = (info.anchor.left == info.subtree);
+        boolean swung = onLeft
+                ? leftUpdater.compareAndSet(info.anchor, info.subtree, info.replacement)
+                : rightUpdater.compareAndSet(info.anchor, info.subtree, info.replacement);
+
+        if (swung) {
+            final boolean claimed = useFastPath && slot != null;
+            if (claimed && !handshake.claimFastPath(slot)) useFastPath = false;
+            if (useFastPath) {
+                // Chain compression as in helpMarked (the fresh replacement has no chain yet).
+                // subtree forwards too: a propagate since it was linked may have put its own
+                // version into root.version, bypassing the predecessor.
+                Version<K> finalTarget = (info.replacement instanceof InternalNode)
+                    ? ((InternalNode<K,V>) info.replacement).version
+                    : ((LeafNode<K,V>) info.replacement).version;
+                info.subtree.forwardingPtr = finalTarget;
+                Node<K,V> predecessor = info.subtree.reversePtr;
+                if (predecessor == null) {
+                    predecessor = info.subtree;
+                } else if (predecessor instanceof InternalNode) {
+                    ((InternalNode<K,V>) predecessor).forwardingPtr = finalTarget;
+                } else {
+                    ((LeafNode<K,V>) predecessor).forwardingPtr = finalTarget;
+                }
+                if (finalTarget.node instanceof InternalNode) {
+                    ((InternalNode<K,V>) nodeOf(finalTarget)).reversePtr = predecessor;
+                } else {
+                    ((LeafNode<K,V>) nodeOf(finalTarget)).reversePtr = predecessor;
+                }
+                // fastSize needs nothing: same keys, and the copy was built with its counts
+                if (claimed) handshake.releaseFastPath(slot);
+            } else {
+                // Slow path: Full propagation
+                propagate(info.anchor);
+            }
+        }
+        info.state = RInfo.COMMITTED;
+        infoUpdater.compareAndSet(info.anchor, info, new Clean<>());
+        return true;
+    }
+
+    // Get rebuild counters (MyBSTnext(deferSizeDeltas, true) only)
+    public String getRebalanceStats() {
+        long committed = rebuildsCommitted.sum();
+        long keys = keysRebuilt.sum();
+        return String.format("Rebalance: %d rebuilds (%.1f keys each), %d aborted",
+            committed, committed > 0 ? keys / (double) committed : 0.0, rebuildsAborted.sum());
+    }
+
+    /**
+     * Installs a new version of x built from its children's current versions, on behalf of
+     * the propagate() call by. Returns x's version that now covers them: the one installed,
+     * or the current one if it was already built from exactly these child versions (a
+     * concurrent refresh did our work, so nothing is allocated and no CAS is issued). Returns
+     * null if our CAS lost; propagate() then retries once, which then usually elides.
+     */
+    private <E extends Comparable<? super E>, T> Version<E> refresh(InternalNode<E,T> x, Propagation by) {
         // snapshot old
         final Version<E> old = x.version;
 
@@ -730,27 +1784,51 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
             xR = x.right;
             vR = (xR instanceof InternalNode) ? ((InternalNode<E,T>) xR).version : ((LeafNode<E,T>) xR).version;
         } while (x.right != xR);
+        if (old.left == vL && old.right == vR) {
+            if (PropagationStats.ENABLED) propagationStats.elided.increment();
+            return old;
+        }
         int nb = vL.nbChild + vR.nbChild;
         Version<E> newer = new Version<>(x.key, vL, vR, nb, x);  // Pass node reference
-        return versionUpdater.compareAndSet(x, old, newer);
+        newer.propagation = by;
+        boolean installed = versionUpdater.compareAndSet(x, old, newer);
+        if (PropagationStats.ENABLED) (installed ? propagationStats.installed : propagationStats.failed).increment();
+        return installed ? newer : null;
     }
     
-    private static <E extends Comparable<? super E>, T> void propagate(Node<E,T> start) {
+    /**
+     * Refreshes every ancestor of start up to the root. Levels whose version a concurrent
+     * propagate already rebuilt from the current children are elided (see refresh). The
+     * climb stops early at such a level only if that propagate has reached the root: the
+     * root then includes this level's version, and with it our update. One that is still
+     * climbing may not have reached the root yet, and the update must not return before
+     * root.version includes it, so we climb on.
+     */
+    private <E extends Comparable<? super E>, T> void propagate(Node<E,T> start) {
+        final Propagation ours = new Propagation();
         Node<E,T> x = start;
-        int tries = 0;
         while (x != null) {
             if (x instanceof InternalNode) {
-                if (!refresh((InternalNode<E,T>) x)) {
-                    refresh((InternalNode<E,T>) x);
+                Version<E> covering = refresh((InternalNode<E,T>) x, ours);
+                if (covering == null) covering = refresh((InternalNode<E,T>) x, ours);
+                if (covering != null && covering.propagation != null && covering.propagation.reachedRoot) {
+                    if (PropagationStats.ENABLED) propagationStats.stopped.increment();
+                    break;
                 }
             }
             x = x.parent;
         }
+        ours.reachedRoot = true;
     }
 
     /**
      * Update ONLY fastSize along the path from the given node to the root.
      * MyBSTnext does NOT update Version tree structure in fast path - uses forwarding pointers instead.
+     * Also called by slow-path updates: nbChild never carries counts (leaf versions have 0),
+     * so fastSize is the only size metadata in either phase.
+     *
+     * fastSize is a LongAdder: a single CAS on its base while uncontended, striped cells once
+     * several threads collide on it, which in practice means the root and the first levels.
      */
     private void fastUpdateMetadataOnly(int delta, Node<K,V> startNode) {
         Node<K,V> current = startNode;
@@ -758,7 +1836,7 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
             if (current instanceof InternalNode) {
                 InternalNode<K,V> internal = (InternalNode<K,V>) current;
                 // Update fastSize only - no Version tree updates
-                internal.fastSize.addAndGet(delta);
+                internal.fastSize.add(delta);
             }
             // Leaf nodes don't need updates - their fastSize is fixed at creation
             current = current.parent;
@@ -766,120 +1844,48 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
     }
     
 
-    //--------------------------------------------------------------------------------
-    // HANDSHAKE MECHANISM
-    //--------------------------------------------------------------------------------
-    
-    private void setOpPhaseIdle() {
-        int tid = threadID.get();
-        if (tid < MAX_THREADS) {
-            opPhase.get(tid).set(IDLE_PHASE);
-        }
-    }
-    
-    private void setOpPhaseVolatile(long phase) {
-        int tid = threadID.get();
-        if (tid < MAX_THREADS) {
-            // Update max thread ID if this is a new thread
-            long currentMax;
-            do {
-                currentMax = maxThreadID.get();
-                if (tid <= currentMax) break;
-            } while (!maxThreadID.compareAndSet(currentMax, tid));
-            
-            opPhase.get(tid).set(phase);
-        }
-    }
-    
-    private long getQueriesPhase() {
-        return queriesPhase.get();
-    }
-    
-    private void performHandshake(long targetPhase) {
-        long startTime = System.nanoTime();
-        
-        // Only check threads that have been active (optimization)
-        int activeThreads = (int)maxThreadID.get() + 1;
-        if (activeThreads <= 0) return;  // No threads have started yet
-        
-        for (int tid = 0; tid < activeThreads; tid++) {
-            long phase;
-            while ((phase = opPhase.get(tid).get()) != IDLE_PHASE && phase < targetPhase) {
-                // Spin wait for thread to acknowledge handshake
-                Thread.onSpinWait();
-            }
+    /**
+     * Fast-path size update: applied right away, or logged in the slot when deferring.
+     * A full log is flushed by its owner, still on the fast path, to bound its memory.
+     */
+    private void fastUpdateMetadata(ThreadSlotRegistry.Slot slot, int delta, Node<K,V> startNode) {
+        if (!deferSizeDeltas) {
+            fastUpdateMetadataOnly(delta, startNode);
+        } else if (slot.deltas.add(startNode, delta)) {
+            applyDeferredSizeDeltas(slot.deltas);
         }
-        
-        long elapsed = System.nanoTime() - startTime;
-        totalHandshakes.incrementAndGet();
-        totalHandshakeTimeNanos.addAndGet(elapsed);
     }
-    
-    private long enterSlowPath() {
-        // Increment reader count first
-        activeReaders.incrementAndGet();
-        
-        long currQueriesPhase = queriesPhase.get();
-        
-        // If already in slow path ((phase & 3) == 2), use CAS to skip to next slow path
-        // This prevents a race where old thread wakes up and incorrectly transitions to fast
-        if ((currQueriesPhase & 3) == 2) {
-            // Try CAS to move to next slow path (phase 2 → phase 6, both slow path)
-            queriesPhase.compareAndSet(currQueriesPhase, currQueriesPhase + 4);
-            // Re-read phase (either we succeeded CAS, or another thread changed it)
-            return queriesPhase.get();
-        }
-        
-        // Case 2: Wait for slow path transition to complete
-        while ((currQueriesPhase & 3) != 0) {
-            currQueriesPhase = queriesPhase.get();
-            // If transition completed to slow path, return current phase
-            if ((currQueriesPhase & 3) == 2) {
-                return currQueriesPhase;  // Just return - no CAS to next cycle
+
+    /**
+     * Merges a log of deferred deltas into fastSize and clears it.
+     * Paths are summed first so every ancestor, the root included, takes a single add.
+     * Walking up from a start node removed since the update is fine: its parent pointer
+     * still leads to the node that took its place, and every live ancestor of the updated
+     * key was already an ancestor when the delta was logged.
+     */
+    private void applyDeferredSizeDeltas(DeltaLog log) {
+        IdentityHashMap<InternalNode<K,V>, long[]> sums = new IdentityHashMap<>();
+        for (int i = 0; i < log.capacity(); i++) {
+            @SuppressWarnings("unchecked") Node<K,V> current = (Node<K,V>) log.nodeAt(i);  // Logged by this tree
+            int delta = log.deltaAt(i);
+            if (current == null || delta == 0) continue;
+            while (current != null) {
+                if (current instanceof InternalNode) {
+                    sums.computeIfAbsent((InternalNode<K,V>) current, n -> new long[1])[0] += delta;
+                }
+                current = current.parent;
             }
         }
-        
-        // Try to be the thread that performs the transition
-        // Use CAS to avoid multiple threads doing handshakes simultaneously
-        if (queriesPhase.compareAndSet(currQueriesPhase, currQueriesPhase + 1)) {
-            // We won the race, perform the handshakes
-            // First handshake: switching phase (currQueriesPhase + 1)
-            performHandshake(currQueriesPhase + 1);
-            
-            // Second handshake: move to slow path (currQueriesPhase + 2)
-            queriesPhase.set(currQueriesPhase + 2);
-            performHandshake(currQueriesPhase + 2);
-            
-            return currQueriesPhase + 2;
-        } else {
-            // Another thread is doing the transition, wait for slow path
-            do {
-                currQueriesPhase = queriesPhase.get();
-            } while ((currQueriesPhase & 3) != 2);
-            return currQueriesPhase;
+        for (Map.Entry<InternalNode<K,V>, long[]> e : sums.entrySet()) {
+            if (e.getValue()[0] != 0) e.getKey().fastSize.add(e.getValue()[0]);
         }
+        log.clear();
     }
-    
-    /**
-     * Exit slow path protocol.
-     * Decrements activeReaders counter and if this is the last reader,
-     * transitions back to fast path (phase 2 → phase 4 ≡ 0 mod 4).
-     * 
-     * @param currPhase The phase that was captured when entering slow path
-     */
-    private void exitSlowPath(long currPhase) {
-        long remainingReaders = activeReaders.decrementAndGet();
-        
-        // If we're the last reader to finish, try to transition back to fast path
-        if (remainingReaders == 0 && (currPhase & 3) == 2) {
-            // Try CAS to return to fast path (increment by 2: phase 2 → 4 → 0 mod 4)
-            // Use currPhase (the phase we entered with) for the CAS
-            queriesPhase.compareAndSet(currPhase, currPhase + 2);
-        }
+
+    Handshake handshake() {
+        return handshake;
     }
     
-    
-    
     //--------------------------------------------------------------------------------
     // FAST AND SLOW PATH OPERATIONS
     //--------------------------------------------------------------------------------
@@ -923,50 +1929,226 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
      * Matches pseudocode line 432-435.
      * 
      * IMPORTANT: If the Version's node has a forwardingPtr, follow it to get the complete subtree size.
+     *
+     * Once the handshake has completed no fast-path update is still adding to fastSize, but
+     * slow-path updaters keep adding during the query, one ancestor at a time, and each sum()
+     * is a separate, non-atomic read. A single read (the root's, for sizeSnapshot) counts an
+     * updater or not; a query summing several levels (rank, select, rangeCount) can count an
+     * updater at one level and miss it at another, or count an update and miss an earlier
+     * one. Such results are exact only if no slow-path update runs during the query.
      */
     private int computeSubtreeSize(Version<K> version) {
         if (version == null) return 0;
         
-        // Check if this version's node has been orphaned (has forwardingPtr)
-        Version<K> targetVersion = version;
-        if (version.node instanceof InternalNode) {
-            InternalNode<K,V> internal = (InternalNode<K,V>) version.node;
-            if (internal.forwardingPtr != null) {
-                targetVersion = internal.forwardingPtr;
-            }
-        } else if (version.node instanceof LeafNode) {
-            LeafNode<K,V> leaf = (LeafNode<K,V>) version.node;
-            if (leaf.forwardingPtr != null) {
-                targetVersion = leaf.forwardingPtr;
-            }
-        }
+        // Check if this version's node has been orphaned (has forwardingPtr). Chains are
+        // compressed to one hop, except behind the own pointer of a deleted parent or a rebuilt
+        // subtree (see helpMarked, helpRebuild)
+        Version<K> targetVersion = resolveForwarding(version);
         
         // Combine slow (nbChild) and fast (fastSize) metadata from target version
         long fastSize = 0;
         if (targetVersion.node instanceof InternalNode) {
-            fastSize = ((InternalNode<K,V>) targetVersion.node).fastSize.get();
+            fastSize = ((InternalNode<K,V>) nodeOf(targetVersion)).fastSize.sum();
         } else if (targetVersion.node instanceof LeafNode) {
-            fastSize = ((LeafNode<K,V>) targetVersion.node).fastSize.get();
+            fastSize = ((LeafNode<K,V>) nodeOf(targetVersion)).fastSize.get();
         }
         return targetVersion.nbChild + (int)fastSize;
     }
     
     public int sizeSnapshot() {
         totalSizeCalls.incrementAndGet();
+
+        // Optimistic mode: no handshake if no update overlaps the computation
+        long stamp = handshake.optimisticStamp();
+        if (stamp >= 0) {
+            int size = computeSubtreeSize(root.version);
+            if (handshake.validate(stamp)) return size;
+        }
         
         // Enter slow path (performs handshakes if needed, increments reader count)
         // Capture the phase we entered with for proper exit
-        long currPhase = enterSlowPath();
+        long currPhase = handshake.enterSlowPath();
         
         try {
             // Use helper to compute size
             return computeSubtreeSize(root.version);
         } finally {
             // Exit slow path using the captured phase
-            exitSlowPath(currPhase);
+            handshake.exitSlowPath(currPhase);
         }
     }
     
+    // One combined size computation: callers join while state >= 0 (the number of joiners),
+    // the combiner closes it (state = -1) before reading root.version and publishes result
+    private static final class SizeRound {
+        final AtomicInteger state = new AtomicInteger();
+        volatile int result;
+        volatile boolean done;
+        volatile boolean failed;  // Set with done if the combiner threw, joiners compute alone
+    }
+
+    private final AtomicReference<SizeRound> sizeRound = new AtomicReference<>();
+    private final LongAdder sizeRounds = new LongAdder();
+    private final LongAdder sizeJoins = new LongAdder();
+
+    /**
+     * sizeSnapshot() for many concurrent callers: callers arriving while a size is being
+     * set up join it and share its result instead of each entering the slow path. The
+     * first caller opens a round, enters the slow path (the handshakes are the window in
+     * which others join), closes the round and computes the size once.
+     *
+     * Linearizable like sizeSnapshot(): a caller only joins an open round, and the round is
+     * closed before root.version is read, so the shared read falls within every joiner's
+     * call. Fewer enterSlowPath calls also mean fewer arrivals and departures on the
+     * handshake's reader indicator.
+     */
+    public int sizeCombined() {
+        totalSizeCalls.incrementAndGet();
+
+        while (true) {
+            SizeRound round = sizeRound.get();
+            if (round != null) {
+                int joiners;
+                do {
+                    joiners = round.state.get();
+                } while (joiners >= 0 && !round.state.compareAndSet(joiners, joiners + 1));
+                if (joiners < 0) {
+                    // Closed, its combiner is computing: help unlink it and open a new round
+                    sizeRound.compareAndSet(round, null);
+                    continue;
+                }
+                sizeJoins.increment();
+                // Yield rather than spin: the combiner may be waiting out a handshake itself
+                while (!round.done) {
+                    Thread.yield();
+                }
+                if (!round.failed) return round.result;
+                return computeSizeAlone();
+            }
+
+            SizeRound mine = new SizeRound();
+            if (!sizeRound.compareAndSet(null, mine)) continue;
+            sizeRounds.increment();
+            long currPhase = -1;
+            try {
+                currPhase = handshake.enterSlowPath();
+                mine.state.set(-1);
+                sizeRound.compareAndSet(mine, null);
+                // LINEARIZATION POINT for the combiner and all joiners
+                int size = computeSubtreeSize(root.version);
+                mine.result = size;
+                return size;
+            } catch (RuntimeException | Error e) {
+                mine.state.set(-1);
+                sizeRound.compareAndSet(mine, null);
+                mine.failed = true;
+                throw e;
+            } finally {
+                mine.done = true;
+                if (currPhase != -1) handshake.exitSlowPath(currPhase);
+            }
+        }
+    }
+
+    // sizeSnapshot() without counting a second size call
+    private int computeSizeAlone() {
+        long currPhase = handshake.enterSlowPath();
+        try {
+            return computeSubtreeSize(root.version);
+        } finally {
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    // Get sizeCombined() counters: computations and callers that shared one instead
+    public String getSizeCombiningStats() {
+        long rounds = sizeRounds.sum();
+        long joins = sizeJoins.sum();
+        return String.format("Size combining: %d computations, %d joined callers (%.1f callers per computation)",
+            rounds, joins, rounds > 0 ? (rounds + joins) / (double) rounds : 0);
+    }
+    
+    // Get propagate()/refresh() counters (slow path only, needs -Dbst.propagationStats=true)
+    public String getPropagationStats() {
+        return propagationStats.toString();
+    }
+
+    /**
+     * Sets when the tree goes back to the fast path after aggregate queries (ModePolicy.EAGER
+     * by default, e.g. new LingeringModePolicy(...) to stay slow between frequent queries).
+     * Takes effect at the next query exit or slow-path update.
+     */
+    public void setModePolicy(ModePolicy policy) {
+        handshake.setModePolicy(policy);
+    }
+
+    /**
+     * Sets how queries wait for updates during handshakes (WaitStrategy.SPIN by default);
+     * e.g. WaitStrategy.spinYieldPark(...) when threads outnumber cores.
+     */
+    public void setWaitStrategy(WaitStrategy strategy) {
+        handshake.setWaitStrategy(strategy);
+    }
+
+    /**
+     * Hierarchical handshakes for many cores: announcement slots are grouped by groupSize
+     * (8, 16, 32 or 64) behind a per-group summary of one byte per slot, which the querying
+     * thread reads instead of every slot's line. Call before the first operation on the tree.
+     *
+     * @throws IllegalStateException if a thread has already operated on the tree
+     */
+    public void setHandshakeGroupSize(int groupSize) {
+        handshake.setGroupSize(groupSize);
+    }
+
+    /**
+     * Bounds how long a size/rank/select handshake waits on an updater that has been
+     * descheduled, e.g. with more threads than cores: after afterNanos on one thread's slot
+     * it revokes that thread's update, which then finishes on the slow path, and completes
+     * the update's flagged IInfo/DInfo itself. Updates pay one CAS per fast-path update to
+     * claim their fast-path tail; only a thread descheduled inside that tail is still waited
+     * for. Call before the first operation on the tree.
+     *
+     * @throws IllegalStateException if a thread has already operated on the tree
+     */
+    public void setStalledUpdateHelping(long afterNanos) {
+        handshake.setUpdateHelping(afterNanos, descriptor -> {
+            @SuppressWarnings("unchecked") Info<K,V> info = (Info<K,V>) descriptor;  // Published by this tree
+            return helpFlagged(info);
+        });
+    }
+
+    /**
+     * Optimistic aggregate queries: sizeSnapshot, rank, rangeCount and select first run
+     * without handshakes on the live fastSize metadata, and keep the result if no update
+     * was in flight or began meanwhile; otherwise they take the slow path as before. Every
+     * update then pays two atomic adds on one shared counter, which pays off when queries
+     * mostly run between updates rather than among them. Call before the first operation on
+     * the tree.
+     *
+     * @throws IllegalStateException if a thread has already operated on the tree, or the
+     *                               tree defers its size deltas
+     */
+    public void setOptimisticQueries(boolean enabled) {
+        handshake.setOptimisticQueries(enabled);
+    }
+
+    // Get optimistic query counters: validated, and sent to the slow path by an update
+    public String getOptimisticStats() {
+        return handshake.optimisticStats();
+    }
+
+    // Get helping counters: descriptors of other updates helped, by the helper's phase
+    public String getHelpingStats() {
+        return String.format("Helping: %d descriptors helped in fast phase (forwarding only), %d in slow phase (propagate)",
+            fastHelps.sum(), slowHelps.sum());
+    }
+
+    // Get fast/slow mode decisions (switches, lingers, returns to fast)
+    public String getModeStats() {
+        return handshake.modeStats();
+    }
+
     // Get profiling statistics
     public String getProfilingStats() {
         long handshakes = totalHandshakes.get();
@@ -976,8 +2158,8 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
         double avgHandshakeUs = handshakes > 0 ? (totalTimeNanos / (double)handshakes / 1000.0) : 0;
         double handshakesPerSize = sizeCalls > 0 ? (handshakes / (double)sizeCalls) : 0;
         
-        return String.format("Profiling: %d size calls, %d handshakes (%.1f per size), avg handshake time: %.2f μs",
-            sizeCalls, handshakes, handshakesPerSize, avgHandshakeUs);
+        return String.format("Profiling: %d size calls, %d handshakes (%.1f per size), avg handshake time: %.2f μs, %d found no update in flight, %s",
+            sizeCalls, handshakes, handshakesPerSize, avgHandshakeUs, handshake.emptyHandshakes.sum(), handshake.helpStats());
     }
 
     public boolean containsKeySnapshot(K key) {
@@ -1009,69 +2191,157 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
      * 
      * Navigation uses immutable Version tree for consistency.
      * Linearization point: Reading root.version after enterSlowPath().
+     * Optimistic mode (setOptimisticQueries): any point between stamp and validation.
      */
     public int rank(K key) {
         if (key == null) return -1;
         
+        // Optimistic mode: no handshake if no update overlaps the navigation
+        long stamp = handshake.optimisticStamp();
+        if (stamp >= 0) {
+            int rank = rankIn(root.version, key);
+            if (handshake.validate(stamp)) return rank;
+        }
+
         // Enter slow path to ensure consistency
         // Capture the phase we entered with for proper exit
-        long currPhase = enterSlowPath();
+        long currPhase = handshake.enterSlowPath();
         
         try {
             // LINEARIZATION POINT: Read root.version to get immutable snapshot
-            Version<K> snapshot = root.version;
-            
-            if (snapshot == null) return -1;
-            
-            Version<K> current = snapshot;
-            int rank = 0;
+            return rankIn(root.version, key);
+        } finally {
+            // Exit slow path using the captured phase
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    // rank() below snapshot: left subtree sizes summed down to key's leaf
+    private int rankIn(Version<K> snapshot, K key) {
+        if (snapshot == null) return -1;
+        
+        Version<K> current = snapshot;
+        int rank = 0;
+        
+        // Navigate Version tree until we reach a leaf (current.left == null)
+        while (true) {
+            // ALWAYS check for forwarding pointer first (even on leaves!)
+            Version<K> forwardPtr = null;
+            if (current.node instanceof InternalNode) {
+                forwardPtr = ((InternalNode<K,V>) nodeOf(current)).forwardingPtr;
+            } else if (current.node instanceof LeafNode) {
+                forwardPtr = ((LeafNode<K,V>) nodeOf(current)).forwardingPtr;
+            }
             
-            // Navigate Version tree until we reach a leaf (current.left == null)
-            while (true) {
-                // ALWAYS check for forwarding pointer first (even on leaves!)
-                Version<K> forwardPtr = null;
-                if (current.node instanceof InternalNode) {
-                    forwardPtr = ((InternalNode<K,V>) current.node).forwardingPtr;
-                } else if (current.node instanceof LeafNode) {
-                    forwardPtr = ((LeafNode<K,V>) current.node).forwardingPtr;
-                }
-                
-                if (forwardPtr != null) {
-                    // This node is orphaned - jump to replacement
-                    current = forwardPtr;
-                    // Loop again to check new current
-                    continue;
-                }
-                
-                // No forwarding pointer - check if we've reached a leaf
-                if (current.left == null) {
-                    // Reached a leaf, stop navigation
-                    break;
-                }
-                
-                // Internal node - navigate left or right based on key comparison
-                if (current.key == null || key.compareTo(current.key) < 0) {
-                    // Go left in Version tree
-                    current = current.left;
-                } else {
-                    // Go right - add left subtree size to rank using helper
-                    int leftSubtreeSize = computeSubtreeSize(current.left);
-                    rank += leftSubtreeSize;
-                    current = current.right;
-                }
-                // Loop continues - will check forwarding pointer on new current
+            if (forwardPtr != null) {
+                // This node is orphaned - jump to replacement
+                current = forwardPtr;
+                // Loop again to check new current
+                continue;
             }
             
-            // We've reached a leaf in the Version tree - check if it's our key
-            if (current != null && current.key != null && key.compareTo(current.key) == 0) {
-                return rank + 1; // 1-based rank
+            // No forwarding pointer - check if we've reached a leaf
+            if (current.left == null) {
+                // Reached a leaf, stop navigation
+                break;
             }
             
-            return -1; // Key not found
+            // Internal node - navigate left or right based on key comparison
+            if (current.key == null || key.compareTo(current.key) < 0) {
+                // Go left in Version tree
+                current = current.left;
+            } else {
+                // Go right - add left subtree size to rank using helper
+                int leftSubtreeSize = computeSubtreeSize(current.left);
+                rank += leftSubtreeSize;
+                current = current.right;
+            }
+            // Loop continues - will check forwarding pointer on new current
+        }
+        
+        // We've reached a leaf in the Version tree - check if it's our key
+        if (current != null && current.key != null && key.compareTo(current.key) == 0) {
+            return rank + 1; // 1-based rank
+        }
+        
+        return -1; // Key not found
+    }
+
+    /**
+     * Range count query: number of keys k with lo <= k <= hi.
+     * The bounds do not need to be keys of the tree; returns 0 if lo > hi.
+     *
+     * Both bounds are resolved on the same root.version under a single enterSlowPath(),
+     * where two rank() calls would each pay for their own slow-path entry.
+     * Linearization point: Reading root.version after enterSlowPath().
+     * Optimistic mode (setOptimisticQueries): any point between stamp and validation.
+     */
+    public int rangeCount(K lo, K hi) {
+        Objects.requireNonNull(lo, "lo");
+        Objects.requireNonNull(hi, "hi");
+        if (lo.compareTo(hi) > 0) return 0;
+
+        // Optimistic mode: no handshake if no update overlaps both descents
+        long stamp = handshake.optimisticStamp();
+        if (stamp >= 0) {
+            Version<K> snapshot = root.version;
+            int count = countBelow(snapshot, hi, true) - countBelow(snapshot, lo, false);
+            if (handshake.validate(stamp)) return count;
+        }
+
+        // Enter slow path to ensure consistency
+        // Capture the phase we entered with for proper exit
+        long currPhase = handshake.enterSlowPath();
+
+        try {
+            // LINEARIZATION POINT: Read root.version to get immutable snapshot
+            Version<K> snapshot = root.version;
+            return countBelow(snapshot, hi, true) - countBelow(snapshot, lo, false);
         } finally {
             // Exit slow path using the captured phase
-            exitSlowPath(currPhase);
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    /**
+     * Number of keys below key (or equal to it if inclusive) in the given version subtree.
+     * Navigates like rank(), following forwarding pointers, but works for absent keys.
+     * Caller must be in the slow path, or validate an optimistic stamp after it.
+     */
+    private int countBelow(Version<K> snapshot, K key, boolean inclusive) {
+        Version<K> current = snapshot;
+        int count = 0;
+
+        while (true) {
+            // ALWAYS check for forwarding pointer first (even on leaves!)
+            Version<K> forwardPtr = null;
+            if (current.node instanceof InternalNode) {
+                forwardPtr = ((InternalNode<K,V>) nodeOf(current)).forwardingPtr;
+            } else if (current.node instanceof LeafNode) {
+                forwardPtr = ((LeafNode<K,V>) nodeOf(current)).forwardingPtr;
+            }
+            if (forwardPtr != null) {
+                current = forwardPtr;
+                continue;
+            }
+
+            if (current.left == null) break;  // Reached a leaf
+
+            if (current.key == null || key.compareTo(current.key) < 0) {
+                current = current.left;
+            } else {
+                // Every key on the left is below current.key <= key
+                count += computeSubtreeSize(current.left);
+                current = current.right;
+            }
+        }
+
+        // Leaf: counts if its key is below the bound (sentinels have null keys)
+        if (current.key != null) {
+            int cmp = key.compareTo(current.key);
+            if (cmp > 0 || (inclusive && cmp == 0)) count++;
         }
+        return count;
     }
 
     /**
@@ -1081,73 +2351,274 @@ public class MyBSTnext<K extends Comparable<? super K>, V> {
      * 
      * Navigation uses immutable Version tree for consistency.
      * Linearization point: Reading root.version after enterSlowPath().
+     * Optimistic mode (setOptimisticQueries): any point between stamp and validation.
      */
     public K select(int k) {
         if (k <= 0) return null;
         
+        // Optimistic mode: no handshake if no update overlaps the navigation
+        long stamp = handshake.optimisticStamp();
+        if (stamp >= 0) {
+            K key = selectIn(root.version, k);
+            if (handshake.validate(stamp)) return key;
+        }
+
         // Enter slow path to ensure consistency
         // Capture the phase we entered with for proper exit
-        long currPhase = enterSlowPath();
+        long currPhase = handshake.enterSlowPath();
         
         try {
             // LINEARIZATION POINT: Read root.version to get immutable snapshot
-            Version<K> snapshot = root.version;
+            return selectIn(root.version, k);
+        } finally {
+            // Exit slow path using the captured phase
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    // select() below snapshot: descends by left subtree sizes to the kth leaf
+    private K selectIn(Version<K> snapshot, int k) {
+        if (snapshot == null) return null;
+        
+        Version<K> current = snapshot;
+        int remaining = k;
+        
+        // Navigate Version tree until we reach a leaf (current.left == null)
+        while (true) {
+            // ALWAYS check for forwarding pointer first (even on leaves!)
+            Version<K> forwardPtr = null;
+            if (current.node instanceof InternalNode) {
+                forwardPtr = ((InternalNode<K,V>) nodeOf(current)).forwardingPtr;
+            } else if (current.node instanceof LeafNode) {
+                forwardPtr = ((LeafNode<K,V>) nodeOf(current)).forwardingPtr;
+            }
             
-            // If no snapshot exists yet (no updates in slow path), build it now
-            if (snapshot == null) {
-                System.out.println("Empty snapshot in select()");
+            if (forwardPtr != null) {
+                // This node is orphaned - jump to replacement
+                current = forwardPtr;
+                // Loop again to check new current
+                continue;
             }
             
-            Version<K> current = snapshot;
-            int remaining = k;
+            // No forwarding pointer - check if we've reached a leaf
+            if (current.left == null) {
+                // Reached a leaf, stop navigation
+                break;
+            }
             
-            // Navigate Version tree until we reach a leaf (current.left == null)
-            while (true) {
-                // ALWAYS check for forwarding pointer first (even on leaves!)
-                Version<K> forwardPtr = null;
-                if (current.node instanceof InternalNode) {
-                    forwardPtr = ((InternalNode<K,V>) current.node).forwardingPtr;
-                } else if (current.node instanceof LeafNode) {
-                    forwardPtr = ((LeafNode<K,V>) current.node).forwardingPtr;
-                }
-                
-                if (forwardPtr != null) {
-                    // This node is orphaned - jump to replacement
-                    current = forwardPtr;
-                    // Loop again to check new current
+            // Internal node - navigate left or right based on remaining count
+            // Calculate left subtree size using helper
+            int leftSize = computeSubtreeSize(current.left);
+            
+            if (remaining <= leftSize) {
+                // Target is in left subtree - navigate via Version tree
+                current = current.left;
+            } else {
+                // Target is in right subtree - navigate via Version tree
+                remaining -= leftSize;
+                current = current.right;
+            }
+            // Loop continues - will check forwarding pointer on new current
+        }
+        
+        // We've reached a leaf in the Version tree - check if it's the kth element
+        if (current != null && current.key != null && remaining == 1) {
+            return current.key;
+        }
+        
+        return null; // Out of range
+    }
+
+    // ===========================================================================================
+    // BATCH RANK / SELECT
+    // ===========================================================================================
+
+    // A run of batch entries [lo, hi) still to route below version, base = keys left of it
+    private static final class BatchRange<K extends Comparable<? super K>> {
+        final Version<K> version;
+        final int lo, hi, base;
+
+        BatchRange(Version<K> version, int lo, int hi, int base) {
+            this.version = version;
+            this.lo = lo;
+            this.hi = hi;
+            this.base = base;
+        }
+    }
+
+    /**
+     * rank() of every key of a sorted batch, from one snapshot: a single enterSlowPath and one
+     * root.version read, so the ranks are mutually consistent (no update lands between two of
+     * them). The batch is routed top-down as ranges that split where the keys part ways, so a
+     * shared path prefix is navigated, and its left subtree sizes summed, once for all keys.
+     *
+     * @param sortedKeys keys in ascending order (duplicates allowed), no nulls
+     * @return ranks[i] = rank(sortedKeys[i]), -1 for absent keys
+     * @throws IllegalArgumentException if the keys are not ascending
+     */
+    public int[] rankAll(final K[] sortedKeys) {
+        for (int i = 0; i < sortedKeys.length; i++) {
+            if (sortedKeys[i] == null) throw new NullPointerException();
+            if (i > 0 && sortedKeys[i - 1].compareTo(sortedKeys[i]) > 0) {
+                throw new IllegalArgumentException("keys not ascending at index " + i);
+            }
+        }
+        int[] ranks = new int[sortedKeys.length];
+        if (sortedKeys.length == 0) return ranks;
+
+        long currPhase = handshake.enterSlowPath();
+        try {
+            // LINEARIZATION POINT: Read root.version to get immutable snapshot
+            ArrayDeque<BatchRange<K>> pending = new ArrayDeque<>();
+            pending.push(new BatchRange<>(root.version, 0, sortedKeys.length, 0));
+
+            BatchRange<K> range;
+            while ((range = pending.poll()) != null) {
+                Version<K> current = resolveForwarding(range.version);
+                if (current.left == null) {
+                    for (int i = range.lo; i < range.hi; i++) {
+                        boolean found = current.key != null && sortedKeys[i].compareTo(current.key) == 0;
+                        ranks[i] = found ? range.base + 1 : -1;
+                    }
                     continue;
                 }
-                
-                // No forwarding pointer - check if we've reached a leaf
+                // First entry routed right (key >= current.key), null keys send everything left
+                int split = range.hi;
+                if (current.key != null) {
+                    int lo = range.lo, hi = range.hi;
+                    while (lo < hi) {
+                        int mid = (lo + hi) >>> 1;
+                        if (sortedKeys[mid].compareTo(current.key) < 0) lo = mid + 1;
+                        else hi = mid;
+                    }
+                    split = lo;
+                }
+                if (split < range.hi) {
+                    int leftSubtreeSize = computeSubtreeSize(current.left);
+                    pending.push(new BatchRange<>(current.right, split, range.hi, range.base + leftSubtreeSize));
+                }
+                if (range.lo < split) {
+                    pending.push(new BatchRange<>(current.left, range.lo, split, range.base));
+                }
+            }
+            return ranks;
+        } finally {
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    /**
+     * select() of every position of a sorted batch, from one snapshot and one merged
+     * traversal, as rankAll does for keys: each left subtree size on a shared path is
+     * computed once and splits the positions between the two children.
+     *
+     * @param positions 1-based positions in ascending order (duplicates allowed)
+     * @return a fixed-size list, get(i) = select(positions[i]), null for positions out of range
+     * @throws IllegalArgumentException if the positions are not ascending
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public List<K> selectAll(final int[] positions) {
+        for (int i = 1; i < positions.length; i++) {
+            if (positions[i - 1] > positions[i]) {
+                throw new IllegalArgumentException("positions not ascending at index " + i);
+            }
+        }
+        K[] keys = (K[]) new Comparable[positions.length];  // Not exposed, the list hides its runtime type
+        if (positions.length == 0) return Arrays.asList(keys);
+
+        long currPhase = handshake.enterSlowPath();
+        try {
+            // LINEARIZATION POINT: Read root.version to get immutable snapshot
+            ArrayDeque<BatchRange<K>> pending = new ArrayDeque<>();
+            pending.push(new BatchRange<>(root.version, 0, positions.length, 0));
+
+            BatchRange<K> range;
+            while ((range = pending.poll()) != null) {
+                Version<K> current = resolveForwarding(range.version);
                 if (current.left == null) {
-                    // Reached a leaf, stop navigation
-                    break;
+                    for (int i = range.lo; i < range.hi; i++) {
+                        keys[i] = (current.key != null && positions[i] - range.base == 1) ? current.key : null;
+                    }
+                    continue;
                 }
-                
-                // Internal node - navigate left or right based on remaining count
-                // Calculate left subtree size using helper
+                // First entry routed right (position beyond the left subtree)
                 int leftSize = computeSubtreeSize(current.left);
-                
-                if (remaining <= leftSize) {
-                    // Target is in left subtree - navigate via Version tree
-                    current = current.left;
-                } else {
-                    // Target is in right subtree - navigate via Version tree
-                    remaining -= leftSize;
-                    current = current.right;
+                int lo = range.lo, hi = range.hi;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (positions[mid] - range.base <= leftSize) lo = mid + 1;
+                    else hi = mid;
+                }
+                int split = lo;
+                if (split < range.hi) {
+                    pending.push(new BatchRange<>(current.right, split, range.hi, range.base + leftSize));
+                }
+                if (range.lo < split) {
+                    pending.push(new BatchRange<>(current.left, range.lo, split, range.base));
                 }
-                // Loop continues - will check forwarding pointer on new current
-            }
-            
-            // We've reached a leaf in the Version tree - check if it's the kth element
-            if (current != null && current.key != null && remaining == 1) {
-                return current.key;
             }
-            
-            return null; // Out of range
+            return Arrays.asList(keys);
         } finally {
-            // Exit slow path using the captured phase
-            exitSlowPath(currPhase);
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    // ===========================================================================================
+    // APPROXIMATE QUERIES
+    // ===========================================================================================
+
+    // sizeApprox, rankApprox and selectApprox read the live tree and its fastSize counters and
+    // nothing else: no handshake, no reader arrival, no phase or slot access, no write, so
+    // updates run as if no query did. They are not linearizable. Error bound: with U the keys
+    // changed by updates that overlap the call (one per put or remove, a group's keys for
+    // putAll), the result is within U of the exact one at some point of the call. An update
+    // is missing from the counters above its position until its fastSize walk passes them,
+    // and the navigation sums subtrees of disjoint key ranges, so each changed key skews it
+    // once at most. No overlapping update: exact. A tree deferring its size deltas also lags
+    // by the deltas logged since the last handshake, which has no bound in U.
+
+    /** Number of keys, within the bound above. */
+    public int sizeApprox() {
+        return (int) Math.max(0, root.fastSize.sum());
+    }
+
+    /** Number of keys up to key included (rank(key) for a key of the tree), within the bound above. */
+    public int rankApprox(K key) {
+        Objects.requireNonNull(key, "key");
+        long count = 0;
+        Node<K,V> n = root;
+        while (n.getClass() == InternalNode.class) {
+            InternalNode<K,V> x = (InternalNode<K,V>) n;
+            if (x.key == null || key.compareTo(x.key) < 0) {
+                n = x.left;
+            } else {
+                count += InternalNode.fastSizeOf(x.left);
+                n = x.right;
+            }
+        }
+        if (n.key != null && key.compareTo(n.key) >= 0) count++;
+        return (int) Math.max(0, count);
+    }
+
+    /**
+     * A key whose rank is i within the bound above (select(i) when no update overlaps), or
+     * null if i <= 0 or beyond the keys counted.
+     */
+    public K selectApprox(int i) {
+        if (i <= 0) return null;
+        long remaining = i;
+        Node<K,V> n = root;
+        while (n.getClass() == InternalNode.class) {
+            InternalNode<K,V> x = (InternalNode<K,V>) n;
+            Node<K,V> left = x.left;
+            long leftSize = InternalNode.fastSizeOf(left);
+            if (remaining <= leftSize) {
+                n = left;
+            } else {
+                remaining -= leftSize;
+                n = x.right;
+            }
         }
+        return n.key;  // null at the sentinel
     }
 }
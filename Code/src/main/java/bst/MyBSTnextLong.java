@@ -0,0 +1,1584 @@
+package bst;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * HandshakeBST specialized for primitive long keys.
+ * Same algorithm as MyBSTnext (fast path with forwarding pointers, slow path with
+ * Version trees, shared Handshake protocol) but keys are stored inline in nodes and
+ * Versions, so traversals compare longs instead of calling compareTo on boxed keys.
+ * Long.MAX_VALUE is reserved as the sentinel key (INF) and cannot be stored.
+ */
+public class MyBSTnextLong<V> {
+    
+    public static final long INF = Long.MAX_VALUE;  // Sentinel key, plays the role of null in MyBSTnext
+    public static final long NO_KEY = INF;  // Returned by select()/selectKth() when k is out of range
+    
+    private final Handshake handshake;  // opPhase announcements and queriesPhase (see Handshake)
+    private final boolean deferSizeDeltas;  // Fast path logs fastSize deltas per slot instead of applying them
+    
+    public final AtomicLong totalHandshakes;
+    public final AtomicLong totalHandshakeTimeNanos;
+    public final AtomicLong totalSizeCalls = new AtomicLong(0);
+    private final PropagationStats propagationStats = new PropagationStats();  // refresh() outcomes, see propagate()
+    
+    //--------------------------------------------------------------------------------
+    // Class: Node, LeafNode, InternalNode
+    //--------------------------------------------------------------------------------
+    protected static abstract class Node<V> {
+        final long key;
+        volatile InternalNode<V> parent;
+        Node(final long key) {
+            this.key = key;
+        }
+    }
+
+    protected static final class Version {
+        final long key;
+        final Version left;
+        final Version right;
+        final int nbChild;    
+        final Node<?> node; 
+        Propagation propagation;  // propagate() that installed it, null if built otherwise (set before the CAS)
+
+        Version(long key, Version left, Version right, int nbChild, Node<?> node) {
+            this.key = key;
+            this.left = left;
+            this.right = right;
+            this.nbChild = nbChild;
+            this.node = node;
+        }
+    }
+
+    protected final static class LeafNode<V> extends Node<V> {
+        final V value;
+        volatile Version version;
+        final AtomicLong fastSize;  // Fast path metadata for size
+        volatile Version forwardingPtr;  // Points to replacement Version (can be orphaned during insert)
+        volatile Node<V> reversePtr;  // Points to predecessor (for chain compression)
+
+        LeafNode(final long key, final V value) {
+            super(key);
+            this.value = value;
+            // Start with fastSize=1 if key is not the sentinel (real element), 0 for sentinel
+            this.fastSize = new AtomicLong((key != INF) ? 1 : 0);
+            // Start with nbChild=0; will be updated via propagate() in slow path only
+            this.version = new Version(key, null, null, 0, this);
+            // Initialize forwarding and reverse pointers to null
+            this.forwardingPtr = null;
+            this.reversePtr = null;
+        }
+    }
+
+    protected final static class InternalNode<V> extends Node<V> {
+        volatile Node<V> left;
+        volatile Node<V> right;
+        volatile Info<V> info;
+        volatile Version version;
+        final LongAdder fastSize;  // Fast path metadata for size, striped once contended (root and upper levels)
+        volatile Version forwardingPtr;  // Points to replacement Version (for query navigation)
+        volatile Node<V> reversePtr;  // Points to predecessor (for chain compression), can be leaf or internal
+
+
+        InternalNode(final long key, final LeafNode<V> left, final LeafNode<V> right) {
+            super(key);
+            this.left = left;
+            this.right = right;
+            this.info = null;
+            if (left  != null)  left.parent  = this;
+            if (right != null)  right.parent = this;
+            Version vL = left.version;
+            Version vR = right.version;
+            // Initialize fastSize from children's fastSize
+            long initialFastSize = 0;
+            if (left != null) initialFastSize += left.fastSize.get();
+            if (right != null) initialFastSize += right.fastSize.get();
+            this.fastSize = new LongAdder();
+            this.fastSize.add(initialFastSize);
+            // Version tree starts at 0, only updated via propagate() (slow path)
+            this.version = new Version(key, vL, vR, 0, this);
+            // Initialize forwarding and reverse pointers to null
+            this.forwardingPtr = null;
+            this.reversePtr = null;
+        }
+    }
+
+    protected static abstract class Info<V> {
+    }
+
+    protected final static class DInfo<V> extends Info<V> {
+        final InternalNode<V> p;
+        final LeafNode<V> l;
+        final InternalNode<V> gp;
+        final Info<V> pinfo;
+
+        DInfo(final LeafNode<V> leaf, final InternalNode<V> parent, final InternalNode<V> grandparent, final Info<V> pinfo) {
+            this.p = parent;
+            this.l = leaf;
+            this.gp = grandparent;
+            this.pinfo = pinfo;
+        }
+    }
+
+    protected final static class IInfo<V> extends Info<V> {
+        final InternalNode<V> p;
+        final LeafNode<V> l;
+        final Node<V> lReplacingNode;
+
+        IInfo(final LeafNode<V> leaf, final InternalNode<V> parent, final Node<V> lReplacingNode){
+            this.p = parent;
+            this.l = leaf;
+            this.lReplacingNode = lReplacingNode;
+        }
+    }
+
+    protected final static class Mark<V> extends Info<V> {
+        final DInfo<V> dinfo;
+
+        Mark(final DInfo<V> dinfo) {
+            this.dinfo = dinfo;
+        }
+    }
+
+    protected final static class Clean<V> extends Info<V> {}
+
+//--------------------------------------------------------------------------------
+// DICTIONARY
+//--------------------------------------------------------------------------------
+    // Raw: field updaters cannot be created for a parameterized class
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<InternalNode, Node> leftUpdater = AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Node.class, "left");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<InternalNode, Node> rightUpdater = AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Node.class, "right");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<InternalNode, Info> infoUpdater = AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Info.class, "info");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<InternalNode, Version> versionUpdater = AtomicReferenceFieldUpdater.newUpdater(InternalNode.class, Version.class, "version");
+
+
+    final InternalNode<V> root;
+
+    public MyBSTnextLong() {
+        this(false);
+    }
+
+    /**
+     * @param deferSizeDeltas if true, fast-path updates do not walk their ancestors' fastSize:
+     *        each thread logs its net deltas in its slot and the next size/rank/select merges
+     *        them during its handshake. Update cost no longer depends on tree depth, queries
+     *        pay for the merge; worth it when aggregate queries are rare.
+     */
+    public MyBSTnextLong(boolean deferSizeDeltas) {
+        // Initialize handshake infrastructure
+        this.deferSizeDeltas = deferSizeDeltas;
+        this.handshake = deferSizeDeltas ? new Handshake(this::applyDeferredSizeDeltas) : new Handshake();
+        this.totalHandshakes = handshake.totalHandshakes;
+        this.totalHandshakeTimeNanos = handshake.totalHandshakeTimeNanos;
+        
+        // to avoid handling special case when <= 2 nodes,
+        // create 2 dummy nodes, both contain key INF
+        // All real keys inside BST are required to be smaller than INF
+        root = new InternalNode<V>(INF, new LeafNode<V>(INF, null), new LeafNode<V>(INF, null));
+    }
+
+//--------------------------------------------------------------------------------
+// PUBLIC METHODS:
+// - find   : boolean
+// - insert : boolean
+// - delete : boolean
+//--------------------------------------------------------------------------------
+
+    /** PRECONDITION: key CANNOT BE INF **/
+    public final boolean containsKey(final long key) {
+        return get(key) != null;
+    }
+
+    /** PRECONDITION: key CANNOT BE INF **/
+    /** 
+     * Get with phase-based logic and slow operation dependency handling.
+     * PRECONDITION: key CANNOT BE INF 
+     */
+    public final V get(final long key) {
+        if (key == INF) throw new IllegalArgumentException("key");
+        
+        long currentPhase = handshake.getQueriesPhase();
+        
+        // Phase 2: Use Version tree navigation (slow contains)
+        if ((currentPhase & 3) == 2) {
+            // Navigate Version tree to find key
+            V result = getViaVersionTree(key);
+            
+            // After getting the result, check if we are still in a slow phase.
+            long exitPhase = handshake.getQueriesPhase();
+            if ((exitPhase & 3) == 2) {
+                // Still in a slow phase - result is valid
+                return result;
+            } else {
+                // Phase changed to fast/handshake - retry with current phase
+                return get(key);
+            }
+        }
+        
+        // Phase 0 or 1: Use BST navigation (fast contains)
+        Node<V> l = root.left;
+        while (l.getClass() == InternalNode.class) {
+            l = (key < l.key) ? ((InternalNode<V>)l).left : ((InternalNode<V>)l).right;
+        }
+        
+        // If we started in Phase 1, check if we transitioned to slow path during the operation
+        if ((currentPhase & 3) == 1 ){
+            if ((handshake.getQueriesPhase() & 3) == 2) {
+                return get(key); // Retry
+            }else{
+                if (key == l.key) {
+                    return ((LeafNode<V>)l).value;
+                }     // Still in fast path - return result
+            }
+        }else{
+            if (key == l.key) {
+                return ((LeafNode<V>)l).value;
+            }     // Still in fast path - return result
+        }
+        
+        return null;  // Key not found
+    }
+    
+    /**
+     * Helper for contains using Version tree navigation (used in Phase 2).
+     */
+    private V getViaVersionTree(long key) {
+        Version v = root.version;
+        if (v == null) return null;
+        
+        // Versions of nodes replaced on the fast path are orphaned, follow their forwarding pointers
+        v = resolveForwarding(v);
+        while (v.left != null) {
+            if (key < v.key) {
+                v = resolveForwarding(v.left);
+            } else {
+                v = resolveForwarding(v.right);
+            }
+        }
+        
+        if (key == v.key) {
+            return ((LeafNode<V>) nodeOf(v)).value;
+        }
+        return null;
+    }
+
+    // Insert key to dictionary, returns the previous value associated with the specified key,
+    // or null if there was no mapping for the key
+    /** PRECONDITION: key CANNOT BE INF, value CANNOT BE NULL **/
+    public final V putIfAbsent(final long key, final V value){
+        return putIfAbsent(handshake.currentSlot(), key, value);
+    }
+
+    private V putIfAbsent(final ThreadSlotRegistry.Slot slot, final long key, final V value) {
+        if (key == INF) throw new IllegalArgumentException("key");
+        if (value == null) throw new NullPointerException();
+        
+        // Announce FAST_PHASE immediately (optimistic), then check if we need to correct it
+        handshake.beginUpdate(slot);
+        long currentQueriesPhase = handshake.getQueriesPhase();
+        boolean useFastPath = ((currentQueriesPhase & 3) == 0);
+        if (!useFastPath) {
+            // A query operation is in progress, switch to slow path
+            handshake.setOpPhaseVolatile(slot, currentQueriesPhase);
+            handshake.onSlowPathUpdate(currentQueriesPhase);
+        }
+        
+        try {
+            InternalNode<V> newInternal;
+            LeafNode<V> newSibling, newNode;
+
+            //Search varaiables 
+            InternalNode<V> p;
+            Info<V> pinfo;
+            Node<V> l;
+
+            newNode = new LeafNode<V>(key, value);
+
+            while (true) {
+                // Re-check phase on every retry to respond quickly to handshakes
+                long newPhase = handshake.getQueriesPhase();
+                boolean newFastPath = ((newPhase & 3) == 0);
+                if (newFastPath != useFastPath) {
+                    useFastPath = newFastPath;
+                    handshake.setOpPhaseVolatile(slot, useFastPath ? Handshake.FAST_PHASE : newPhase);
+                }
+
+                /** SEARCH **/
+                p = root;
+                l = p.left;
+                while (l.getClass() == InternalNode.class) {
+                    p = (InternalNode<V>)l;
+                    l = (key < p.key) ? p.left : p.right;
+                }
+                pinfo = p.info;                             // read pinfo once instead of every iteration
+                if (l != p.left && l != p.right) continue;  // then confirm the child link to l is valid
+                // (just as if we'd read p's info field before the reference to l)
+                /** END SEARCH **/
+
+                LeafNode<V> foundLeaf = (LeafNode<V>)l;
+
+                if (key == foundLeaf.key) {
+                    if (!useFastPath) {
+                        propagate(p);  // Slow path: update version tree with counter tracking
+                    }
+                    return foundLeaf.value; // key already in the tree, no duplicate allowed
+                } else if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
+                    help(slot, pinfo, useFastPath);
+                } else {
+                    newSibling = new LeafNode<V>(foundLeaf.key, foundLeaf.value);
+                    if (key < foundLeaf.key)  // newinternal = max(ret.foundLeaf.key, key);
+                        newInternal = new InternalNode<V>(foundLeaf.key, newNode, newSibling);
+                    else
+                        newInternal = new InternalNode<V>(key, newSibling, newNode);
+
+                    newInternal.parent = p;
+                    newSibling.parent = newInternal; newNode.parent = newInternal;
+
+                    final IInfo<V> newPInfo = new IInfo<V>(foundLeaf, p, newInternal);
+
+                    handshake.publishDescriptor(slot, newPInfo);
+                    // try to IFlag parent
+                    if (infoUpdater.compareAndSet(p, pinfo, newPInfo)) {
+                        // Revoked by a handshake while stalled: finish as a slow-path update
+                        if (useFastPath && !handshake.claimFastPath(slot)) useFastPath = false;
+                        helpInsert(newPInfo, useFastPath);
+                        
+                        // Update metadata - successful insert
+                        if (useFastPath) {
+                            fastUpdateMetadata(slot, 1, p);  // Fast path: update fastSize only (or log it)
+                            // Version structure already updated in helpInsert
+                        } else {
+                            fastUpdateMetadataOnly(1, p);  // Slow path: fastSize counts every key (nbChild stays 0)
+                            propagate(p);  // Slow path: full propagation with counter tracking
+                        }
+                        
+                        return null;
+                    } else {
+                        // if fails, help the current operation
+                        // need to get the latest p.info since CAS doesnt return current value
+                        help(slot, p.info, useFastPath);
+                    }
+                }
+            }
+        } finally {
+            // Return to idle phase
+            handshake.setOpPhaseIdle(slot);
+        }
+    }
+
+    // Insert key to dictionary, return the previous value associated with the specified key,
+    // or null if there was no mapping for the key
+    /** PRECONDITION: key CANNOT BE INF, value CANNOT BE NULL **/
+    public final V put(final long key, final V value) {
+        return put(handshake.currentSlot(), key, value);
+    }
+
+    private V put(final ThreadSlotRegistry.Slot slot, final long key, final V value) {
+        if (key == INF) throw new IllegalArgumentException("key");
+        if (value == null) throw new NullPointerException();
+        
+        // Announce FAST_PHASE immediately (optimistic), then check if we need to correct it
+        handshake.beginUpdate(slot);
+        long currentQueriesPhase = handshake.getQueriesPhase();
+        boolean useFastPath = ((currentQueriesPhase & 3) == 0);
+        if (!useFastPath) {
+            // A query operation is in progress, switch to slow path
+            handshake.setOpPhaseVolatile(slot, currentQueriesPhase);
+            handshake.onSlowPathUpdate(currentQueriesPhase);
+        }
+        
+        try {
+            InternalNode<V> newInternal;
+            LeafNode<V> newSibling, newNode;
+            IInfo<V> newPInfo;
+            V result;
+
+            //Search varaiables 
+            InternalNode<V> p;
+            Info<V> pinfo;
+            Node<V> l;
+
+            newNode = new LeafNode<V>(key, value);
+
+            while (true) {
+                // Re-check phase on every retry to respond quickly to handshakes
+                long newPhase = handshake.getQueriesPhase();
+                boolean newFastPath = ((newPhase & 3) == 0);
+                if (newFastPath != useFastPath) {
+                    useFastPath = newFastPath;
+                    handshake.setOpPhaseVolatile(slot, useFastPath ? Handshake.FAST_PHASE : newPhase);
+                }
+
+                /** SEARCH **/
+                p = root;
+                l = p.left;
+                while (l.getClass() == InternalNode.class) {
+                    p = (InternalNode<V>)l;
+                    l = (key < p.key) ? p.left : p.right;
+                }
+                pinfo = p.info;                             // read pinfo once instead of every iteration
+                if (l != p.left && l != p.right) continue;  // then confirm the child link to l is valid
+                // (just as if we'd read p's info field before the reference to l)
+                /** END SEARCH **/
+
+                if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
+                    help(slot, pinfo, useFastPath);
+                } else {
+                    LeafNode<V> foundLeaf = (LeafNode<V>)l;
+
+                    if (key == foundLeaf.key) {
+                        // key already in the tree, try to replace the old node with new node
+                        newPInfo = new IInfo<V>(foundLeaf, p, newNode);
+                        if (!useFastPath) propagate(p);
+                        result = foundLeaf.value;
+                    } else {
+                        // key is not in the tree, try to replace a leaf with a small subtree
+                        newSibling = new LeafNode<V>(foundLeaf.key, foundLeaf.value);
+                        if (key < foundLeaf.key) // newinternal = max(ret.foundLeaf.key, key);
+                        {
+                            newInternal = new InternalNode<V>(foundLeaf.key, newNode, newSibling);
+                        } else {
+                            newInternal = new InternalNode<V>(key, newSibling, newNode);
+                        }
+                        newInternal.parent = p;
+                        newSibling.parent = newInternal; newNode.parent = newInternal;
+                        newPInfo = new IInfo<V>(foundLeaf, p, newInternal);
+                        result = null;
+                    }
+
+                    handshake.publishDescriptor(slot, newPInfo);
+                    // try to IFlag parent
+                    if (infoUpdater.compareAndSet(p, pinfo, newPInfo)) {
+                        // Revoked by a handshake while stalled: finish as a slow-path update
+                        if (useFastPath && !handshake.claimFastPath(slot)) useFastPath = false;
+                        helpInsert(newPInfo, useFastPath);
+                        
+                        // Update metadata based on path
+                        if (result == null) {  // Successful insert (newInternal was created)
+                            if (useFastPath) {
+                                // Start from parent since we just added newInternal below it
+                                fastUpdateMetadata(slot, 1, p);  // Fast path: update fastSize only (or log it)
+                                // Version structure already updated in helpInsert
+                            } else {
+                                fastUpdateMetadataOnly(1, p);  // Slow path: fastSize counts every key (nbChild stays 0)
+                                propagate(p);  // Slow path: full propagation with counter tracking
+                            }
+                        }
+                        
+                        return result;
+                    } else {
+                        // if fails, help the current operation
+                        // need to get the latest p.info since CAS doesnt return current value
+                        help(slot, p.info, useFastPath);
+                    }
+                }
+            }
+        } finally {
+            // Return to idle phase
+            handshake.setOpPhaseIdle(slot);
+        }
+    }
+
+    // Delete key from dictionary, return the associated value when successful, null otherwise
+    /** PRECONDITION: key CANNOT BE INF **/
+    public final V remove(final long key){
+        return remove(handshake.currentSlot(), key);
+    }
+
+    private V remove(final ThreadSlotRegistry.Slot slot, final long key) {
+        if (key == INF) throw new IllegalArgumentException("key");
+        
+        // Announce FAST_PHASE immediately (optimistic), then check if we need to correct it
+        handshake.beginUpdate(slot);
+        long currentQueriesPhase = handshake.getQueriesPhase();
+        boolean useFastPath = ((currentQueriesPhase & 3) == 0);
+        if (!useFastPath) {
+            // A query operation is in progress, switch to slow path
+            handshake.setOpPhaseVolatile(slot, currentQueriesPhase);
+            handshake.onSlowPathUpdate(currentQueriesPhase);
+        }
+        
+        try {
+            
+            //Search varaiables 
+            InternalNode<V> gp;
+            Info<V> gpinfo;
+            InternalNode<V> p;
+            Info<V> pinfo;
+            Node<V> l;
+            
+
+            while (true) {
+                // Re-check phase on every retry to respond quickly to handshakes
+                long newPhase = handshake.getQueriesPhase();
+                boolean newFastPath = ((newPhase & 3) == 0);
+                if (newFastPath != useFastPath) {
+                    useFastPath = newFastPath;
+                    handshake.setOpPhaseVolatile(slot, useFastPath ? Handshake.FAST_PHASE : newPhase);
+                }
+
+                /** SEARCH **/
+                gp = null;
+                gpinfo = null;
+                p = root;
+                pinfo = p.info;
+                l = p.left;
+                while (l.getClass() == InternalNode.class) {
+                    gp = p;
+                    p = (InternalNode<V>) l;
+                    l = (key < p.key) ? p.left : p.right;
+                }
+                // note: gp can be null here, because clearly the root.left.left == null
+                //       when the tree is empty. however, in this case, l.key will be INF,
+                //       and the function will return null, so this does not pose a problem.
+                if (gp != null) {
+                    gpinfo = gp.info;                               // - read gpinfo once instead of every iteration
+                    if (p != gp.left && p != gp.right) continue;    //   then confirm the child link to p is valid
+                    pinfo = p.info;                                 //   (just as if we'd read gp's info field before the reference to p)
+                    if (l != p.left && l != p.right) continue;      // - do the same for pinfo and l
+                }
+                /** END SEARCH **/
+
+                if (key != l.key) {
+                    if (!useFastPath) propagate(p);
+                    return null;
+                }else if (!(gpinfo == null || gpinfo.getClass() == Clean.class)) {
+                    help(slot, gpinfo, useFastPath);
+                } else if (!(pinfo == null || pinfo.getClass() == Clean.class)) {
+                    help(slot, pinfo, useFastPath);
+                } else {
+                    LeafNode<V> foundLeaf = (LeafNode<V>)l;
+                    // try to DFlag grandparent
+                    final DInfo<V> newGPInfo = new DInfo<V>(foundLeaf, p, gp, pinfo);
+
+                    handshake.publishDescriptor(slot, newGPInfo);
+                    if (infoUpdater.compareAndSet(gp, gpinfo, newGPInfo)) {
+                        // Revoked by a handshake while stalled: finish as a slow-path update
+                        if (useFastPath && !handshake.claimFastPath(slot)) useFastPath = false;
+                        if (helpDelete(newGPInfo, useFastPath)) {
+                            // Update metadata based on path
+                            if (useFastPath) {
+                                fastUpdateMetadata(slot, -1, gp);  // Fast path: update fastSize only (or log it)
+                                // Version structure already updated in helpMarked
+                            } else {
+                                fastUpdateMetadataOnly(-1, gp);  // Slow path: fastSize counts every key (nbChild stays 0)
+                                propagate(gp);  // Slow path: full propagation with counter tracking
+                            }
+                            return foundLeaf.value;
+                        }
+                        handshake.releaseFastPath(slot);  // Backtracked: the retry can be revoked again
+                    } else {
+                        // if fails, help grandparent with its latest info value
+                        help(slot, gp.info, useFastPath);
+                    }
+                }
+            }
+        } finally {
+            // Return to idle phase
+            handshake.setOpPhaseIdle(slot);
+        }
+    }
+
+//--------------------------------------------------------------------------------
+// SESSIONS
+//--------------------------------------------------------------------------------
+
+    /**
+     * Opens a session that owns its own announcement slot.
+     * Workers that keep one session each skip the per-operation ThreadLocal slot lookup.
+     */
+    public Session openSession() {
+        return new Session();
+    }
+
+    /**
+     * Handle exposing the map operations through a slot leased for the handle instead of
+     * the calling thread. A session may be carried from one thread to another (e.g. a
+     * virtual thread remounted on a different carrier, or a task handed between pool
+     * threads), but must not be used by two threads at the same time.
+     * Close it when done; an unclosed session's slot is reclaimed once it is unreachable.
+     */
+    public final class Session implements AutoCloseable {
+        private final ThreadSlotRegistry.Slot slot;
+        private boolean closed;
+
+        private Session() {
+            this.slot = handshake.leaseSlot(this);
+        }
+
+        public V get(final long key) {
+            return MyBSTnextLong.this.get(key);
+        }
+
+        public boolean containsKey(final long key) {
+            return MyBSTnextLong.this.get(key) != null;
+        }
+
+        public V putIfAbsent(final long key, final V value) {
+            return MyBSTnextLong.this.putIfAbsent(slot, key, value);
+        }
+
+        public V put(final long key, final V value) {
+            return MyBSTnextLong.this.put(slot, key, value);
+        }
+
+        public V remove(final long key) {
+            return MyBSTnextLong.this.remove(slot, key);
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            handshake.releaseSlot(slot);
+        }
+    }
+
+//--------------------------------------------------------------------------------
+// SNAPSHOT ITERATION
+//--------------------------------------------------------------------------------
+
+    /**
+     * Ascending iterator over a linearizable snapshot of the keys.
+     * Each call takes its own snapshot (see snapshotKeys); later updates are not seen.
+     */
+    public PrimitiveIterator.OfLong keyIterator() {
+        return Spliterators.iterator(keySpliterator());
+    }
+
+    /** Descending iterator over a linearizable snapshot of the keys. */
+    public PrimitiveIterator.OfLong descendingKeyIterator() {
+        final long[] keys = snapshotKeys();
+        return new PrimitiveIterator.OfLong() {
+            private int next = keys.length - 1;
+
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            public long nextLong() {
+                if (next < 0) throw new NoSuchElementException();
+                return keys[next--];
+            }
+        };
+    }
+
+    /**
+     * Sized, sorted Spliterator over a linearizable snapshot of the keys. It splits evenly,
+     * so StreamSupport.longStream(tree.keySpliterator(), true) scans on the fork-join pool.
+     */
+    public Spliterator.OfLong keySpliterator() {
+        return Spliterators.spliterator(snapshotKeys(),
+            Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    /** Stream over a linearizable snapshot of the keys, ascending. */
+    public LongStream keyStream(boolean parallel) {
+        return StreamSupport.longStream(keySpliterator(), parallel);
+    }
+
+    /**
+     * Keys of root.version in ascending order, forwarding pointers resolved.
+     * Forwarding pointers are only written on the fast path, so they cannot change while we
+     * are in the slow path; the walk is done before exitSlowPath() and iterators never touch
+     * the live tree. Linearization point: Reading root.version after enterSlowPath().
+     */
+    private long[] snapshotKeys() {
+        // Enter slow path to ensure consistency
+        // Capture the phase we entered with for proper exit
+        long currPhase = handshake.enterSlowPath();
+
+        try {
+            // LINEARIZATION POINT: Read root.version to get immutable snapshot
+            Version snapshot = root.version;
+            long[] keys = new long[Math.max(16, computeSubtreeSize(snapshot))];
+            int count = 0;
+            ArrayDeque<Version> pending = new ArrayDeque<>();  // Right subtrees still to visit
+
+            Version current = snapshot;
+            while (current != null) {
+                current = resolveForwarding(current);
+                if (current.left != null) {
+                    pending.push(current.right);
+                    current = current.left;
+                    continue;
+                }
+                if (current.key != INF) {  // Skip sentinels
+                    if (count == keys.length) keys = Arrays.copyOf(keys, count * 2);
+                    keys[count++] = current.key;
+                }
+                current = pending.poll();
+            }
+            return Arrays.copyOf(keys, count);
+        } finally {
+            // Exit slow path using the captured phase
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    // Node of a version; versions are not parameterized, but every node of this tree holds V values
+    @SuppressWarnings("unchecked")
+    private Node<V> nodeOf(final Version version) {
+        return (Node<V>) version.node;
+    }
+
+    // Follows forwarding pointers from an orphaned node's version to its replacement
+    private Version resolveForwarding(Version version) {
+        while (true) {
+            Version forwardPtr = null;
+            if (version.node instanceof InternalNode) {
+                forwardPtr = ((InternalNode<V>) nodeOf(version)).forwardingPtr;
+            } else if (version.node instanceof LeafNode) {
+                forwardPtr = ((LeafNode<V>) nodeOf(version)).forwardingPtr;
+            }
+            if (forwardPtr == null) return version;
+            version = forwardPtr;
+        }
+    }
+
+//--------------------------------------------------------------------------------
+// PRIVATE METHODS
+// - helpInsert
+// - helpDelete
+//--------------------------------------------------------------------------------
+
+    private void helpInsert(final IInfo<V> info, boolean useFastPath){
+        boolean onLeft = (info.p.left == info.l);
+        boolean spliced = onLeft
+                ? leftUpdater.compareAndSet(info.p, info.l, info.lReplacingNode)
+                : rightUpdater.compareAndSet(info.p, info.l, info.lReplacingNode);
+
+        if (spliced) {
+            // Fix parent of the new child
+            info.lReplacingNode.parent = info.p;
+            
+            if (useFastPath) {
+                // Fast path with chain compression
+                // Determine final target version (follow existing forward chain if present)
+                Version replacementVersion = (info.lReplacingNode instanceof InternalNode) 
+                    ? ((InternalNode<V>) info.lReplacingNode).version
+                    : ((LeafNode<V>) info.lReplacingNode).version;
+                
+                Version finalTarget = replacementVersion;
+                
+                // Check if replacement already points forward (upward compression)
+                if (info.lReplacingNode instanceof InternalNode) {
+                    InternalNode<V> replacement = (InternalNode<V>) info.lReplacingNode;
+                    if (replacement.forwardingPtr != null) {
+                        finalTarget = replacement.forwardingPtr;
+                    }
+                    
+                    // Check if we're extending an existing chain (downward compression)
+                    if (replacement.reversePtr != null) {
+                        // Update predecessor to skip intermediate nodes
+                        Node<V> predecessor = replacement.reversePtr;
+                        // Set forwardingPtr on predecessor
+                        if (predecessor instanceof InternalNode) {
+                            ((InternalNode<V>) predecessor).forwardingPtr = finalTarget;
+                        } else if (predecessor instanceof LeafNode) {
+                            ((LeafNode<V>) predecessor).forwardingPtr = finalTarget;
+                        }
+                        // reversePtr stays at predecessor - don't update
+                    } else {
+                        // First link - create new chain
+                        // Set forwardingPtr on orphaned leaf (info.l is always LeafNode in insert)
+                        info.l.forwardingPtr = finalTarget;
+                        // Set reverse pointer on replacement (points back to info.l)
+                        if (finalTarget.node instanceof InternalNode) {
+                            ((InternalNode<V>) nodeOf(finalTarget)).reversePtr = info.l;
+                        } else if (finalTarget.node instanceof LeafNode) {
+                            ((LeafNode<V>) nodeOf(finalTarget)).reversePtr = info.l;
+                        }
+                    }
+                } else {
+                    // Replacement is a leaf - create simple forwarding link
+                    info.l.forwardingPtr = finalTarget;
+                    // Set reverse pointer on replacement leaf
+                    if (finalTarget.node instanceof LeafNode) {
+                        ((LeafNode<V>) nodeOf(finalTarget)).reversePtr = info.l;
+                    }
+                }
+                // Metadata updates happen in caller via fastUpdateMetadataOnly
+            } else {
+                // Slow path: Full propagation (updates both structure and nbChild)
+                propagate(info.p);
+            }
+        }
+        infoUpdater.compareAndSet(info.p, info, new Clean<V>());
+    }
+
+    private boolean helpDelete(final DInfo<V> info, boolean useFastPath){
+        final boolean result;
+
+        result = infoUpdater.compareAndSet(info.p, info.pinfo, new Mark<V>(info));
+        final Info<V> currentPInfo = info.p.info;
+        if (result || (currentPInfo.getClass() == Mark.class && ((Mark<V>) currentPInfo).dinfo == info)) {
+            // CAS succeeded or somebody else already helped
+            helpMarked(info, useFastPath);
+            return true;
+        } else {
+            help(currentPInfo, useFastPath);
+            infoUpdater.compareAndSet(info.gp, info, new Clean<V>());
+            return false;
+        }
+    }
+
+    private final LongAdder fastHelps = new LongAdder();  // help() calls taking the fast path
+    private final LongAdder slowHelps = new LongAdder();  // ... the slow path (propagate)
+
+    /**
+     * Helps info for an update that found it on its path. In fast phase the update's slot is
+     * announced FAST, so no handshake completes before this help does, and the help takes
+     * the fast path: forwarding pointers instead of a propagate to the root (fastSize is
+     * never the helper's, each owner applies its own delta). In helping mode (see Handshake)
+     * it needs a fast-path claim for that, or helps on the slow path.
+     */
+    private void help(final ThreadSlotRegistry.Slot slot, final Info<V> info, final boolean useFastPath) {
+        if (useFastPath && handshake.claimFastPath(slot)) {
+            help(info, true);
+            handshake.releaseFastPath(slot);
+        } else {
+            help(info, false);
+        }
+    }
+
+    private void help(final Info<V> info, final boolean useFastPath) {
+        (useFastPath ? fastHelps : slowHelps).increment();
+        if (info.getClass() == IInfo.class)     helpInsert((IInfo<V>) info, useFastPath);
+        else if(info.getClass() == DInfo.class) helpDelete((DInfo<V>) info, useFastPath);
+        else if(info.getClass() == Mark.class)  helpMarked(((Mark<V>)info).dinfo, useFastPath);
+    }
+
+    // Handshake helping mode: completes a revoked update's descriptor if it is still flagged
+    private boolean helpFlagged(final Info<V> info) {
+        if (info.getClass() == IInfo.class) {
+            if (((IInfo<V>) info).p.info != info) return false;
+        } else if (info.getClass() != DInfo.class || ((DInfo<V>) info).gp.info != info) {
+            return false;
+        }
+        help(info, false);
+        return true;
+    }
+
+    private void helpMarked(final DInfo<V> info, boolean useFastPath) {
+        final Node<V> other = (info.p.right == info.l) ? info.p.left : info.p.right;
+        boolean pIsLeft = (info.gp.left == info.p);
+        boolean swung = pIsLeft
+                ? leftUpdater.compareAndSet(info.gp, info.p, other)
+                : rightUpdater.compareAndSet(info.gp, info.p, other);
+
+        if (swung) {
+            // Fix parent of the moved-up child
+            other.parent = info.gp;
+            
+            if (useFastPath) {
+                // Fast path with chain compression
+                // Determine final target (follow existing forward chain if present)
+                Version finalTarget = null;
+                if (other instanceof InternalNode) {
+                    InternalNode<V> otherInternal = (InternalNode<V>) other;
+                    finalTarget = otherInternal.version;
+                    
+                    // Check if 'other' already points forward (upward compression)
+                    if (otherInternal.forwardingPtr != null) {
+                        finalTarget = otherInternal.forwardingPtr;
+                    }
+                } else {
+                    LeafNode<V> otherLeaf = (LeafNode<V>) other;
+                    finalTarget = otherLeaf.version;
+                    
+                    // Check if 'other' (leaf) already points forward (upward compression)
+                    if (otherLeaf.forwardingPtr != null) {
+                        finalTarget = otherLeaf.forwardingPtr;
+                    }
+                }
+                
+                // Check if orphaned node (info.p) has a predecessor (downward compression)
+                if (info.p.reversePtr != null) {
+                    // Update predecessor to skip info.p
+                    Node<V> predecessor = info.p.reversePtr;
+                    // Set forwardingPtr on predecessor
+                    if (predecessor instanceof InternalNode) {
+                        ((InternalNode<V>) predecessor).forwardingPtr = finalTarget;
+                    } else if (predecessor instanceof LeafNode) {
+                        ((LeafNode<V>) predecessor).forwardingPtr = finalTarget;
+                    }
+                    // Set reverse pointer on final target (points back to predecessor)
+                    if (finalTarget.node instanceof InternalNode) {
+                        ((InternalNode<V>) nodeOf(finalTarget)).reversePtr = predecessor;
+                    } else if (finalTarget.node instanceof LeafNode) {
+                        ((LeafNode<V>) nodeOf(finalTarget)).reversePtr = predecessor;
+                    }
+                    // info.p forwards too: a slow-path propagate since it was linked may have
+                    // put info.p's own version into root.version, bypassing the predecessor
+                    info.p.forwardingPtr = finalTarget;
+                } else {
+                    // First link - create new chain
+                    info.p.forwardingPtr = finalTarget;
+                    // Set reverse pointer on final target (points back to info.p)
+                    if (finalTarget.node instanceof InternalNode) {
+                        ((InternalNode<V>) nodeOf(finalTarget)).reversePtr = info.p;
+                    } else if (finalTarget.node instanceof LeafNode) {
+                        ((LeafNode<V>) nodeOf(finalTarget)).reversePtr = info.p;
+                    }
+                }
+                // Metadata updates happen in caller via fastUpdateMetadataOnly
+            } else {
+                // Slow path: Full propagation (updates both structure and nbChild)
+                propagate(info.gp);
+            }
+        }
+        infoUpdater.compareAndSet(info.gp, info, new Clean<>());
+    }
+
+
+    /**
+     * Installs a new version of x built from its children's current versions, on behalf of
+     * the propagate() call by. Returns x's version that now covers them: the one installed,
+     * or the current one if it was already built from exactly these child versions (a
+     * concurrent refresh did our work, so nothing is allocated and no CAS is issued). Returns
+     * null if our CAS lost; propagate() then retries once, which then usually elides.
+     */
+    private <T> Version refresh(InternalNode<T> x, Propagation by) {
+        // snapshot old
+        final Version old = x.version;
+
+        // Read left consistently: (ptr, then version derived from same ptr, recheck ptr)
+        Node<T> xL; Version vL;
+        do {
+            xL = x.left;
+            vL = (xL instanceof InternalNode) ? ((InternalNode<T>) xL).version : ((LeafNode<T>) xL).version;
+        } while (x.left != xL);
+
+        // Read right consistently
+        Node<T> xR; Version vR;
+        do {
+            xR = x.right;
+            vR = (xR instanceof InternalNode) ? ((InternalNode<T>) xR).version : ((LeafNode<T>) xR).version;
+        } while (x.right != xR);
+        if (old.left == vL && old.right == vR) {
+            if (PropagationStats.ENABLED) propagationStats.elided.increment();
+            return old;
+        }
+        int nb = vL.nbChild + vR.nbChild;
+        Version newer = new Version(x.key, vL, vR, nb, x);  // Pass node reference
+        newer.propagation = by;
+        boolean installed = versionUpdater.compareAndSet(x, old, newer);
+        if (PropagationStats.ENABLED) (installed ? propagationStats.installed : propagationStats.failed).increment();
+        return installed ? newer : null;
+    }
+    
+    /**
+     * Refreshes every ancestor of start up to the root. Levels whose version a concurrent
+     * propagate already rebuilt from the current children are elided (see refresh). The
+     * climb stops early at such a level only if that propagate has reached the root: the
+     * root then includes this level's version, and with it our update. One that is still
+     * climbing may not have reached the root yet, and the update must not return before
+     * root.version includes it, so we climb on.
+     */
+    private <T> void propagate(Node<T> start) {
+        final Propagation ours = new Propagation();
+        Node<T> x = start;
+        while (x != null) {
+            if (x instanceof InternalNode) {
+                Version covering = refresh((InternalNode<T>) x, ours);
+                if (covering == null) covering = refresh((InternalNode<T>) x, ours);
+                if (covering != null && covering.propagation != null && covering.propagation.reachedRoot) {
+                    if (PropagationStats.ENABLED) propagationStats.stopped.increment();
+                    break;
+                }
+            }
+            x = x.parent;
+        }
+        ours.reachedRoot = true;
+    }
+
+    /**
+     * Update ONLY fastSize along the path from the given node to the root.
+     * MyBSTnext does NOT update Version tree structure in fast path - uses forwarding pointers instead.
+     * Also called by slow-path updates: nbChild never carries counts (leaf versions have 0),
+     * so fastSize is the only size metadata in either phase.
+     *
+     * fastSize is a LongAdder: a single CAS on its base while uncontended, striped cells once
+     * several threads collide on it, which in practice means the root and the first levels.
+     */
+    private void fastUpdateMetadataOnly(int delta, Node<V> startNode) {
+        Node<V> current = startNode;
+        while (current != null) {
+            if (current instanceof InternalNode) {
+                InternalNode<V> internal = (InternalNode<V>) current;
+                // Update fastSize only - no Version tree updates
+                internal.fastSize.add(delta);
+            }
+            // Leaf nodes don't need updates - their fastSize is fixed at creation
+            current = current.parent;
+        }
+    }
+    
+
+    /**
+     * Fast-path size update: applied right away, or logged in the slot when deferring.
+     * A full log is flushed by its owner, still on the fast path, to bound its memory.
+     */
+    private void fastUpdateMetadata(ThreadSlotRegistry.Slot slot, int delta, Node<V> startNode) {
+        if (!deferSizeDeltas) {
+            fastUpdateMetadataOnly(delta, startNode);
+        } else if (slot.deltas.add(startNode, delta)) {
+            applyDeferredSizeDeltas(slot.deltas);
+        }
+    }
+
+    /**
+     * Merges a log of deferred deltas into fastSize and clears it.
+     * Paths are summed first so every ancestor, the root included, takes a single add.
+     * Walking up from a start node removed since the update is fine: its parent pointer
+     * still leads to the node that took its place, and every live ancestor of the updated
+     * key was already an ancestor when the delta was logged.
+     */
+    private void applyDeferredSizeDeltas(DeltaLog log) {
+        IdentityHashMap<InternalNode<V>, long[]> sums = new IdentityHashMap<>();
+        for (int i = 0; i < log.capacity(); i++) {
+            @SuppressWarnings("unchecked") Node<V> current = (Node<V>) log.nodeAt(i);  // Logged by this tree
+            int delta = log.deltaAt(i);
+            if (current == null || delta == 0) continue;
+            while (current != null) {
+                if (current instanceof InternalNode) {
+                    sums.computeIfAbsent((InternalNode<V>) current, n -> new long[1])[0] += delta;
+                }
+                current = current.parent;
+            }
+        }
+        for (Map.Entry<InternalNode<V>, long[]> e : sums.entrySet()) {
+            if (e.getValue()[0] != 0) e.getKey().fastSize.add(e.getValue()[0]);
+        }
+        log.clear();
+    }
+
+    Handshake handshake() {
+        return handshake;
+    }
+    
+    //--------------------------------------------------------------------------------
+    // FAST AND SLOW PATH OPERATIONS
+    //--------------------------------------------------------------------------------
+    
+    
+    /**
+     *
+     * DEBUG CODE (FOR TESTBED)
+     *
+     */
+
+    public long getSumOfKeys() {
+        return getSumOfKeys(root);
+    }
+
+    private long getSumOfKeys(Node<V> node) {
+        long sum = 0;
+        if (node.getClass() == LeafNode.class)
+            sum += node.key != INF ? node.key : 0;
+        else
+            sum += getSumOfKeys(((InternalNode<V>)node).left) + getSumOfKeys(((InternalNode<V>)node).right);
+        return sum;
+    }
+
+    public int sizeStructural() {
+        return sizeStructural(root);
+    }
+    private int sizeStructural(Node<V> n) {
+        if (n instanceof LeafNode) return (((LeafNode<V>) n).key != INF) ? 1 : 0;
+        InternalNode<V> i = (InternalNode<V>) n;
+        return sizeStructural(i.left) + sizeStructural(i.right);
+    }
+
+    /**
+     * Helper to compute size of a Version subtree.
+     * Combines slow path metadata (nbChild) with fast path metadata (fastSize).
+     */
+    /**
+     * Helper to compute size of a Version subtree.
+     * Combines slow path metadata (nbChild) with fast path metadata (fastSize).
+     * Matches pseudocode line 432-435.
+     * 
+     * IMPORTANT: If the Version's node has a forwardingPtr, follow it to get the complete subtree size.
+     *
+     * Once the handshake has completed no fast-path update is still adding to fastSize, but
+     * slow-path updaters keep adding during the query, one ancestor at a time, and each sum()
+     * is a separate, non-atomic read. A single read (the root's, for sizeSnapshot) counts an
+     * updater or not; a query summing several levels (rank, select, rangeCount) can count an
+     * updater at one level and miss it at another, or count an update and miss an earlier
+     * one. Such results are exact only if no slow-path update runs during the query.
+     */
+    private int computeSubtreeSize(Version version) {
+        if (version == null) return 0;
+        
+        // Check if this version's node has been orphaned (has forwardingPtr). Chains are
+        // compressed to one hop, except behind a deleted parent's own pointer (see helpMarked)
+        Version targetVersion = resolveForwarding(version);
+        
+        // Combine slow (nbChild) and fast (fastSize) metadata from target version
+        long fastSize = 0;
+        if (targetVersion.node instanceof InternalNode) {
+            fastSize = ((InternalNode<V>) nodeOf(targetVersion)).fastSize.sum();
+        } else if (targetVersion.node instanceof LeafNode) {
+            fastSize = ((LeafNode<V>) nodeOf(targetVersion)).fastSize.get();
+        }
+        return targetVersion.nbChild + (int)fastSize;
+    }
+    
+    public int sizeSnapshot() {
+        totalSizeCalls.incrementAndGet();
+
+        // Optimistic mode: no handshake if no update overlaps the computation
+        long stamp = handshake.optimisticStamp();
+        if (stamp >= 0) {
+            int size = computeSubtreeSize(root.version);
+            if (handshake.validate(stamp)) return size;
+        }
+        
+        // Enter slow path (performs handshakes if needed, increments reader count)
+        // Capture the phase we entered with for proper exit
+        long currPhase = handshake.enterSlowPath();
+        
+        try {
+            // Use helper to compute size
+            return computeSubtreeSize(root.version);
+        } finally {
+            // Exit slow path using the captured phase
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+    
+    // Get propagate()/refresh() counters (slow path only, needs -Dbst.propagationStats=true)
+    public String getPropagationStats() {
+        return propagationStats.toString();
+    }
+
+    /**
+     * Sets when the tree goes back to the fast path after aggregate queries (ModePolicy.EAGER
+     * by default, e.g. new LingeringModePolicy(...) to stay slow between frequent queries).
+     * Takes effect at the next query exit or slow-path update.
+     */
+    public void setModePolicy(ModePolicy policy) {
+        handshake.setModePolicy(policy);
+    }
+
+    /**
+     * Sets how queries wait for updates during handshakes (WaitStrategy.SPIN by default);
+     * e.g. WaitStrategy.spinYieldPark(...) when threads outnumber cores.
+     */
+    public void setWaitStrategy(WaitStrategy strategy) {
+        handshake.setWaitStrategy(strategy);
+    }
+
+    /**
+     * Hierarchical handshakes for many cores: announcement slots are grouped by groupSize
+     * (8, 16, 32 or 64) behind a per-group summary of one byte per slot, which the querying
+     * thread reads instead of every slot's line. Call before the first operation on the tree.
+     *
+     * @throws IllegalStateException if a thread has already operated on the tree
+     */
+    public void setHandshakeGroupSize(int groupSize) {
+        handshake.setGroupSize(groupSize);
+    }
+
+    /**
+     * Bounds how long a size/rank/select handshake waits on an updater that has been
+     * descheduled, e.g. with more threads than cores: after afterNanos on one thread's slot
+     * it revokes that thread's update, which then finishes on the slow path, and completes
+     * the update's flagged IInfo/DInfo itself. Updates pay one CAS per fast-path update to
+     * claim their fast-path tail; only a thread descheduled inside that tail is still waited
+     * for. Call before the first operation on the tree.
+     *
+     * @throws IllegalStateException if a thread has already operated on the tree
+     */
+    public void setStalledUpdateHelping(long afterNanos) {
+        handshake.setUpdateHelping(afterNanos, descriptor -> {
+            @SuppressWarnings("unchecked") Info<V> info = (Info<V>) descriptor;  // Published by this tree
+            return helpFlagged(info);
+        });
+    }
+
+    /**
+     * Optimistic aggregate queries: sizeSnapshot, rank, rangeCount and select first run
+     * without handshakes on the live fastSize metadata, and keep the result if no update
+     * was in flight or began meanwhile; otherwise they take the slow path as before. Every
+     * update then pays two atomic adds on one shared counter, which pays off when queries
+     * mostly run between updates rather than among them. Call before the first operation on
+     * the tree.
+     *
+     * @throws IllegalStateException if a thread has already operated on the tree, or the
+     *                               tree defers its size deltas
+     */
+    public void setOptimisticQueries(boolean enabled) {
+        handshake.setOptimisticQueries(enabled);
+    }
+
+    // Get optimistic query counters: validated, and sent to the slow path by an update
+    public String getOptimisticStats() {
+        return handshake.optimisticStats();
+    }
+
+    // Get helping counters: descriptors of other updates helped, by the helper's phase
+    public String getHelpingStats() {
+        return String.format("Helping: %d descriptors helped in fast phase (forwarding only), %d in slow phase (propagate)",
+            fastHelps.sum(), slowHelps.sum());
+    }
+
+    // Get fast/slow mode decisions (switches, lingers, returns to fast)
+    public String getModeStats() {
+        return handshake.modeStats();
+    }
+
+    // Get profiling statistics
+    public String getProfilingStats() {
+        long handshakes = totalHandshakes.get();
+        long totalTimeNanos = totalHandshakeTimeNanos.get();
+        long sizeCalls = totalSizeCalls.get();
+        
+        double avgHandshakeUs = handshakes > 0 ? (totalTimeNanos / (double)handshakes / 1000.0) : 0;
+        double handshakesPerSize = sizeCalls > 0 ? (handshakes / (double)sizeCalls) : 0;
+        
+        return String.format("Profiling: %d size calls, %d handshakes (%.1f per size), avg handshake time: %.2f μs, %d found no update in flight, %s",
+            sizeCalls, handshakes, handshakesPerSize, avgHandshakeUs, handshake.emptyHandshakes.sum(), handshake.helpStats());
+    }
+
+    public boolean containsKeySnapshot(long key) {
+        Version v = root.version;
+        if (v == null) return false;
+        while (v.left != null) {
+            if (key < v.key) v = v.left;
+            else v = v.right;
+        }
+        return key == v.key;
+    }
+
+    public long selectKth(int j) {
+        Version v = root.version;
+        if (v == null || j <= 0 || j > v.nbChild) return NO_KEY;
+        while (v.left != null) {
+            int leftSize = (v.left != null) ? v.left.nbChild : 0;
+            if (j <= leftSize) v = v.left;
+            else { j -= leftSize; v = v.right; }
+        }
+        return v.key;
+    }
+
+    /**
+     * Rank query using fast path metadata (fastSize in nodes).
+     * Returns the rank (1-based position) of the given key in sorted order.
+     * Returns -1 if key is not found.
+     * 
+     * Navigation uses immutable Version tree for consistency.
+     * Linearization point: Reading root.version after enterSlowPath().
+     * Optimistic mode (setOptimisticQueries): any point between stamp and validation.
+     */
+    public int rank(long key) {
+        if (key == INF) return -1;
+        
+        // Optimistic mode: no handshake if no update overlaps the navigation
+        long stamp = handshake.optimisticStamp();
+        if (stamp >= 0) {
+            int rank = rankIn(root.version, key);
+            if (handshake.validate(stamp)) return rank;
+        }
+
+        // Enter slow path to ensure consistency
+        // Capture the phase we entered with for proper exit
+        long currPhase = handshake.enterSlowPath();
+        
+        try {
+            // LINEARIZATION POINT: Read root.version to get immutable snapshot
+            return rankIn(root.version, key);
+        } finally {
+            // Exit slow path using the captured phase
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    // rank() below snapshot: left subtree sizes summed down to key's leaf
+    private int rankIn(Version snapshot, long key) {
+        if (snapshot == null) return -1;
+        
+        Version current = snapshot;
+        int rank = 0;
+        
+        // Navigate Version tree until we reach a leaf (current.left == null)
+        while (true) {
+            // ALWAYS check for forwarding pointer first (even on leaves!)
+            Version forwardPtr = null;
+            if (current.node instanceof InternalNode) {
+                forwardPtr = ((InternalNode<V>) nodeOf(current)).forwardingPtr;
+            } else if (current.node instanceof LeafNode) {
+                forwardPtr = ((LeafNode<V>) nodeOf(current)).forwardingPtr;
+            }
+            
+            if (forwardPtr != null) {
+                // This node is orphaned - jump to replacement
+                current = forwardPtr;
+                // Loop again to check new current
+                continue;
+            }
+            
+            // No forwarding pointer - check if we've reached a leaf
+            if (current.left == null) {
+                // Reached a leaf, stop navigation
+                break;
+            }
+            
+            // Internal node - navigate left or right based on key comparison
+            if (key < current.key) {
+                // Go left in Version tree
+                current = current.left;
+            } else {
+                // Go right - add left subtree size to rank using helper
+                int leftSubtreeSize = computeSubtreeSize(current.left);
+                rank += leftSubtreeSize;
+                current = current.right;
+            }
+            // Loop continues - will check forwarding pointer on new current
+        }
+        
+        // We've reached a leaf in the Version tree - check if it's our key
+        if (current != null && key == current.key) {
+            return rank + 1; // 1-based rank
+        }
+        
+        return -1; // Key not found
+    }
+
+    /**
+     * Range count query: number of keys k with lo <= k <= hi.
+     * The bounds do not need to be keys of the tree; returns 0 if lo > hi.
+     *
+     * Both bounds are resolved on the same root.version under a single enterSlowPath(),
+     * where two rank() calls would each pay for their own slow-path entry.
+     * Linearization point: Reading root.version after enterSlowPath().
+     * Optimistic mode (setOptimisticQueries): any point between stamp and validation.
+     */
+    public int rangeCount(long lo, long hi) {
+        if (lo > hi) return 0;
+
+        // Optimistic mode: no handshake if no update overlaps both descents
+        long stamp = handshake.optimisticStamp();
+        if (stamp >= 0) {
+            Version snapshot = root.version;
+            int count = countBelow(snapshot, hi, true) - countBelow(snapshot, lo, false);
+            if (handshake.validate(stamp)) return count;
+        }
+
+        // Enter slow path to ensure consistency
+        // Capture the phase we entered with for proper exit
+        long currPhase = handshake.enterSlowPath();
+
+        try {
+            // LINEARIZATION POINT: Read root.version to get immutable snapshot
+            Version snapshot = root.version;
+            return countBelow(snapshot, hi, true) - countBelow(snapshot, lo, false);
+        } finally {
+            // Exit slow path using the captured phase
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    /**
+     * Number of keys below key (or equal to it if inclusive) in the given version subtree.
+     * Navigates like rank(), following forwarding pointers, but works for absent keys.
+     * Caller must be in the slow path, or validate an optimistic stamp after it.
+     */
+    private int countBelow(Version snapshot, long key, boolean inclusive) {
+        Version current = snapshot;
+        int count = 0;
+
+        while (true) {
+            // ALWAYS check for forwarding pointer first (even on leaves!)
+            Version forwardPtr = null;
+            if (current.node instanceof InternalNode) {
+                forwardPtr = ((InternalNode<V>) nodeOf(current)).forwardingPtr;
+            } else if (current.node instanceof LeafNode) {
+                forwardPtr = ((LeafNode<V>) nodeOf(current)).forwardingPtr;
+            }
+            if (forwardPtr != null) {
+                current = forwardPtr;
+                continue;
+            }
+
+            if (current.left == null) break;  // Reached a leaf
+
+            if (key < current.key) {
+                current = current.left;
+            } else {
+                // Every key on the left is below current.key <= key
+                count += computeSubtreeSize(current.left);
+                current = current.right;
+            }
+        }
+
+        // Leaf: counts if its key is below the bound (sentinels hold INF)
+        if (current.key != INF && (current.key < key || (inclusive && current.key == key))) count++;
+        return count;
+    }
+
+    /**
+     * Select query using Version tree navigation.
+     * Returns the kth smallest key (1-based indexing).
+     * Returns NO_KEY if k is out of range.
+     * 
+     * Navigation uses immutable Version tree for consistency.
+     * Linearization point: Reading root.version after enterSlowPath().
+     * Optimistic mode (setOptimisticQueries): any point between stamp and validation.
+     */
+    public long select(int k) {
+        if (k <= 0) return NO_KEY;
+        
+        // Optimistic mode: no handshake if no update overlaps the navigation
+        long stamp = handshake.optimisticStamp();
+        if (stamp >= 0) {
+            long key = selectIn(root.version, k);
+            if (handshake.validate(stamp)) return key;
+        }
+
+        // Enter slow path to ensure consistency
+        // Capture the phase we entered with for proper exit
+        long currPhase = handshake.enterSlowPath();
+        
+        try {
+            // LINEARIZATION POINT: Read root.version to get immutable snapshot
+            return selectIn(root.version, k);
+        } finally {
+            // Exit slow path using the captured phase
+            handshake.exitSlowPath(currPhase);
+        }
+    }
+
+    // select() below snapshot: descends by left subtree sizes to the kth leaf
+    private long selectIn(Version snapshot, int k) {
+        if (snapshot == null) return NO_KEY;
+        
+        Version current = snapshot;
+        int remaining = k;
+        
+        // Navigate Version tree until we reach a leaf (current.left == null)
+        while (true) {
+            // ALWAYS check for forwarding pointer first (even on leaves!)
+            Version forwardPtr = null;
+            if (current.node instanceof InternalNode) {
+                forwardPtr = ((InternalNode<V>) nodeOf(current)).forwardingPtr;
+            } else if (current.node instanceof LeafNode) {
+                forwardPtr = ((LeafNode<V>) nodeOf(current)).forwardingPtr;
+            }
+            
+            if (forwardPtr != null) {
+                // This node is orphaned - jump to replacement
+                current = forwardPtr;
+                // Loop again to check new current
+                continue;
+            }
+            
+            // No forwarding pointer - check if we've reached a leaf
+            if (current.left == null) {
+                // Reached a leaf, stop navigation
+                break;
+            }
+            
+            // Internal node - navigate left or right based on remaining count
+            // Calculate left subtree size using helper
+            int leftSize = computeSubtreeSize(current.left);
+            
+            if (remaining <= leftSize) {
+                // Target is in left subtree - navigate via Version tree
+                current = current.left;
+            } else {
+                // Target is in right subtree - navigate via Version tree
+                remaining -= leftSize;
+                current = current.right;
+            }
+            // Loop continues - will check forwarding pointer on new current
+        }
+        
+        // We've reached a leaf in the Version tree - check if it's the kth element
+        if (current != null && current.key != INF && remaining == 1) {
+            return current.key;
+        }
+        
+        return NO_KEY; // Out of range
+    }
+
+    // ===========================================================================================
+    // APPROXIMATE QUERIES
+    // ===========================================================================================
+
+    // sizeApprox, rankApprox and selectApprox read the live tree and its fastSize counters and
+    // nothing else: no handshake, no reader arrival, no phase or slot access, no write, so
+    // updates run as if no query did. They are not linearizable. Error bound: with U the keys
+    // changed by updates that overlap the call (one per put or remove, a group's keys for
+    // putAll), the result is within U of the exact one at some point of the call. An update
+    // is missing from the counters above its position until its fastSize walk passes them,
+    // and the navigation sums subtrees of disjoint key ranges, so each changed key skews it
+    // once at most. No overlapping update: exact. A tree deferring its size deltas also lags
+    // by the deltas logged since the last handshake, which has no bound in U.
+
+    /** Number of keys, within the bound above. */
+    public int sizeApprox() {
+        return (int) Math.max(0, root.fastSize.sum());
+    }
+
+    /** Number of keys up to key included (rank(key) for a key of the tree), within the bound above. */
+    public int rankApprox(long key) {
+        long count = 0;
+        Node<V> n = root;
+        while (n.getClass() == InternalNode.class) {
+            InternalNode<V> x = (InternalNode<V>) n;
+            if (key < x.key) {
+                n = x.left;
+            } else {
+                count += fastSizeOf(x.left);
+                n = x.right;
+            }
+        }
+        if (n.key != INF && n.key <= key) count++;
+        return (int) Math.max(0, count);
+    }
+
+    /**
+     * A key whose rank is i within the bound above (select(i) when no update overlaps), or
+     * NO_KEY if i <= 0 or beyond the keys counted.
+     */
+    public long selectApprox(int i) {
+        if (i <= 0) return NO_KEY;
+        long remaining = i;
+        Node<V> n = root;
+        while (n.getClass() == InternalNode.class) {
+            InternalNode<V> x = (InternalNode<V>) n;
+            Node<V> left = x.left;
+            long leftSize = fastSizeOf(left);
+            if (remaining <= leftSize) {
+                n = left;
+            } else {
+                remaining -= leftSize;
+                n = x.right;
+            }
+        }
+        return n.key;  // INF (NO_KEY) at the sentinel
+    }
+
+    private static <V> long fastSizeOf(Node<V> n) {
+        return (n instanceof InternalNode) ? ((InternalNode<V>) n).fastSize.sum() : ((LeafNode<V>) n).fastSize.get();
+    }
+}
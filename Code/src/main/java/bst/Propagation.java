@@ -0,0 +1,11 @@
+package bst;
+
+/**
+ * One propagate() call of a handshake or baseline tree, recorded in the versions it installs.
+ * Marked once the call has reached the root (or stopped under a version of a call that had):
+ * from then on root.version includes every version it installed, so a later propagate that
+ * finds one of them already built from its own children can stop climbing there.
+ */
+final class Propagation {
+    volatile boolean reachedRoot;
+}
@@ -0,0 +1,37 @@
+package bst;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for refresh() outcomes during propagate(), and for propagates that stopped
+ * below the root, per tree.
+ * Off unless the JVM runs with -Dbst.propagationStats=true (the check folds away when off).
+ *
+ *   installed : new Version allocated and CAS'd in
+ *   failed    : new Version allocated, CAS lost to a concurrent refresh
+ *   elided    : current version already built from the children's current versions,
+ *               nothing allocated and no CAS (each one is an allocation and a CAS saved)
+ *   stopped   : propagates that stopped at an elided level whose propagate had reached
+ *               the root (the levels above it are neither read nor refreshed)
+ */
+final class PropagationStats {
+
+    static final boolean ENABLED = Boolean.getBoolean("bst.propagationStats");
+
+    final LongAdder installed = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder elided = new LongAdder();
+    final LongAdder stopped = new LongAdder();
+
+    @Override
+    public String toString() {
+        if (!ENABLED) return "Propagation stats disabled (run with -Dbst.propagationStats=true)";
+        long ins = installed.sum();
+        long fail = failed.sum();
+        long eli = elided.sum();
+        long total = ins + fail + eli;
+        double savedPct = total > 0 ? (100.0 * eli / total) : 0;
+        return String.format("Propagation: %d refreshes, %d installed, %d CAS failed, %d elided (%.1f%% of Version allocations and CAS saved), %d climbs stopped below the root",
+            total, ins, fail, eli, savedPct, stopped.sum());
+    }
+}
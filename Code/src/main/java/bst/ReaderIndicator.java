@@ -0,0 +1,82 @@
+package bst;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scalable non-zero indicator of the aggregate queries in slow path (see Handshake), after
+ * SNZI: queries arrive and depart on a stripe picked by their thread, and only a stripe's
+ * first arrival and last departure touch the shared root, the number of non-empty stripes.
+ * Overlapping queries thus mostly write their own stripe, where a single counter had every
+ * query write the same line twice.
+ *
+ * A stripe going from 0 to 1 passes through HALF: the arriver (or any arriver that finds
+ * HALF) increments the root before completing HALF to 1, and an arriver that loses that CAS
+ * takes its increment back. So whenever some query has completed its arrival, the root
+ * counts its stripe, and the root reads 0 only when no query is between arrive and depart.
+ *
+ * Stripes are padded to 128 bytes, like the phase cells of ThreadSlotRegistry.
+ */
+final class ReaderIndicator {
+
+    private static final int STRIDE = 16;  // longs between two stripes (128 bytes)
+    private static final long HALF = -1;   // First arrival of a stripe in progress
+    private static final VarHandle STRIPE = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] stripes;
+    private final int mask;
+    private final AtomicLong root = new AtomicLong();  // Stripes with a completed arrival
+
+    ReaderIndicator() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /** @param stripes rounded up to a power of two, at least 4 and at most 64 */
+    ReaderIndicator(int stripes) {
+        int n = Math.max(4, Math.min(64, Integer.highestOneBit(Math.max(1, stripes - 1)) << 1));
+        this.stripes = new long[(n + 1) * STRIDE];
+        this.mask = n - 1;
+    }
+
+    // Threads ids are handed out in sequence, so the low bits spread live threads evenly
+    private int offset() {
+        return ((int) Thread.currentThread().getId() & mask) * STRIDE + STRIDE;
+    }
+
+    /** Counts the calling query in; it must depart from the same thread. */
+    void arrive() {
+        int at = offset();
+        while (true) {
+            long c = (long) STRIPE.getVolatile(stripes, at);
+            if (c > 0) {
+                if (STRIPE.compareAndSet(stripes, at, c, c + 1)) return;
+                continue;
+            }
+            if (c == 0 && !STRIPE.compareAndSet(stripes, at, 0L, HALF)) continue;
+            // HALF: count the stripe in the root, then complete the arrival
+            root.incrementAndGet();
+            if (STRIPE.compareAndSet(stripes, at, HALF, 1L)) return;
+            root.decrementAndGet();  // Completed by another arriver, whose increment counts
+        }
+    }
+
+    /** Counts the calling query out; true if the root dropped to 0 (possibly the last one). */
+    boolean depart() {
+        int at = offset();
+        long c;
+        do {
+            c = (long) STRIPE.getVolatile(stripes, at);  // >= 1: our own arrival is completed
+        } while (!STRIPE.compareAndSet(stripes, at, c, c - 1));
+        return c == 1 && root.decrementAndGet() == 0;
+    }
+
+    /** True if no query is between arrive and depart, as of this read. */
+    boolean isEmpty() {
+        return root.get() == 0;
+    }
+
+    int stripes() {
+        return mask + 1;
+    }
+}
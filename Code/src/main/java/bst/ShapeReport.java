@@ -0,0 +1,174 @@
+package bst;
+
+import java.util.Arrays;
+
+/**
+ * Shape of one Version tree snapshot (see MyBSTnext.shapeReport, MyBSTBaseline.shapeReport).
+ *
+ * Depths are edges from root.version; the two top levels are the sentinel scaffolding (the
+ * root and the null-keyed node above the keys), so a single key sits at depth 2. Only keyed
+ * leaves enter the histogram and the mean; internal and sentinel nodes are counted apart.
+ * The heaviest imbalance is the largest |keys(left) - keys(right)| over keyed internal
+ * nodes (the scaffolding always holds every key on its left).
+ *
+ * Built iteratively (see Builder), a 1M-key degenerate tree does not touch the call stack.
+ */
+public final class ShapeReport {
+
+    /** Column names matching toCsv(), for benchmarks appending the report to their rows. */
+    public static final String CSV_HEADER = "leaves,internalNodes,maxDepth,meanDepth,maxImbalance,maxImbalanceKey";
+
+    private final int[] depthHistogram;  // depthHistogram[d] = keyed leaves at depth d
+    private final int leaves;
+    private final int sentinels;
+    private final int internalNodes;
+    private final int maxDepth;
+    private final double meanDepth;
+    private final int maxImbalance;
+    private final Object maxImbalanceKey;  // Key of the node with maxImbalance, null if no keyed internal node
+
+    private ShapeReport(int[] depthHistogram, int leaves, int sentinels, int internalNodes,
+                        int maxDepth, double meanDepth, int maxImbalance, Object maxImbalanceKey) {
+        this.depthHistogram = depthHistogram;
+        this.leaves = leaves;
+        this.sentinels = sentinels;
+        this.internalNodes = internalNodes;
+        this.maxDepth = maxDepth;
+        this.meanDepth = meanDepth;
+        this.maxImbalance = maxImbalance;
+        this.maxImbalanceKey = maxImbalanceKey;
+    }
+
+    /** Keyed leaves per depth, index = depth; length maxDepth + 1 (0 if the tree is empty). */
+    public int[] depthHistogram() {
+        return depthHistogram.clone();
+    }
+
+    public int leaves() {
+        return leaves;
+    }
+
+    public int sentinels() {
+        return sentinels;
+    }
+
+    public int internalNodes() {
+        return internalNodes;
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /** Mean keyed-leaf depth, i.e. the average search path length of a successful get. */
+    public double meanDepth() {
+        return meanDepth;
+    }
+
+    public int maxImbalance() {
+        return maxImbalance;
+    }
+
+    public Object maxImbalanceKey() {
+        return maxImbalanceKey;
+    }
+
+    public String toCsv() {
+        return leaves + "," + internalNodes + "," + maxDepth + "," + String.format("%.2f", meanDepth)
+            + "," + maxImbalance + "," + (maxImbalanceKey == null ? "" : maxImbalanceKey);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Shape: %d keys, %d internal nodes, depth max %d mean %.2f, heaviest imbalance %d at key %s, depth histogram %s",
+            leaves, internalNodes, maxDepth, meanDepth, maxImbalance, maxImbalanceKey, Arrays.toString(depthHistogram));
+    }
+
+    /**
+     * Collects the nodes of a pre-order walk, then sums subtree sizes bottom-up in reverse
+     * order (every descendant of a node comes after it in pre-order). The walk itself is the
+     * caller's, on its own Version type, with an explicit stack of nodes and of links from
+     * push(); add() returns the index its children must be pushed with.
+     */
+    static final class Builder {
+        private int[] parent = new int[64];      // Index of the parent, -1 for the root
+        private boolean[] right = new boolean[64];
+        private int[] depth = new int[64];
+        private boolean[] internal = new boolean[64];
+        private boolean[] keyed = new boolean[64];
+        private Object[] key = new Object[64];
+        private int count;
+
+        private int[] links = new int[64];  // Pending children: (parent index << 1) | right
+        private int pending;
+
+        /** Records the link of a child pushed on the caller's stack; parent -1 for the root. */
+        void push(int parentIndex, boolean rightChild) {
+            if (pending == links.length) links = Arrays.copyOf(links, pending * 2);
+            links[pending++] = (parentIndex << 1) | (rightChild ? 1 : 0);
+        }
+
+        /** Adds the node just popped from the caller's stack, pops its link, returns its index. */
+        int add(boolean isInternal, Object nodeKey) {
+            int link = links[--pending];
+            if (count == parent.length) grow();
+            int i = count++;
+            parent[i] = link >> 1;
+            right[i] = (link & 1) != 0;
+            depth[i] = (parent[i] < 0) ? 0 : depth[parent[i]] + 1;
+            internal[i] = isInternal;
+            keyed[i] = nodeKey != null;
+            key[i] = nodeKey;
+            return i;
+        }
+
+        private void grow() {
+            int n = parent.length * 2;
+            parent = Arrays.copyOf(parent, n);
+            right = Arrays.copyOf(right, n);
+            depth = Arrays.copyOf(depth, n);
+            internal = Arrays.copyOf(internal, n);
+            keyed = Arrays.copyOf(keyed, n);
+            key = Arrays.copyOf(key, n);
+        }
+
+        ShapeReport build() {
+            int[] size = new int[count];
+            int[] leftSize = new int[count];
+            int leaves = 0, sentinels = 0, internalNodes = 0, maxDepth = 0;
+            long depthSum = 0;
+            int maxImbalance = 0;
+            Object maxImbalanceKey = null;
+
+            for (int i = count - 1; i >= 0; i--) {
+                if (internal[i]) {
+                    internalNodes++;
+                    int imbalance = Math.abs(2 * leftSize[i] - size[i]);  // |left - right|
+                    if (keyed[i] && imbalance > maxImbalance) {
+                        maxImbalance = imbalance;
+                        maxImbalanceKey = key[i];
+                    }
+                } else if (keyed[i]) {
+                    leaves++;
+                    size[i] = 1;
+                    depthSum += depth[i];
+                    maxDepth = Math.max(maxDepth, depth[i]);
+                } else {
+                    sentinels++;
+                }
+                int p = parent[i];
+                if (p >= 0) {
+                    size[p] += size[i];
+                    if (!right[i]) leftSize[p] += size[i];
+                }
+            }
+
+            int[] histogram = new int[leaves == 0 ? 0 : maxDepth + 1];
+            for (int i = 0; i < count; i++) {
+                if (!internal[i] && keyed[i]) histogram[depth[i]]++;
+            }
+            double meanDepth = (leaves == 0) ? 0 : depthSum / (double) leaves;
+            return new ShapeReport(histogram, leaves, sentinels, internalNodes, maxDepth, meanDepth, maxImbalance, maxImbalanceKey);
+        }
+    }
+}
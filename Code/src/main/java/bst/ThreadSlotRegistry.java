@@ -0,0 +1,362 @@
+package bst;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Leases opPhase announcement slots to threads and reclaims them.
+ *
+ * A thread gets a slot the first time it announces a phase on a given tree and keeps it
+ * for its lifetime. Slots of threads that have died are reclaimed on the next lease or
+ * release, and by handshakes (at most once per RECLAIM_INTERVAL_NANOS), so a tree whose
+ * threads stop leasing still shrinks its scan. The lowest free index is always handed out
+ * first, and the slot table grows on demand, so the handshake scan ({@link #scanLimit()})
+ * stays bounded by the threads alive right now rather than by every thread that ever
+ * touched the tree.
+ *
+ * Slots can also be owned by a session handle (see MyBSTnext.Session): such a slot is
+ * released explicitly on close, or reclaimed once the handle becomes unreachable.
+ *
+ * Phases live in contiguous long[] chunks of CHUNK_SLOTS slots, accessed through a
+ * VarHandle, with each slot on its own 128-byte block (two cache lines, so the adjacent
+ * line prefetcher does not pair neighbours either). Updaters announcing their phase never
+ * false-share, and the handshake scan walks a plain array instead of one AtomicLong per
+ * slot. Growing adds chunks; existing chunks never move, so a slot's cell stays valid.
+ *
+ * The leading padding block of each chunk holds its active summary: one bit per slot, set by
+ * the owner when it announces an operation (if not already set) and cleared only by the
+ * handshake once it sees the slot IDLE, so the handshake visits only slots that announced
+ * something since the last handshake, and owners touch the shared word once per handshake.
+ *
+ * Grouped mode (setGroupSize, for many cores) adds a per-group acknowledgement summary: each
+ * group of 8 to 64 consecutive slots shares one 128-byte block of group bytes, one byte per
+ * slot (IDLE, FAST or SLOW) that the owner stores next to every phase announcement, so the
+ * handshake reads one or a few words per group instead of one line per slot, and reads the
+ * exact phase only of slots whose byte is not IDLE. Owners pay one plain byte store per
+ * announcement, on a line shared with the rest of their group.
+ *
+ * In helping mode (Handshake.setUpdateHelping) each slot also carries the fast-path claim of
+ * its owner's current update and the descriptor it is flagging, see Handshake.
+ */
+final class ThreadSlotRegistry {
+
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_SLOTS = 1 << CHUNK_SHIFT;  // 64 slots per chunk
+    private static final int CHUNK_MASK = CHUNK_SLOTS - 1;
+    private static final int STRIDE = 16;  // longs between two slots (128 bytes)
+    private static final int CHUNK_LENGTH = (CHUNK_SLOTS + 2) * STRIDE;  // padding before first and after last slot
+    private static final int SUMMARY = 0;  // Active bits of the chunk, in the padding before the first slot
+
+    private static final VarHandle PHASE = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle GROUP_BYTE = MethodHandles.arrayElementVarHandle(byte[].class);
+    private static final VarHandle GROUP_WORD = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    static final byte GROUP_IDLE = 0, GROUP_FAST = 1, GROUP_SLOW = 2;  // Group byte of a slot
+    static final int UPDATE_OWNED = 0, UPDATE_CLAIMED = 1, UPDATE_REVOKED = 2;  // Fast-path claim of a slot's update
+    private static final int GROUP_BLOCK = 128;  // Bytes per group summary block
+    private static final long RECLAIM_INTERVAL_NANOS = 1_000_000;  // Between two reclaims by handshakes
+
+    static final class Slot {
+        final int index;
+        final long[] cells;  // Chunk holding this slot's phase
+        final int offset;    // Position of the phase inside cells
+        final long bit;      // This slot's bit in the chunk's active summary
+        byte[] group;        // Chunk's group summaries in grouped mode, else null (set before any lease)
+        int groupOffset;     // Position of this slot's byte inside group
+        WeakReference<Object> owner;  // Thread or session handle, null when free (guarded by the registry lock)
+        final DeltaLog deltas = new DeltaLog();  // Deferred fastSize deltas, survives the owner (see Handshake)
+        volatile int update;  // UPDATE_* of the owner's current update, helping mode only (see Handshake)
+        Object pending;       // Descriptor the owner's current update flags, helping mode only
+
+        private static final VarHandle UPDATE;
+        static {
+            try {
+                UPDATE = MethodHandles.lookup().findVarHandle(Slot.class, "update", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        Slot(int index, long[] cells) {
+            this.index = index;
+            this.cells = cells;
+            this.offset = offset(index);
+            this.bit = 1L << (index & CHUNK_MASK);
+        }
+
+        /**
+         * Sets this slot's active bit; call after announcing a phase and before reading
+         * queriesPhase. A handshake that read the summary without the bit had already
+         * advanced queriesPhase, so the owner sees the new phase; one that cleared the bit
+         * concurrently re-reads the phase after clearing (see Handshake.performHandshake).
+         */
+        void markActive() {
+            if (((long) PHASE.getVolatile(cells, SUMMARY) & bit) == 0) {
+                PHASE.getAndBitwiseOr(cells, SUMMARY, bit);
+            }
+        }
+
+        void setPhase(long phase) {
+            PHASE.setVolatile(cells, offset, phase);
+        }
+
+        /**
+         * Grouped mode announcement: the phase with a release store, then the group byte with a
+         * volatile one, which orders both before the owner's next read of queriesPhase (or of
+         * the handshake waiter). A handshake that sees the byte sees the phase.
+         */
+        void setPhaseGrouped(long phase, byte state) {
+            PHASE.setRelease(cells, offset, phase);
+            GROUP_BYTE.setVolatile(group, groupOffset, state);
+        }
+
+        long getPhase() {
+            return (long) PHASE.getVolatile(cells, offset);
+        }
+
+        /** Owner, before a fast-path tail: OWNED to CLAIMED; false if a handshake revoked it first. */
+        boolean claim() {
+            int state = update;
+            return state == UPDATE_CLAIMED || (state == UPDATE_OWNED && UPDATE.compareAndSet(this, UPDATE_OWNED, UPDATE_CLAIMED));
+        }
+
+        /** Owner, after a fast-path tail (only the owner leaves CLAIMED). */
+        void unclaim() {
+            if (update == UPDATE_CLAIMED) update = UPDATE_OWNED;
+        }
+
+        /** Handshake: OWNED to REVOKED; true if the update is revoked, false while it is claimed. */
+        boolean revoke() {
+            int state = update;
+            return state == UPDATE_REVOKED || (state == UPDATE_OWNED && UPDATE.compareAndSet(this, UPDATE_OWNED, UPDATE_REVOKED));
+        }
+
+        /** Owner, once IDLE is announced: the next update starts owned, with nothing published. */
+        void endUpdate() {
+            pending = null;
+            if (update != UPDATE_OWNED) update = UPDATE_OWNED;
+        }
+    }
+
+    private volatile long[][] chunks;  // Phase cells, one chunk per CHUNK_SLOTS slots
+    private volatile byte[][] groups;  // Group summaries per chunk in grouped mode, else null
+    private volatile int groupSize;    // Slots per group, 0 when not grouped (written under the lock)
+    private volatile Slot[] slots;     // Lease bookkeeping, grows with chunks
+    private volatile int scanLimit;    // 1 + highest leased index
+    private volatile long nextReclaim = System.nanoTime();  // Earliest reclaim by a handshake
+
+    private final ThreadLocal<Slot> current = ThreadLocal.withInitial(() -> lease(Thread.currentThread()));
+
+    ThreadSlotRegistry() {
+        this.chunks = new long[0][];
+        this.slots = new Slot[0];
+        addChunk();
+        this.scanLimit = 0;
+    }
+
+    private static int offset(int index) {
+        return ((index & CHUNK_MASK) + 1) * STRIDE;
+    }
+
+    /** Phase announced in slot index; chunks must have been read after scanLimit. */
+    static long phaseAt(long[][] chunks, int index) {
+        return (long) PHASE.getVolatile(chunks[index >>> CHUNK_SHIFT], offset(index));
+    }
+
+    /** Active summary of the chunk holding slots [chunk * 64, chunk * 64 + 64). */
+    static long activeBits(long[][] chunks, int chunk) {
+        return (long) PHASE.getVolatile(chunks[chunk], SUMMARY);
+    }
+
+    /** Clears the active bit of slot index; the caller re-reads its phase afterwards. */
+    static void clearActive(long[][] chunks, int index) {
+        PHASE.getAndBitwiseAnd(chunks[index >>> CHUNK_SHIFT], SUMMARY, ~(1L << (index & CHUNK_MASK)));
+    }
+
+    static int chunkSlots() {
+        return CHUNK_SLOTS;
+    }
+
+    /**
+     * Switches to grouped mode with groupSize slots per group (8, 16, 32 or 64). Only before
+     * any slot has been leased: owners pick their announcement path from their slot.
+     */
+    synchronized void setGroupSize(int groupSize) {
+        if (groupSize != 8 && groupSize != 16 && groupSize != 32 && groupSize != 64) {
+            throw new IllegalArgumentException("group size must be 8, 16, 32 or 64: " + groupSize);
+        }
+        requireUnleased("group size");
+        this.groupSize = groupSize;
+        long[][] table = chunks;
+        byte[][] summaries = new byte[table.length][];
+        for (int chunk = 0; chunk < table.length; chunk++) {
+            summaries[chunk] = newGroupChunk(slots, chunk * CHUNK_SLOTS);
+        }
+        groups = summaries;
+    }
+
+    /** Throws IllegalStateException once any slot has been leased: setting must be chosen before first use. */
+    synchronized void requireUnleased(String setting) {
+        for (Slot slot : slots) {
+            if (slot.owner != null) throw new IllegalStateException("slots already leased, set the " + setting + " before first use");
+        }
+    }
+
+    /** Slots per group, 0 when not grouped. */
+    int groupSize() {
+        return groupSize;
+    }
+
+    /** Group summaries, parallel to chunks(); null when not grouped. Read after scanLimit. */
+    byte[][] groups() {
+        return groups;
+    }
+
+    /** Word w (8 slots) of group g of a chunk's group summaries, byte i = slot g * size + w * 8 + i. */
+    static long groupWord(byte[] summaries, int groupInChunk, int word) {
+        return (long) GROUP_WORD.getVolatile(summaries, (groupInChunk + 1) * GROUP_BLOCK + word * 8);
+    }
+
+    // Called with the lock held: group bytes for the chunk of slots [first, first + 64), wired to its slots
+    private byte[] newGroupChunk(Slot[] table, int first) {
+        byte[] summaries = new byte[(CHUNK_SLOTS / groupSize + 2) * GROUP_BLOCK];
+        for (int i = first; i < first + CHUNK_SLOTS && i < table.length; i++) {
+            table[i].group = summaries;
+            table[i].groupOffset = groupOffset(i);
+        }
+        return summaries;
+    }
+
+    private int groupOffset(int index) {
+        int inChunk = index & CHUNK_MASK;
+        return (inChunk / groupSize + 1) * GROUP_BLOCK + inChunk % groupSize;
+    }
+
+    /** Slot of the calling thread, leased on first use. */
+    Slot current() {
+        return current.get();
+    }
+
+    /** Phase cells to scan; only indexes below {@link #scanLimit()} can be leased. */
+    long[][] chunks() {
+        return chunks;
+    }
+
+    int scanLimit() {
+        return scanLimit;
+    }
+
+    /** Every slot, free or leased; free slots can still hold deferred deltas of their last owner. */
+    Slot[] slots() {
+        return slots;
+    }
+
+    /**
+     * Gives the calling thread's slot back before the thread dies.
+     * The slot must be IDLE, i.e. the thread is not inside an update.
+     */
+    void releaseCurrent() {
+        Slot s = current.get();
+        current.remove();
+        release(s);
+    }
+
+    /** Frees a slot; its owner must be idle and must not announce through it again. */
+    synchronized void release(Slot s) {
+        s.owner = null;
+        reclaimDead();
+        trimScanLimit();
+    }
+
+    /**
+     * Called by a handshake after its scan: reclaims dead threads' and dropped handles' slots
+     * and trims the scan limit, unless another handshake did within RECLAIM_INTERVAL_NANOS.
+     */
+    void reclaimIfDue(long now) {
+        long due = nextReclaim;
+        if (now - due < 0) return;
+        nextReclaim = now + RECLAIM_INTERVAL_NANOS;
+        synchronized (this) {
+            reclaimDead();
+            trimScanLimit();
+        }
+    }
+
+    /** Leases the lowest free slot to owner (a Thread, or a session handle). */
+    synchronized Slot lease(Object owner) {
+        Slot[] table = slots;
+        int free = reclaimDead();
+
+        if (free < 0) {
+            // Table full of live threads, add a chunk
+            free = table.length;
+            table = addChunk();
+        }
+
+        Slot leased = table[free];
+        leased.owner = new WeakReference<>(owner);
+        trimScanLimit();
+        return leased;
+    }
+
+    // Called with the lock held: frees slots of dead threads and dropped handles, returns the
+    // lowest free index or -1
+    private int reclaimDead() {
+        Slot[] table = slots;
+        int free = -1;
+        for (int i = 0; i < table.length; i++) {
+            Slot s = table[i];
+            if (s.owner != null) {
+                if (isLive(s.owner.get())) continue;
+                if (s.group != null) s.setPhaseGrouped(Handshake.IDLE_PHASE, GROUP_IDLE);
+                else s.setPhase(Handshake.IDLE_PHASE);
+                s.owner = null;
+            }
+            if (free < 0) free = i;
+        }
+        return free;
+    }
+
+    private static boolean isLive(Object owner) {
+        if (owner instanceof Thread) return ((Thread) owner).isAlive();
+        return owner != null;  // Session handle: live until collected or released
+    }
+
+    // Called with the lock held (or from the constructor); publishes chunks before slots
+    private Slot[] addChunk() {
+        long[] cells = new long[CHUNK_LENGTH];
+        Slot[] table = slots;
+        Slot[] grown = new Slot[table.length + CHUNK_SLOTS];
+        System.arraycopy(table, 0, grown, 0, table.length);
+        for (int i = table.length; i < grown.length; i++) {
+            grown[i] = new Slot(i, cells);
+            cells[offset(i)] = Handshake.IDLE_PHASE;
+        }
+        long[][] oldChunks = chunks;
+        long[][] newChunks = new long[oldChunks.length + 1][];
+        System.arraycopy(oldChunks, 0, newChunks, 0, oldChunks.length);
+        newChunks[oldChunks.length] = cells;
+        if (groupSize != 0) {
+            byte[][] oldGroups = groups;
+            byte[][] newGroups = Arrays.copyOf(oldGroups, oldGroups.length + 1);
+            newGroups[oldGroups.length] = newGroupChunk(grown, table.length);
+            groups = newGroups;
+        }
+        chunks = newChunks;
+        slots = grown;
+        return grown;
+    }
+
+    // Called with the lock held: scanLimit = 1 + highest leased index
+    private void trimScanLimit() {
+        Slot[] table = slots;
+        int limit = table.length;
+        while (limit > 0 && table[limit - 1].owner == null) {
+            limit--;
+        }
+        scanLimit = limit;
+    }
+}
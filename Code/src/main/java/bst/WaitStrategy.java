@@ -0,0 +1,89 @@
+package bst;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a query waits for an update that has not acknowledged a handshake yet (and for another
+ * query's switch to the slow path to complete). Set per tree with setWaitStrategy.
+ *
+ * SPIN is the original busy wait: lowest latency while every thread has a core, but with
+ * more runnable threads than cores (or on virtual threads) the query burns the core, or the
+ * carrier, the update it waits on needs to finish. The other strategies give it up sooner.
+ * A strategy that parks() has its waiting thread published for the duration of the
+ * handshake, and setOpPhaseIdle unparks it, so a parked query wakes when the update ends
+ * rather than when its park times out.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits once before the caller re-checks the slot.
+     *
+     * @param attempt number of earlier waits on the same slot, from 0
+     */
+    void pause(int attempt);
+
+    /** True if pause() may park, the handshake then registers for unparking by setOpPhaseIdle. */
+    default boolean parks() {
+        return false;
+    }
+
+    /** Busy wait with Thread.onSpinWait (the original protocol). */
+    WaitStrategy SPIN = new WaitStrategy() {
+        @Override public void pause(int attempt) { Thread.onSpinWait(); }
+        @Override public String toString() { return "spin"; }
+    };
+
+    /** Thread.yield on every wait. */
+    WaitStrategy YIELD = new WaitStrategy() {
+        @Override public void pause(int attempt) { Thread.yield(); }
+        @Override public String toString() { return "yield"; }
+    };
+
+    /**
+     * Spins for spins waits, yields for the next yields, then parks up to parkNanos per wait
+     * (woken early by setOpPhaseIdle; the timeout bounds a wake-up missed by a slot that
+     * moves on without going idle, e.g. a session opening its next operation).
+     */
+    static WaitStrategy spinYieldPark(int spins, int yields, long parkNanos) {
+        if (spins < 0 || yields < 0 || parkNanos <= 0) {
+            throw new IllegalArgumentException("spins and yields must be >= 0, parkNanos > 0");
+        }
+        return new WaitStrategy() {
+            @Override
+            public void pause(int attempt) {
+                if (attempt < spins) Thread.onSpinWait();
+                else if (attempt < spins + yields) Thread.yield();
+                else LockSupport.parkNanos(this, parkNanos);
+            }
+
+            @Override
+            public boolean parks() {
+                return true;
+            }
+
+            @Override
+            public String toString() {
+                return "spin(" + spins + ")-yield(" + yields + ")-park(" + parkNanos / 1000 + " us)";
+            }
+        };
+    }
+
+    /** Timed parks doubling from minNanos up to maxNanos, no wake-up signal. */
+    static WaitStrategy backoff(long minNanos, long maxNanos) {
+        if (minNanos <= 0 || maxNanos < minNanos) {
+            throw new IllegalArgumentException("need 0 < minNanos <= maxNanos");
+        }
+        return new WaitStrategy() {
+            @Override
+            public void pause(int attempt) {
+                int shift = Math.min(attempt, Long.numberOfLeadingZeros(minNanos) - 1);  // No overflow
+                LockSupport.parkNanos(this, Math.min(maxNanos, minNanos << shift));
+            }
+
+            @Override
+            public String toString() {
+                return "backoff(" + minNanos / 1000 + "-" + maxNanos / 1000 + " us)";
+            }
+        };
+    }
+}
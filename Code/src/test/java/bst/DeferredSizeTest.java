@@ -0,0 +1,136 @@
+package bst;
+
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test for MyBSTnext with deferred size deltas (fast-path updates log their fastSize deltas,
+ * the handshake merges them). Checks that size/rank/select stay exact after the merge, including
+ * deltas left behind by threads and sessions that are gone.
+ */
+public class DeferredSizeTest {
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Testing deferred size deltas ===\n");
+
+        testSequential();
+        testConcurrentWithQueries();
+        testDeadThreadsDeltas();
+        testSessionDeltas();
+        testRebalancing();
+
+        System.out.println("\n=== ALL DEFERRED SIZE TESTS PASSED ===");
+    }
+
+    static void testSequential() {
+        System.out.println("Test 1: Sequential updates, more than a full log");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>(true);
+
+        for (int i = 0; i < 5000; i++) bst.put(i, i);
+        for (int i = 0; i < 5000; i += 5) bst.remove(i);
+
+        int size = bst.sizeSnapshot();
+        assert size == 4000 : "Expected size 4000, got " + size;
+        assert bst.rank(1) == 1 : "Unexpected rank for 1";
+        assert bst.rank(4999) == 4000 : "Unexpected rank for 4999, got " + bst.rank(4999);
+        assert bst.select(4) == 4 : "Unexpected select(4), got " + bst.select(4);
+        assert bst.select(5) == 6 : "Unexpected select(5), got " + bst.select(5);
+
+        // Updates after a query are logged again and merged by the next one
+        for (int i = 5000; i < 5100; i++) bst.put(i, i);
+        size = bst.sizeSnapshot();
+        assert size == 4100 : "Expected size 4100, got " + size;
+        System.out.println("✓ Size " + size + ", rank and select exact");
+    }
+
+    static void testConcurrentWithQueries() throws Exception {
+        System.out.println("\nTest 2: Concurrent updaters with periodic size queries");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>(true);
+        int numThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads + 1);
+        CountDownLatch done = new CountDownLatch(numThreads);
+        AtomicBoolean stop = new AtomicBoolean(false);
+
+        for (int t = 0; t < numThreads; t++) {
+            final int seed = t;
+            executor.submit(() -> {
+                Random rand = new Random(seed);
+                try {
+                    for (int i = 0; i < 20000; i++) {
+                        int key = rand.nextInt(4000);
+                        if (rand.nextInt(10) < 6) bst.put(key, key);
+                        else bst.remove(key);
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        executor.submit(() -> {
+            while (!stop.get()) {
+                assert bst.sizeSnapshot() >= 0 : "Size should be non-negative";
+                Thread.yield();
+            }
+        });
+
+        done.await();
+        stop.set(true);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        int structural = bst.sizeStructural();
+        int size = bst.sizeSnapshot();
+        assert size == structural : "Snapshot size " + size + " != structural size " + structural;
+        System.out.println("✓ Size after merge = " + size);
+    }
+
+    static void testDeadThreadsDeltas() throws Exception {
+        System.out.println("\nTest 3: Deltas of threads that died before any query");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>(true);
+
+        for (int t = 0; t < 100; t++) {
+            final int base = t * 10;
+            Thread worker = new Thread(() -> {
+                for (int i = 0; i < 10; i++) bst.put(base + i, base + i);
+            });
+            worker.start();
+            worker.join();
+        }
+
+        int size = bst.sizeSnapshot();
+        assert size == 1000 : "Expected size 1000, got " + size;
+        System.out.println("✓ Size = " + size);
+    }
+
+    static void testSessionDeltas() {
+        System.out.println("\nTest 4: Deltas logged in a closed session's slot");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>(true);
+
+        try (MyBSTnext<Integer, Integer>.Session session = bst.openSession()) {
+            for (int i = 0; i < 300; i++) session.put(i, i);
+            session.remove(0);
+        }
+
+        int size = bst.sizeSnapshot();
+        assert size == 299 : "Expected size 299, got " + size;
+        System.out.println("✓ Size = " + size);
+    }
+
+    static void testRebalancing() {
+        System.out.println("\nTest 5: Rebalancing while fastSize lags the deferred deltas");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>(true, true);
+        int seq = 20000;
+        long start = System.nanoTime();
+        for (int i = 0; i < seq; i++) bst.put(i, i);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        int depth = bst.shapeReport().maxDepth();
+        int depthLimit = (int) (Math.log(seq) / Math.log(1 / MyBSTnext.ALPHA)) + 4;
+        assert depth <= depthLimit : "Rebalanced depth " + depth + " exceeds " + depthLimit;
+        int size = bst.sizeSnapshot();
+        assert size == seq && bst.sizeStructural() == seq : "Expected size " + seq + ", got " + size;
+        assert bst.rank(seq - 1) == seq && bst.select(1) == 0 : "rank/select after rebalancing";
+        System.out.println("✓ " + seq + " sequential keys in " + elapsedMs + " ms, depth " + depth + " | " + bst.getRebalanceStats());
+    }
+}
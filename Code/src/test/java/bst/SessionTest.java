@@ -0,0 +1,105 @@
+package bst;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Test for MyBSTnext sessions (explicit announcement slots).
+ * Checks basic operations, concurrent sessions with aggregate queries, and a session
+ * handed from thread to thread (as a virtual thread would be remounted on carriers).
+ */
+public class SessionTest {
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Testing MyBSTnext sessions ===\n");
+
+        testBasicSession();
+        testConcurrentSessions();
+        testSessionHandoff();
+
+        System.out.println("\n=== ALL SESSION TESTS PASSED ===");
+    }
+
+    static void testBasicSession() {
+        System.out.println("Test 1: Basic session operations");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+
+        try (MyBSTnext<Integer, String>.Session session = bst.openSession()) {
+            assert bst.handshake().registry().scanLimit() == 1 : "Session should lease one slot";
+            assert session.put(5, "five") == null : "Failed to insert 5";
+            assert session.putIfAbsent(3, "three") == null : "Failed to insert 3";
+            assert "five".equals(session.putIfAbsent(5, "FIVE")) : "putIfAbsent must keep existing value";
+            assert "five".equals(session.get(5)) : "Failed to get 5";
+            assert "three".equals(session.remove(3)) : "Failed to remove 3";
+            assert !session.containsKey(3) : "Key 3 still exists after remove";
+        }
+        assert bst.handshake().registry().scanLimit() == 0 : "Closing the session should release its slot";
+        assert bst.sizeSnapshot() == 1 : "Expected size 1, got " + bst.sizeSnapshot();
+        System.out.println("✓ Session operations working, slot released on close");
+    }
+
+    static void testConcurrentSessions() throws Exception {
+        System.out.println("\nTest 2: Concurrent sessions with rank/size queries");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>();
+        int numThreads = 8;
+        int insertsPerThread = 2000;
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads + 1);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        AtomicBoolean stop = new AtomicBoolean(false);
+
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try (MyBSTnext<Integer, Integer>.Session session = bst.openSession()) {
+                    for (int i = 0; i < insertsPerThread; i++) {
+                        int key = threadId * insertsPerThread + i;
+                        session.put(key, key);
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        executor.submit(() -> {
+            while (!stop.get()) {
+                assert bst.sizeSnapshot() >= 0 : "Size should be non-negative";
+                bst.rank(0);
+            }
+        });
+
+        latch.await();
+        stop.set(true);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < numThreads * insertsPerThread; i++) {
+            assert bst.get(i) != null : "Key " + i + " should exist";
+        }
+        System.out.println("✓ Inserted " + (numThreads * insertsPerThread) + " keys through sessions");
+    }
+
+    static void testSessionHandoff() throws Exception {
+        System.out.println("\nTest 3: One session carried across pool threads");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try (MyBSTnext<Integer, Integer>.Session session = bst.openSession()) {
+            for (int batch = 0; batch < 50; batch++) {
+                final int base = batch * 100;
+                // Each batch may run on a different pool thread, one at a time
+                executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) session.put(base + i, base + i);
+                }).get();
+                assert bst.rank(base) == base + 1 : "Unexpected rank for " + base;
+            }
+            int scanLimit = bst.handshake().registry().scanLimit();
+            assert scanLimit == 1 : "Pool threads must not lease slots of their own, scan limit " + scanLimit;
+        }
+        executor.shutdown();
+
+        int size = bst.sizeSnapshot();
+        assert size == 5000 : "Expected size 5000, got " + size;
+        System.out.println("✓ Session handed across threads, size = " + size);
+    }
+}
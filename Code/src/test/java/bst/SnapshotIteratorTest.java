@@ -0,0 +1,150 @@
+package bst;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Test for snapshot iteration (keyIterator, descendingKeyIterator, keySpliterator) on
+ * MyBSTnext, MyBSTnextLong and MyBSTBaseline. Checks order and contents, parallel streams,
+ * and that a scan taken while other threads insert is a snapshot: each inserter adds its
+ * keys in increasing order, so any snapshot must hold a prefix of every inserter's keys.
+ */
+public class SnapshotIteratorTest {
+
+    static final int INSERTERS = 4;
+    static final int KEYS_PER_INSERTER = 5000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Testing snapshot iteration ===\n");
+
+        testSequential();
+        testLongKeys();
+        testSnapshotUnderInserts();
+
+        System.out.println("\n=== ALL SNAPSHOT ITERATION TESTS PASSED ===");
+    }
+
+    static void testSequential() {
+        System.out.println("Test 1: Ascending, descending and parallel scans");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>();
+        MyBSTBaseline<Integer, Integer> baseline = new MyBSTBaseline<>();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random rand = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            int key = rand.nextInt(20000);
+            bst.put(key, key);
+            baseline.put(key, key);
+            expected.add(key);
+        }
+        for (int i = 0; i < 2000; i++) {
+            int key = rand.nextInt(20000);
+            bst.remove(key);
+            baseline.remove(key);
+            expected.remove(key);
+        }
+        bst.sizeSnapshot();  // Leave some changes on the slow path, some behind forwarding pointers
+        for (int i = 0; i < 1000; i++) {
+            int key = rand.nextInt(20000);
+            if (rand.nextBoolean()) { bst.put(key, key); baseline.put(key, key); expected.add(key); }
+            else { bst.remove(key); baseline.remove(key); expected.remove(key); }
+        }
+
+        List<Integer> ascending = new ArrayList<>(expected);
+        List<Integer> descending = new ArrayList<>(expected.descendingSet());
+
+        assert toList(bst.keyIterator()).equals(ascending) : "MyBSTnext ascending scan differs";
+        assert toList(bst.descendingKeyIterator()).equals(descending) : "MyBSTnext descending scan differs";
+        assert bst.keyStream(true).collect(Collectors.toList()).equals(ascending) : "MyBSTnext parallel scan differs";
+        assert bst.keySpliterator().getExactSizeIfKnown() == expected.size() : "MyBSTnext spliterator size";
+
+        assert toList(baseline.keyIterator()).equals(ascending) : "Baseline ascending scan differs";
+        assert toList(baseline.descendingKeyIterator()).equals(descending) : "Baseline descending scan differs";
+        assert baseline.keyStream(true).collect(Collectors.toList()).equals(ascending) : "Baseline parallel scan differs";
+        assert baseline.keySpliterator().getExactSizeIfKnown() == expected.size() : "Baseline spliterator size";
+        Spliterator<Integer> split = baseline.keySpliterator();
+        Spliterator<Integer> prefix = split.trySplit();
+        assert prefix != null && prefix.estimateSize() + split.estimateSize() == expected.size() : "Baseline split sizes";
+
+        System.out.println("✓ " + expected.size() + " keys, all scans match");
+    }
+
+    static void testLongKeys() {
+        System.out.println("\nTest 2: MyBSTnextLong scans");
+        MyBSTnextLong<Integer> bst = new MyBSTnextLong<>();
+        TreeSet<Long> expected = new TreeSet<>();
+        for (long key : new long[] {Long.MIN_VALUE, -5, 0, 3, 42, 1000, MyBSTnextLong.INF - 1}) {
+            bst.put(key, 1);
+            expected.add(key);
+        }
+        bst.remove(3);
+        expected.remove(3L);
+
+        List<Long> ascending = new ArrayList<>(expected);
+        List<Long> descending = new ArrayList<>(expected.descendingSet());
+        assert toList(bst.keyIterator()).equals(ascending) : "Ascending scan differs";
+        assert toList(bst.descendingKeyIterator()).equals(descending) : "Descending scan differs";
+        assert bst.keyStream(true).boxed().collect(Collectors.toList()).equals(ascending) : "Parallel scan differs";
+        System.out.println("✓ Scans match, INF sentinels skipped");
+    }
+
+    static void testSnapshotUnderInserts() throws Exception {
+        System.out.println("\nTest 3: Scans while " + INSERTERS + " threads insert in increasing order");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>();
+        MyBSTBaseline<Integer, Integer> baseline = new MyBSTBaseline<>();
+        ExecutorService executor = Executors.newFixedThreadPool(INSERTERS);
+        CountDownLatch finished = new CountDownLatch(INSERTERS);
+
+        for (int t = 0; t < INSERTERS; t++) {
+            final int inserter = t;
+            executor.submit(() -> {
+                try {
+                    // Keys of inserter t are t, t + INSERTERS, t + 2 * INSERTERS, ...
+                    for (int i = 0; i < KEYS_PER_INSERTER; i++) {
+                        int key = inserter + i * INSERTERS;
+                        bst.put(key, key);
+                        baseline.put(key, key);
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+
+        int scans = 0;
+        while (finished.getCount() > 0) {
+            checkPrefixes(toList(bst.keyIterator()), "MyBSTnext");
+            checkPrefixes(bst.keyStream(true).collect(Collectors.toList()), "MyBSTnext parallel");
+            checkPrefixes(toList(baseline.keyIterator()), "Baseline");
+            scans++;
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        int total = INSERTERS * KEYS_PER_INSERTER;
+        assert toList(bst.keyIterator()).size() == total : "Final MyBSTnext scan incomplete";
+        assert toList(baseline.keyIterator()).size() == total : "Final baseline scan incomplete";
+        System.out.println("✓ " + scans + " concurrent scans were sorted prefixes of every inserter");
+    }
+
+    // Sorted, distinct, and for every inserter the keys seen are its first n keys
+    static void checkPrefixes(List<Integer> keys, String name) {
+        int[] seen = new int[INSERTERS];
+        int previous = Integer.MIN_VALUE;
+        for (int key : keys) {
+            assert key > previous : name + " scan not strictly ascending at " + key;
+            previous = key;
+            seen[key % INSERTERS]++;
+        }
+        for (int key : keys) {
+            int inserter = key % INSERTERS;
+            assert key / INSERTERS < seen[inserter] : name + " scan holds " + key + " but misses an earlier key of inserter " + inserter;
+        }
+    }
+
+    static <T> List<T> toList(Iterator<T> it) {
+        List<T> list = new ArrayList<>();
+        it.forEachRemaining(list::add);
+        return list;
+    }
+}
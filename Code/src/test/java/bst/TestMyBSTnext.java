@@ -78,8 +78,228 @@ public class TestMyBSTnext {
         assert key3 == 7 : "Expected 7, got " + key3;
         System.out.println("✓ Rank/Select after delete working");
         
+        // Test 7: Range count, bounds present or not, against MyBSTBaseline
+        System.out.println("\nTest 7: Range count");
+        MyBSTBaseline<Integer, String> baseline = new MyBSTBaseline<>();
+        for (int k : new int[] {1, 3, 7, 9}) baseline.putIfAbsent(k, "v" + k);
+        int[][] ranges = {{1, 9, 4}, {2, 8, 2}, {4, 6, 0}, {0, 100, 4}, {3, 3, 1}, {8, 2, 0}, {-5, 1, 1}};
+        for (int[] r : ranges) {
+            int count = bst.rangeCount(r[0], r[1]);
+            int baselineCount = baseline.rangeCount(r[0], r[1]);
+            assert count == r[2] : "rangeCount(" + r[0] + ", " + r[1] + ") expected " + r[2] + ", got " + count;
+            assert baselineCount == r[2] : "Baseline rangeCount(" + r[0] + ", " + r[1] + ") expected " + r[2] + ", got " + baselineCount;
+        }
+        System.out.println("rangeCount(2, 8): " + bst.rangeCount(2, 8) + " (expected 2)");
+        System.out.println("✓ Range count working");
+        
+        // Test 8: Neighbour queries against TreeSet, on the fast path and on the Version tree
+        System.out.println("\nTest 8: Neighbour queries");
+        MyBSTnext<Integer, Integer> nbst = new MyBSTnext<>();
+        java.util.TreeSet<Integer> expected = new java.util.TreeSet<>();
+        assert nbst.firstKey() == null && nbst.lastKey() == null && nbst.floorKey(5) == null : "Empty tree has no neighbours";
+        java.util.Random rand = new java.util.Random(11);
+        for (int i = 0; i < 500; i++) {
+            int k = rand.nextInt(2000);
+            nbst.put(k, k);
+            expected.add(k);
+        }
+        for (int i = 0; i < 200; i++) {
+            int k = rand.nextInt(2000);
+            nbst.remove(k);
+            expected.remove(k);
+        }
+        checkNeighbours(nbst, expected, "fast path");
+        long phase = nbst.handshake().enterSlowPath();  // Phase 2 from here: Version tree, fast-path changes behind forwarding pointers
+        try {
+            checkNeighbours(nbst, expected, "Version tree");
+            for (int k : expected) assert nbst.get(k) != null : "get(" + k + ") misses a fast-path insert on the Version tree";
+        } finally {
+            nbst.handshake().exitSlowPath(phase);
+        }
+        System.out.println("floorKey(1000): " + nbst.floorKey(1000) + " (expected " + expected.floor(1000) + ")");
+        System.out.println("✓ Neighbour queries working");
+        
+        // Test 9: Bulk load (forked: more keys than one sequential range), then regular updates
+        System.out.println("\nTest 9: Bulk load");
+        int n = 10_000;
+        Integer[] sortedKeys = new Integer[n];
+        for (int i = 0; i < n; i++) sortedKeys[i] = 2 * i;  // Even keys, odd ones stay free for inserts
+        MyBSTnext<Integer, Integer> loaded = MyBSTnext.bulkLoad(sortedKeys, sortedKeys);
+        MyBSTBaseline<Integer, Integer> loadedBaseline = MyBSTBaseline.bulkLoad(sortedKeys, sortedKeys);
+        assert loaded.sizeSnapshot() == n : "Bulk-loaded size expected " + n + ", got " + loaded.sizeSnapshot();
+        assert loadedBaseline.sizeSnapshot() == n : "Bulk-loaded baseline size expected " + n + ", got " + loadedBaseline.sizeSnapshot();
+        assert loaded.sizeStructural() == n : "Bulk-loaded structure holds " + loaded.sizeStructural() + " keys";
+        for (int i = 0; i < n; i += 97) {
+            assert loaded.get(2 * i) == 2 * i : "get(" + (2 * i) + ") after bulk load";
+            assert loaded.rank(2 * i) == i + 1 : "rank(" + (2 * i) + ") expected " + (i + 1) + ", got " + loaded.rank(2 * i);
+            assert loaded.select(i + 1) == 2 * i : "select(" + (i + 1) + ") after bulk load";
+            assert loadedBaseline.rank(2 * i) == i + 1 : "Baseline rank(" + (2 * i) + ") after bulk load";
+        }
+        assert loaded.firstKey() == 0 && loaded.lastKey() == 2 * (n - 1) : "Bulk-loaded first/last keys";
+        loaded.put(1, 1);
+        loaded.remove(0);
+        loadedBaseline.put(1, 1);
+        loadedBaseline.remove(0);
+        assert loaded.sizeSnapshot() == n && loaded.rank(1) == 1 && loaded.rank(2) == 2 : "Updates after bulk load";
+        assert loadedBaseline.sizeSnapshot() == n && loadedBaseline.rank(2) == 2 : "Baseline updates after bulk load";
+        assert MyBSTnext.bulkLoad(new Integer[0], new Integer[0]).sizeSnapshot() == 0 : "Empty bulk load";
+        boolean rejected = false;
+        try {
+            MyBSTnext.bulkLoad(new Integer[] {1, 3, 2}, new Integer[] {1, 3, 2});
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assert rejected : "Unsorted keys must be rejected";
+        System.out.println("Bulk-loaded " + n + " keys, rank(2000): " + loaded.rank(2000) + " (expected 1001)");
+        System.out.println("✓ Bulk load working");
+        
+        // Test 10: Sorted-batch putAll: new keys, replaced values, groups on several leaves
+        System.out.println("\nTest 10: Sorted-batch putAll");
+        MyBSTnext<Integer, String> batched = new MyBSTnext<>();
+        java.util.TreeMap<Integer, String> model = new java.util.TreeMap<>();
+        for (int k : new int[] {100, 300, 500}) {
+            batched.put(k, "old" + k);
+            model.put(k, "old" + k);
+        }
+        java.util.TreeMap<Integer, String> batch = new java.util.TreeMap<>();
+        for (int k = 0; k <= 600; k += 20) batch.put(k, "new" + k);  // Covers 100, 300 and 500 too
+        batched.putAll(batch);
+        model.putAll(batch);
+        assert batched.sizeSnapshot() == model.size() : "putAll size expected " + model.size() + ", got " + batched.sizeSnapshot();
+        for (java.util.Map.Entry<Integer, String> e : model.entrySet()) {
+            assert e.getValue().equals(batched.get(e.getKey())) : "get(" + e.getKey() + ") after putAll";
+            assert batched.rank(e.getKey()) == model.headMap(e.getKey()).size() + 1 : "rank(" + e.getKey() + ") after putAll";
+        }
+        batched.putAll(new Integer[] {1, 2, 3}, new String[] {"a", "b", "c"});
+        assert batched.sizeSnapshot() == model.size() + 3 && batched.select(2) == 1 : "putAll of arrays";
+        rejected = false;
+        try {
+            batched.putAll(new Integer[] {7, 5}, new String[] {"x", "y"});
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        assert rejected && batched.get(7) == null : "Unsorted batch must be rejected before any install";
+        System.out.println("putAll of " + batch.size() + " keys, size: " + batched.sizeSnapshot() + " (expected " + (model.size() + 3) + ")");
+        System.out.println("✓ Sorted-batch putAll working");
+        
+        // Test 11: Rebalancing keeps sequential inserts O(log n) deep, on both paths
+        System.out.println("\nTest 11: Rebalancing");
+        MyBSTnext<Integer, Integer> plain = new MyBSTnext<>();
+        MyBSTnext<Integer, Integer> balanced = new MyBSTnext<>(false, true);
+        int seq = 4096;
+        for (int i = 0; i < seq / 2; i++) {
+            plain.put(i, i);
+            balanced.put(i, i);
+        }
+        long slowPhase = balanced.handshake().enterSlowPath();  // Second half on the slow path
+        try {
+            for (int i = seq / 2; i < seq; i++) balanced.put(i, i);
+        } finally {
+            balanced.handshake().exitSlowPath(slowPhase);
+        }
+        for (int i = 0; i < seq; i += 3) balanced.remove(i);
+        int expectedBalanced = seq - (seq + 2) / 3;
+        int plainDepth = plain.shapeReport().maxDepth();
+        int balancedDepth = balanced.shapeReport().maxDepth();
+        int depthLimit = (int) (Math.log(seq) / Math.log(1 / MyBSTnext.ALPHA)) + 4;
+        assert plainDepth >= seq / 2 : "Sequential inserts without rebalancing should degenerate, depth " + plainDepth;
+        assert balancedDepth <= depthLimit : "Rebalanced depth " + balancedDepth + " exceeds " + depthLimit;
+        assert balanced.sizeSnapshot() == expectedBalanced && balanced.sizeStructural() == expectedBalanced : "Rebalanced size";
+        for (int i = 0; i < seq; i++) {
+            assert (balanced.get(i) != null) == (i % 3 != 0) : "get(" + i + ") after rebalancing";
+        }
+        assert balanced.rank(4094) == expectedBalanced && balanced.select(1) == 1 : "rank/select after rebalancing";
+        System.out.println("Depth for " + (seq / 2) + " sequential keys: " + plainDepth + ", rebalanced " + seq + " keys: " + balancedDepth);
+        System.out.println(balanced.getRebalanceStats());
+        System.out.println("✓ Rebalancing working");
+        
+        // Test 12: Shape report on a perfect tree and on a degenerate one, against the baseline
+        System.out.println("\nTest 12: Shape report");
+        Integer[] eight = {10, 20, 30, 40, 50, 60, 70, 80};
+        ShapeReport perfect = MyBSTnext.bulkLoad(eight, eight).shapeReport();
+        assert perfect.leaves() == 8 && perfect.sentinels() == 2 && perfect.internalNodes() == 9 : perfect.toString();
+        assert perfect.maxDepth() == 5 && perfect.meanDepth() == 5.0 && perfect.depthHistogram()[5] == 8 : perfect.toString();
+        assert perfect.maxImbalance() == 0 : perfect.toString();
+        MyBSTnext<Integer, Integer> degenerate = new MyBSTnext<>();
+        MyBSTBaseline<Integer, Integer> degenerateBaseline = new MyBSTBaseline<>();
+        int chain = 5000;
+        for (int i = 0; i < chain; i++) {
+            degenerate.put(i, i);
+            degenerateBaseline.put(i, i);
+        }
+        ShapeReport shape = degenerate.shapeReport();
+        ShapeReport baselineShape = degenerateBaseline.shapeReport();
+        assert shape.leaves() == chain && shape.maxDepth() == chain + 1 : shape.maxDepth() + " " + shape.leaves();
+        assert shape.maxImbalance() == chain - 2 && Integer.valueOf(1).equals(shape.maxImbalanceKey()) : shape.maxImbalance() + " at " + shape.maxImbalanceKey();
+        assert java.util.Arrays.equals(shape.depthHistogram(), baselineShape.depthHistogram()) : "Baseline shape differs";
+        assert shape.toCsv().equals(baselineShape.toCsv()) : shape.toCsv() + " vs " + baselineShape.toCsv();
+        System.out.println(ShapeReport.CSV_HEADER + " -> " + shape.toCsv());
+        System.out.println("✓ Shape report working");
+        
+        // Test 13: Batch rank/select against one call per key
+        System.out.println("\nTest 13: rankAll / selectAll");
+        MyBSTnext<Integer, Integer> board = new MyBSTnext<>();
+        for (int i = 0; i < 1000; i += 3) board.put(i, i);
+        for (int i = 0; i < 1000; i += 9) board.remove(i);
+        Integer[] probe = new Integer[500];
+        for (int i = 0; i < probe.length; i++) probe[i] = i * 2 - 1;  // Starts below the least key
+        int[] ranks = board.rankAll(probe);
+        for (int i = 0; i < probe.length; i++) {
+            assert ranks[i] == board.rank(probe[i]) : "rankAll(" + probe[i] + ") = " + ranks[i] + ", rank = " + board.rank(probe[i]);
+        }
+        int[] positions = {-1, 0, 1, 1, 2, 50, 100, 221, 222, 223, 5000};
+        java.util.List<Integer> selected = board.selectAll(positions);
+        for (int i = 0; i < positions.length; i++) {
+            assert java.util.Objects.equals(selected.get(i), board.select(positions[i])) : "selectAll(" + positions[i] + ") = " + selected.get(i);
+        }
+        assert board.sizeSnapshot() == 222 && selected.get(8) != null && selected.get(9) == null;
+        assert board.rankAll(new Integer[0]).length == 0 && board.selectAll(new int[0]).isEmpty();
+        try {
+            board.rankAll(new Integer[] {5, 3});
+            assert false : "Unsorted keys accepted";
+        } catch (IllegalArgumentException e) {
+        }
+        System.out.println("✓ rankAll/selectAll match rank/select");
+        
+        // Test 14: Combined size agrees with sizeSnapshot when uncontended
+        System.out.println("\nTest 14: sizeCombined");
+        assert board.sizeCombined() == board.sizeSnapshot() : "sizeCombined " + board.sizeCombined();
+        board.put(-10, -10);
+        assert board.sizeCombined() == 223 : "sizeCombined " + board.sizeCombined();
+        assert new MyBSTnext<Integer, Integer>().sizeCombined() == 0;
+        System.out.println("✓ sizeCombined working");
+        
+        // Test 15: Lingering mode policy keeps slow mode between queries until updates dominate
+        System.out.println("\nTest 15: Mode policy");
+        MyBSTnext<Integer, Integer> moded = new MyBSTnext<>();
+        moded.setModePolicy(new LingeringModePolicy(10_000_000_000L, 5));
+        moded.put(1, 1);
+        moded.sizeSnapshot();
+        moded.sizeSnapshot();  // Quick second query: its exit lingers
+        long handshakes = moded.totalHandshakes.get();
+        assert moded.sizeSnapshot() == 1 : "size while lingering";
+        assert moded.totalHandshakes.get() == handshakes : "Query paid a switch while lingering";
+        for (int i = 2; i <= 7; i++) moded.put(i, i);  // The sixth slow update ends the linger
+        assert moded.get(7) == 7 && moded.sizeSnapshot() == 7;
+        assert moded.totalHandshakes.get() == handshakes + 2 : "Expected one switch back to slow mode";
+        moded.setModePolicy(ModePolicy.EAGER);
+        moded.remove(7);
+        assert moded.sizeSnapshot() == 6 && moded.rank(6) == 6;
+        System.out.println(moded.getModeStats());
+        System.out.println("✓ Mode policy working");
+        
         System.out.println("\n=== ALL TESTS PASSED ===");
         System.out.println(bst.getProfilingStats());
     }
-}
 
+    static void checkNeighbours(MyBSTnext<Integer, Integer> bst, java.util.TreeSet<Integer> expected, String where) {
+        assert java.util.Objects.equals(bst.firstKey(), expected.first()) : "firstKey differs on " + where;
+        assert java.util.Objects.equals(bst.lastKey(), expected.last()) : "lastKey differs on " + where;
+        for (int k = -1; k <= 2001; k++) {
+            assert java.util.Objects.equals(bst.floorKey(k), expected.floor(k)) : "floorKey(" + k + ") differs on " + where;
+            assert java.util.Objects.equals(bst.lowerKey(k), expected.lower(k)) : "lowerKey(" + k + ") differs on " + where;
+            assert java.util.Objects.equals(bst.ceilingKey(k), expected.ceiling(k)) : "ceilingKey(" + k + ") differs on " + where;
+            assert java.util.Objects.equals(bst.higherKey(k), expected.higher(k)) : "higherKey(" + k + ") differs on " + where;
+        }
+    }
+}
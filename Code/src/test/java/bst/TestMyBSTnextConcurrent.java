@@ -13,6 +13,18 @@ public class TestMyBSTnextConcurrent {
         testConcurrentMixed();
         testConcurrentQueriesWithUpdates();
         testStressTest();
+        testConcurrentPutAll();
+        testConcurrentRebalancing();
+        testConcurrentBatchQueries();
+        testConcurrentCombinedSize();
+        testParkingWaitStrategy();
+        testGroupedHandshake();
+        testStalledUpdateHelping();
+        testReaderAdmission();
+        testPhaseAwareHelping();
+        testOptimisticQueries();
+        testApproximateQueries();
+        testNeighbourQueries();
         
         System.out.println("\n=== ALL CONCURRENT TESTS PASSED ===");
     }
@@ -255,4 +267,707 @@ public class TestMyBSTnextConcurrent {
         System.out.println("✓ Stress test completed: " + totalOps.get() + " total ops (" + opsPerSecond + " ops/sec)");
         System.out.println("  Final size: " + bst.sizeSnapshot());
     }
+    
+    static void testConcurrentPutAll() throws Exception {
+        System.out.println("\nTest 5: Concurrent sorted-batch putAll with puts and size queries");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        int numThreads = 4;
+        int batches = 50;
+        int batchSize = 200;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads + 1);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicInteger errors = new AtomicInteger(0);
+        
+        // Threads own interleaved residues, so their batches land on the same leaves
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try {
+                    for (int b = 0; b < batches; b++) {
+                        Integer[] keys = new Integer[batchSize];
+                        String[] values = new String[batchSize];
+                        for (int i = 0; i < batchSize; i++) {
+                            keys[i] = ((b * batchSize + i) * numThreads) + threadId;
+                            values[i] = "value" + keys[i];
+                        }
+                        if (b % 2 == 0) {
+                            bst.putAll(keys, values);
+                        } else {
+                            for (int i = 0; i < batchSize; i++) bst.put(keys[i], values[i]);
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        executor.submit(() -> {
+            int last = 0;
+            while (!stop.get()) {
+                int size = bst.sizeSnapshot();  // Keys are only added: size never goes back
+                if (size < last) errors.incrementAndGet();
+                last = size;
+            }
+        });
+        
+        latch.await();
+        stop.set(true);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        
+        int expectedSize = numThreads * batches * batchSize;
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        assert bst.sizeSnapshot() == expectedSize : "Expected " + expectedSize + " but got " + bst.sizeSnapshot();
+        assert bst.sizeStructural() == expectedSize : "Structure holds " + bst.sizeStructural() + " keys";
+        for (int i = 0; i < expectedSize; i += 101) {
+            assert bst.rank(i) == i + 1 : "rank(" + i + ") expected " + (i + 1) + ", got " + bst.rank(i);
+        }
+        System.out.println("✓ Installed " + expectedSize + " keys through putAll and put, size = " + bst.sizeSnapshot());
+    }
+    
+    static void testConcurrentRebalancing() throws Exception {
+        System.out.println("\nTest 6: Rebalancing under concurrent inserts, removes and queries");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>(false, true);
+        int numThreads = 4;
+        int keysPerThread = 5000;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads + 1);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicInteger errors = new AtomicInteger(0);
+        
+        // Ascending, interleaved keys; every fourth key is removed again right away
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try {
+                    for (int i = 0; i < keysPerThread; i++) {
+                        int key = i * numThreads + threadId;
+                        bst.put(key, "value" + key);
+                        if (key % 4 == 0) bst.remove(key);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        executor.submit(() -> {
+            Random rand = new Random(5);
+            while (!stop.get()) {
+                bst.sizeSnapshot();
+                bst.rank(rand.nextInt(numThreads * keysPerThread));
+            }
+        });
+        
+        latch.await();
+        stop.set(true);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        
+        int total = numThreads * keysPerThread;
+        int expectedSize = total - total / 4;
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        assert bst.sizeSnapshot() == expectedSize : "Expected " + expectedSize + " but got " + bst.sizeSnapshot();
+        assert bst.sizeStructural() == expectedSize : "Structure holds " + bst.sizeStructural() + " keys";
+        int rank = 0;
+        for (int key = 0; key < total; key++) {
+            boolean present = key % 4 != 0;
+            assert (bst.get(key) != null) == present : "get(" + key + ") after concurrent rebalancing";
+            if (present) {
+                rank++;
+                if (key % 97 == 1) assert bst.rank(key) == rank : "rank(" + key + ") expected " + rank + ", got " + bst.rank(key);
+            }
+        }
+        int depth = bst.shapeReport().maxDepth();
+        System.out.println("✓ " + expectedSize + " keys, depth " + depth + " | " + bst.getRebalanceStats());
+    }
+    
+    static void testConcurrentBatchQueries() throws Exception {
+        System.out.println("\nTest 7: rankAll/selectAll snapshots under concurrent updates");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        int range = 2000;
+        for (int i = 0; i < range; i += 2) bst.put(i, "value" + i);
+        
+        int numThreads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicInteger errors = new AtomicInteger(0);
+        
+        // Odd keys come and go, even keys stay
+        for (int t = 0; t < numThreads; t++) {
+            final int seed = t;
+            executor.submit(() -> {
+                try {
+                    Random rand = new Random(seed);
+                    while (!stop.get()) {
+                        int key = rand.nextInt(range / 2) * 2 + 1;
+                        if (rand.nextBoolean()) bst.put(key, "value" + key);
+                        else bst.remove(key);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        
+        Integer[] all = new Integer[range];
+        for (int i = 0; i < range; i++) all[i] = i;
+        int[] positions = new int[range + 1];
+        for (int i = 0; i < positions.length; i++) positions[i] = i + 1;
+        try {
+            for (int round = 0; round < 200; round++) {
+                // The found keys of one snapshot are ranked 1, 2, 3, ... without gaps
+                int[] ranks = bst.rankAll(all);
+                int expected = 0;
+                for (int i = 0; i < range; i++) {
+                    if (ranks[i] != -1) {
+                        assert ranks[i] == ++expected : "rank(" + i + ") = " + ranks[i] + ", expected " + expected;
+                    } else {
+                        assert i % 2 == 1 : "Even key " + i + " missing";
+                    }
+                }
+                // Selected keys ascend, and only positions past the snapshot size are empty
+                List<Integer> keys = bst.selectAll(positions);
+                int count = 0;
+                while (count < keys.size() && keys.get(count) != null) {
+                    assert count == 0 || keys.get(count - 1) < keys.get(count) : "select not ascending at " + (count + 1);
+                    count++;
+                }
+                for (int i = count; i < keys.size(); i++) assert keys.get(i) == null : "Gap at position " + count;
+                assert count >= range / 2 : "Only " + count + " keys selected";
+            }
+        } finally {
+            stop.set(true);
+        }
+        latch.await();
+        executor.shutdown();
+        
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        System.out.println("✓ 200 batch snapshots consistent");
+    }
+    
+    static void testConcurrentCombinedSize() throws Exception {
+        System.out.println("\nTest 8: Combined size callers under concurrent inserts");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        int numInserters = 2;
+        int insertsPerThread = 5000;
+        int numSizeThreads = 6;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numInserters + numSizeThreads);
+        CountDownLatch inserted = new CountDownLatch(numInserters);
+        CountDownLatch latch = new CountDownLatch(numSizeThreads);
+        AtomicInteger errors = new AtomicInteger(0);
+        
+        for (int t = 0; t < numInserters; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try {
+                    for (int i = 0; i < insertsPerThread; i++) {
+                        bst.put(i * numInserters + threadId, "value");
+                    }
+                } finally {
+                    inserted.countDown();
+                }
+            });
+        }
+        // Inserts only: a shared result must still never go backwards for any one caller
+        for (int t = 0; t < numSizeThreads; t++) {
+            executor.submit(() -> {
+                try {
+                    int last = 0;
+                    while (inserted.getCount() > 0) {
+                        int size = bst.sizeCombined();
+                        if (size < last || size > numInserters * insertsPerThread) {
+                            System.err.println("Size went from " + last + " to " + size);
+                            errors.incrementAndGet();
+                        }
+                        last = size;
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        
+        latch.await();
+        executor.shutdown();
+        
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        assert bst.sizeCombined() == numInserters * insertsPerThread : "Final size " + bst.sizeCombined();
+        System.out.println("✓ " + bst.getSizeCombiningStats());
+    }
+    
+    static void testParkingWaitStrategy() throws Exception {
+        System.out.println("\nTest 9: Parking handshake wait strategy with more updaters than cores");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        bst.setWaitStrategy(WaitStrategy.spinYieldPark(10, 2, 1_000_000));
+        int numThreads = Runtime.getRuntime().availableProcessors() * 4;
+        int insertsPerThread = 2000;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try {
+                    for (int i = 0; i < insertsPerThread; i++) {
+                        bst.put(i * numThreads + threadId, "value");
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        // Inserts only: sizes never go backwards
+        int last = 0, queries = 0;
+        while (latch.getCount() > 0) {
+            int size = bst.sizeSnapshot();
+            assert size >= last : "Size went from " + last + " to " + size;
+            last = size;
+            queries++;
+        }
+        executor.shutdown();
+        
+        int expectedSize = numThreads * insertsPerThread;
+        assert bst.sizeSnapshot() == expectedSize : "Expected " + expectedSize + " but got " + bst.sizeSnapshot();
+        System.out.println("✓ " + queries + " size queries alongside " + numThreads + " updaters, size = " + expectedSize);
+    }
+    
+    static void testGroupedHandshake() throws Exception {
+        System.out.println("\nTest 10: Hierarchical handshake, 8 slots per group, 3 groups of updaters");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        bst.setHandshakeGroupSize(8);
+        int numThreads = 20;
+        int opsPerThread = 3000;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        AtomicInteger errors = new AtomicInteger(0);
+        // Even threads insert their keys, odd threads insert then remove theirs
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try {
+                    for (int i = 0; i < opsPerThread; i++) {
+                        int key = i * numThreads + threadId;
+                        bst.put(key, "value");
+                        if (threadId % 2 == 1) bst.remove(key);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        int queries = 0;
+        while (latch.getCount() > 0) {
+            int size = bst.sizeSnapshot();
+            assert size >= 0 && size <= numThreads * opsPerThread : "Size " + size;
+            bst.rank(queries % 1000);
+            queries++;
+        }
+        executor.shutdown();
+        
+        int expectedSize = numThreads / 2 * opsPerThread;
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        assert bst.sizeSnapshot() == expectedSize : "Expected " + expectedSize + " but got " + bst.sizeSnapshot();
+        assert bst.sizeStructural() == expectedSize : "Structure holds " + bst.sizeStructural() + " keys";
+        try {
+            bst.setHandshakeGroupSize(16);
+            assert false : "Group size changed after use";
+        } catch (IllegalStateException e) {
+        }
+        System.out.println("✓ " + queries + " queries, size = " + expectedSize + " | " + bst.getProfilingStats());
+    }
+    
+    static void testStalledUpdateHelping() throws Exception {
+        System.out.println("\nTest 11: Handshake helping, a stalled updater and more updaters than cores");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        bst.setStalledUpdateHelping(1_000_000);
+        for (int i = 0; i < 100; i++) bst.put(i, "value");
+        
+        // A slot announcing a fast-path update whose thread never runs again
+        Handshake handshake = bst.handshake();
+        ThreadSlotRegistry.Slot stalled = handshake.leaseSlot(new Object());
+        handshake.setOpPhaseVolatile(stalled, Handshake.FAST_PHASE);
+        ExecutorService query = Executors.newSingleThreadExecutor();
+        Future<Integer> size = query.submit(bst::sizeSnapshot);
+        assert size.get(10, TimeUnit.SECONDS) == 100 : "Size " + size.get();
+        assert !handshake.claimFastPath(stalled) : "Revoked update claimed the fast path";
+        handshake.setOpPhaseIdle(stalled);
+        assert handshake.claimFastPath(stalled) : "Next update starts revoked";
+        handshake.releaseFastPath(stalled);
+        handshake.releaseSlot(stalled);
+        query.shutdown();
+        
+        // Ascending keys: rebuilds run alongside, their fast-path tail claimed after the swing only
+        bst = new MyBSTnext<>(false, true);
+        bst.setStalledUpdateHelping(50_000);
+        final MyBSTnext<Integer, String> tree = bst;
+        int numThreads = Runtime.getRuntime().availableProcessors() * 4 + 4;
+        int opsPerThread = 3000;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        AtomicInteger errors = new AtomicInteger(0);
+        // Even threads insert their keys, odd threads insert then remove theirs
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try {
+                    for (int i = 0; i < opsPerThread; i++) {
+                        int key = i * numThreads + threadId;
+                        tree.put(key, "value");
+                        if (threadId % 2 == 1) tree.remove(key);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        int queries = 0;
+        while (latch.getCount() > 0) {
+            int n = tree.sizeSnapshot();
+            assert n >= 0 && n <= numThreads * opsPerThread : "Size " + n;
+            tree.rank(queries % 1000);
+            queries++;
+        }
+        executor.shutdown();
+        
+        int expectedSize = (numThreads + 1) / 2 * opsPerThread;
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        assert tree.sizeSnapshot() == expectedSize : "Expected " + expectedSize + " but got " + tree.sizeSnapshot();
+        assert tree.sizeStructural() == expectedSize : "Structure holds " + tree.sizeStructural() + " keys";
+        try {
+            tree.setStalledUpdateHelping(0);
+            assert false : "Helping enabled after use";
+        } catch (IllegalStateException e) {
+        }
+        System.out.println("✓ " + queries + " queries alongside " + numThreads + " updaters | " + tree.getProfilingStats()
+            + " | " + tree.getRebalanceStats());
+    }
+    
+    static void testReaderAdmission() throws Exception {
+        System.out.println("\nTest 12: Overlapping queries join the slow epoch, the last one returns to fast");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        Handshake handshake = bst.handshake();
+        int numQueryThreads = 16;
+        int numUpdaters = 4;
+        int queriesPerThread = 2000;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numQueryThreads + numUpdaters);
+        CountDownLatch queriesDone = new CountDownLatch(numQueryThreads);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicInteger errors = new AtomicInteger(0);
+        for (int t = 0; t < numUpdaters; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                int i = 0;
+                while (running.get()) {
+                    int key = (i++ % 1000) * numUpdaters + threadId;
+                    bst.put(key, "value");
+                    bst.remove(key);
+                }
+            });
+        }
+        for (int t = 0; t < numQueryThreads; t++) {
+            executor.submit(() -> {
+                try {
+                    for (int i = 0; i < queriesPerThread; i++) {
+                        long entered = handshake.enterSlowPath();
+                        try {
+                            // Slow, or closing by a query that will find us and reopen it
+                            long phase = handshake.getQueriesPhase();
+                            if ((entered & 3) != 2 || (phase & 3) < 2) {
+                                System.err.println("Query inside phase " + phase + ", entered " + entered);
+                                errors.incrementAndGet();
+                            }
+                            if (i % 16 == 0) bst.sizeSnapshot();
+                        } finally {
+                            handshake.exitSlowPath(entered);
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    queriesDone.countDown();
+                }
+            });
+        }
+        queriesDone.await();
+        running.set(false);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        assert (handshake.getQueriesPhase() & 3) == 0 : "Phase " + handshake.getQueriesPhase() + " after the last query";
+        assert bst.sizeSnapshot() == 0 : "Size " + bst.sizeSnapshot();
+        System.out.println("✓ " + numQueryThreads * queriesPerThread + " queries | " + bst.getModeStats());
+    }
+    
+    static void testPhaseAwareHelping() throws Exception {
+        System.out.println("\nTest 13: Contended updates helping each other in both phases");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        int numThreads = 8;
+        int opsPerThread = 100000;
+        int keyRange = 64;  // Few keys: updates keep finding each other's descriptors
+        
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        AtomicInteger errors = new AtomicInteger(0);
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try {
+                    Random rnd = new Random(threadId);
+                    for (int i = 0; i < opsPerThread; i++) {
+                        int key = rnd.nextInt(keyRange);
+                        if (rnd.nextBoolean()) bst.put(key, "value");
+                        else bst.remove(key);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        // Occasional queries switch phases while helps are in flight
+        int queries = 0;
+        while (latch.getCount() > 0) {
+            int size = bst.sizeSnapshot();
+            assert size >= 0 && size <= keyRange : "Size " + size;
+            queries++;
+            Thread.sleep(1);
+        }
+        executor.shutdown();
+        
+        int size = bst.sizeSnapshot();
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        assert size == bst.sizeStructural() : "Size " + size + " but structure holds " + bst.sizeStructural();
+        for (int i = 1; i <= size; i++) {
+            Integer key = bst.select(i);
+            assert key != null && bst.rank(key) == i : "select(" + i + ") = " + key + ", rank " + (key == null ? -1 : bst.rank(key));
+        }
+        System.out.println("✓ " + queries + " queries, size = " + size + " | " + bst.getHelpingStats());
+    }
+
+    static void testOptimisticQueries() throws Exception {
+        System.out.println("\nTest 14: Optimistic queries validated against updates in between");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        bst.setOptimisticQueries(true);
+        int anchors = 500;  // Even keys 0, 2, ..., never removed; updaters toggle the odd keys
+        for (int i = 0; i < anchors; i++) bst.put(2 * i, "anchor");
+        
+        boolean rejected = false;
+        try {
+            bst.setOptimisticQueries(false);
+        } catch (IllegalStateException expected) {
+            rejected = true;
+        }
+        assert rejected : "Optimistic mode changed after the first operation";
+        rejected = false;
+        try {
+            new MyBSTnext<Integer, String>(true).setOptimisticQueries(true);
+        } catch (IllegalStateException expected) {
+            rejected = true;
+        }
+        assert rejected : "Optimistic mode accepted with deferred size deltas";
+        
+        // Begun count a few updates short of the sign bit: queries still validate past the wrap
+        MyBSTnext<Integer, String> wrapping = new MyBSTnext<>();
+        wrapping.setOptimisticQueries(true);
+        Handshake wrapHandshake = wrapping.handshake();
+        long begun = 1L << Handshake.IN_FLIGHT_BITS;
+        wrapHandshake.modifications.set((Long.MAX_VALUE & -begun) - 2 * begun);
+        for (int i = 0; i < 6; i++) {
+            wrapping.put(i, "wrap");
+            long hits = wrapHandshake.optimisticHits.sum();
+            assert wrapping.sizeSnapshot() == i + 1 : "Size after " + (i + 1) + " puts across the wrap";
+            assert wrapping.rank(i) == i + 1 : "rank(" + i + ") across the wrap";
+            assert wrapHandshake.optimisticHits.sum() == hits + 2 : "Query near the wrap took the slow path";
+        }
+        assert wrapHandshake.modifications.get() < 0 : "Begun count did not reach the sign bit";
+        
+        int numThreads = 4;
+        int opsPerThread = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        AtomicInteger errors = new AtomicInteger(0);
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try {
+                    Random rnd = new Random(threadId);
+                    for (int i = 0; i < opsPerThread; i++) {
+                        int key = 2 * rnd.nextInt(anchors) + 1;
+                        if (rnd.nextBoolean()) bst.put(key, "odd");
+                        else bst.remove(key);
+                        if (i % 100 == 0) Thread.sleep(1);  // Quiet windows for queries to validate in
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        // Anchor i has i anchors and at most i odd keys below it, and one odd key at most before the next
+        Random rnd = new Random(-1);
+        int queries = 0;
+        while (latch.getCount() > 0) {
+            int size = bst.sizeSnapshot();
+            assert size >= anchors && size <= 2 * anchors : "Size " + size;
+            int i = rnd.nextInt(anchors);
+            int rank = bst.rank(2 * i);
+            assert rank >= i + 1 && rank <= 2 * i + 1 : "rank(" + 2 * i + ") = " + rank;
+            int between = bst.rangeCount(2 * i, 2 * i + 2);
+            assert between == (i + 1 < anchors ? 2 : 1) || between == (i + 1 < anchors ? 3 : 2) : "rangeCount = " + between;
+            assert bst.select(1 + rnd.nextInt(anchors)) != null : "select within the anchors";
+            queries++;
+        }
+        executor.shutdown();
+        
+        int size = bst.sizeSnapshot();
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        assert size == bst.sizeStructural() : "Size " + size + " but structure holds " + bst.sizeStructural();
+        for (int i = 1; i <= size; i++) {
+            Integer key = bst.select(i);
+            assert key != null && bst.rank(key) == i : "select(" + i + ") = " + key + ", rank " + (key == null ? -1 : bst.rank(key));
+        }
+        System.out.println("✓ " + queries + " queries, size = " + size + " | " + bst.getOptimisticStats());
+    }
+
+    static void testApproximateQueries() throws Exception {
+        System.out.println("\nTest 15: Approximate queries within the overlapping updates of exact");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        int anchors = 500;  // Even keys 0, 2, ..., never removed; updaters toggle the odd keys
+        for (int i = 0; i < anchors; i++) bst.put(2 * i, "anchor");
+        
+        int numThreads = 4;
+        int opsPerThread = 50000;
+        // One update in flight per thread at each counter read, a descent may catch one twice
+        int slack = 4 * numThreads;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        AtomicInteger errors = new AtomicInteger(0);
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try {
+                    Random rnd = new Random(threadId);
+                    for (int i = 0; i < opsPerThread; i++) {
+                        int key = 2 * rnd.nextInt(anchors) + 1;
+                        if (rnd.nextBoolean()) bst.put(key, "odd");
+                        else bst.remove(key);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        // Anchor i has i anchors and at most i odd keys below it; select stays within the anchors
+        Random rnd = new Random(-1);
+        int queries = 0;
+        long handshakesBefore = bst.totalHandshakes.get();
+        while (latch.getCount() > 0) {
+            int size = bst.sizeApprox();
+            assert size >= anchors - slack && size <= 2 * anchors + slack : "sizeApprox " + size;
+            int i = rnd.nextInt(anchors);
+            int rank = bst.rankApprox(2 * i);
+            assert rank >= i + 1 - slack && rank <= 2 * i + 1 + slack : "rankApprox(" + 2 * i + ") = " + rank;
+            assert bst.selectApprox(1 + rnd.nextInt(anchors - slack)) != null : "selectApprox within the anchors";
+            queries++;
+        }
+        executor.shutdown();
+        assert bst.totalHandshakes.get() == handshakesBefore : "Approximate queries ran a handshake";
+        
+        int size = bst.sizeSnapshot();
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        assert bst.sizeApprox() == size : "sizeApprox " + bst.sizeApprox() + " but size " + size;
+        for (int i = 1; i <= size; i++) {
+            Integer key = bst.select(i);
+            assert key.equals(bst.selectApprox(i)) && bst.rankApprox(key) == i : "selectApprox(" + i + ") = " + bst.selectApprox(i) + ", select " + key;
+        }
+        System.out.println("✓ " + queries + " approximate queries, no handshake, exact once quiet, size = " + size);
+    }
+
+    static void testNeighbourQueries() throws Exception {
+        System.out.println("\nTest 16: Neighbour queries next to keys inserted and removed around them");
+        MyBSTnext<Integer, String> bst = new MyBSTnext<>();
+        int anchors = 200;  // Multiples of 4, never removed; updaters toggle the keys in between
+        for (int i = 0; i < anchors; i++) bst.put(4 * i, "anchor");
+        
+        int numThreads = 4;
+        int opsPerThread = 50000;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CountDownLatch latch = new CountDownLatch(numThreads);
+        AtomicInteger errors = new AtomicInteger(0);
+        for (int t = 0; t < numThreads; t++) {
+            final int threadId = t;
+            executor.submit(() -> {
+                try {
+                    Random rnd = new Random(threadId);
+                    for (int i = 0; i < opsPerThread; i++) {
+                        int key = 4 * rnd.nextInt(anchors) + 1 + rnd.nextInt(3);
+                        if (rnd.nextBoolean()) bst.put(key, "between");
+                        else bst.remove(key);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    errors.incrementAndGet();
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        // Between anchors 4i and 4i + 4 the answers can only be anchors or keys of the same gap
+        Random rnd = new Random(-1);
+        int queries = 0;
+        while (latch.getCount() > 0) {
+            int i = rnd.nextInt(anchors - 1);
+            int k = 4 * i + 1 + rnd.nextInt(3);
+            Integer floor = bst.floorKey(k), lower = bst.lowerKey(k);
+            Integer ceiling = bst.ceilingKey(k), higher = bst.higherKey(k);
+            assert floor != null && floor >= 4 * i && floor <= k : "floorKey(" + k + ") = " + floor;
+            assert lower != null && lower >= 4 * i && lower < k : "lowerKey(" + k + ") = " + lower;
+            assert ceiling != null && ceiling >= k && ceiling <= 4 * i + 4 : "ceilingKey(" + k + ") = " + ceiling;
+            assert higher != null && higher > k && higher <= 4 * i + 4 : "higherKey(" + k + ") = " + higher;
+            queries++;
+        }
+        executor.shutdown();
+        assert errors.get() == 0 : "Encountered " + errors.get() + " errors";
+        
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int k = 0; k < 4 * anchors; k++) if (bst.get(k) != null) expected.add(k);
+        for (int k = -1; k <= 4 * anchors; k++) {
+            assert Objects.equals(bst.floorKey(k), expected.floor(k)) && Objects.equals(bst.higherKey(k), expected.higher(k)) : "Neighbours of " + k + " once quiet";
+        }
+        System.out.println("✓ " + queries + " rounds of neighbour queries, exact once quiet");
+    }
 }
@@ -0,0 +1,124 @@
+package bst;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Test for the thread slot registry used by the handshake.
+ * Checks that slots of dead threads are reclaimed (scan stays bounded by live threads)
+ * and that more than 256 live threads all take part in the handshake, and that handshakes
+ * reclaim dead threads' slots when no thread leases again.
+ */
+public class ThreadChurnTest {
+
+    static final int CHURN_THREADS = 1000;
+    static final int LIVE_THREADS = 300;
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== Testing thread slot reclamation ===\n");
+
+        testChurnReclaimsSlots();
+        testManyLiveThreads();
+        testHandshakeReclaimsSlots();
+
+        System.out.println("\n=== ALL THREAD CHURN TESTS PASSED ===");
+    }
+
+    static void testChurnReclaimsSlots() throws Exception {
+        System.out.println("Test 1: " + CHURN_THREADS + " short-lived threads, one at a time");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>();
+
+        for (int t = 0; t < CHURN_THREADS; t++) {
+            final int key = t;
+            Thread worker = new Thread(() -> bst.put(key, key));
+            worker.start();
+            worker.join();
+        }
+
+        int scanLimit = bst.handshake().registry().scanLimit();
+        System.out.println("Scan limit after churn: " + scanLimit);
+        assert scanLimit <= 2 : "Dead threads' slots were not reclaimed, scan limit " + scanLimit;
+
+        int size = bst.sizeSnapshot();
+        assert size == CHURN_THREADS : "Expected size " + CHURN_THREADS + ", got " + size;
+        System.out.println("✓ Slots reclaimed, size = " + size);
+    }
+
+    static void testManyLiveThreads() throws Exception {
+        System.out.println("\nTest 2: " + LIVE_THREADS + " live updaters with concurrent size queries");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>();
+        CountDownLatch inserted = new CountDownLatch(LIVE_THREADS);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[LIVE_THREADS];
+
+        for (int t = 0; t < LIVE_THREADS; t++) {
+            final int seed = t;
+            workers[t] = new Thread(() -> {
+                Random rand = new Random(seed);
+                bst.put(seed, seed);
+                inserted.countDown();
+                try {
+                    go.await();  // Stay alive (and keep the slot) until every thread has one
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 200; i++) {
+                    int key = LIVE_THREADS + rand.nextInt(1000);
+                    if (rand.nextBoolean()) bst.put(key, key);
+                    else bst.remove(key);
+                }
+            });
+            workers[t].start();
+        }
+
+        inserted.await();
+        int scanLimit = bst.handshake().registry().scanLimit();
+        assert scanLimit >= LIVE_THREADS : "Every live thread needs a slot, scan limit " + scanLimit;
+        int size = bst.sizeSnapshot();
+        assert size == LIVE_THREADS : "Expected size " + LIVE_THREADS + ", got " + size;
+
+        go.countDown();
+        for (int i = 0; i < 20; i++) {
+            size = bst.sizeSnapshot();
+            assert size >= 0 : "Size should be non-negative";
+        }
+        for (Thread w : workers) w.join();
+
+        for (int key = 0; key < LIVE_THREADS; key++) {
+            assert bst.get(key) != null : "Key " + key + " should exist";
+        }
+        int structural = bst.sizeStructural();
+        size = bst.sizeSnapshot();
+        assert size == structural : "Snapshot size " + size + " != structural size " + structural;
+        System.out.println("✓ Scan limit " + scanLimit + ", final size = " + size);
+    }
+
+    static void testHandshakeReclaimsSlots() throws Exception {
+        System.out.println("\nTest 3: " + LIVE_THREADS + " updaters die together, then only queries run");
+        MyBSTnext<Integer, Integer> bst = new MyBSTnext<>();
+        CountDownLatch inserted = new CountDownLatch(LIVE_THREADS);
+        Thread[] workers = new Thread[LIVE_THREADS];
+        for (int t = 0; t < LIVE_THREADS; t++) {
+            final int key = t;
+            workers[t] = new Thread(() -> {
+                bst.put(key, key);
+                inserted.countDown();
+                try {
+                    inserted.await();  // Every thread holds its slot at once
+                } catch (InterruptedException e) {
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread w : workers) w.join();
+
+        int before = bst.handshake().registry().scanLimit();
+        assert before >= LIVE_THREADS : "Every thread needed a slot, scan limit " + before;
+        Thread.sleep(5);  // Past the interval between two reclaims by handshakes
+        int size = bst.sizeSnapshot();  // No lease since the threads died
+        int after = bst.handshake().registry().scanLimit();
+        assert after == 0 : "Handshake did not reclaim dead threads' slots, scan limit " + after;
+        assert size == LIVE_THREADS : "Expected size " + LIVE_THREADS + ", got " + size;
+        System.out.println("✓ Scan limit " + before + " -> " + after + " without a new lease, size = " + size);
+    }
+}